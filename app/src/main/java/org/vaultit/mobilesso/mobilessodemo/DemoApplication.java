@@ -0,0 +1,18 @@
+package org.vaultit.mobilesso.mobilessodemo;
+
+import android.app.Application;
+
+import org.vaultit.mobilesso.mobilessosdk.SessionManager;
+
+/**
+ * Starts loading the saved session at process start, before MainActivity creates its
+ * SessionManager.
+ */
+public class DemoApplication extends Application {
+
+    @Override
+    public void onCreate() {
+        super.onCreate();
+        SessionManager.preload(this);
+    }
+}
@@ -8,6 +8,7 @@ import android.content.Intent;
 import android.content.SharedPreferences;
 import android.graphics.Bitmap;
 import android.graphics.BitmapFactory;
+import android.net.Uri;
 import android.os.Build;
 import android.os.Bundle;
 import android.os.Handler;
@@ -30,18 +31,18 @@ import android.widget.Toast;
 import org.json.JSONArray;
 import org.json.JSONException;
 import org.json.JSONObject;
+import org.vaultit.mobilesso.mobilessosdk.AuthenticatedHttpClient;
 import org.vaultit.mobilesso.mobilessosdk.IdentityProvider;
 import org.vaultit.mobilesso.mobilessosdk.NotificationReceiver;
 import org.vaultit.mobilesso.mobilessosdk.Session;
 import org.vaultit.mobilesso.mobilessosdk.Session.SessionStatus;
 import org.vaultit.mobilesso.mobilessosdk.SessionError;
+import org.vaultit.mobilesso.mobilessosdk.SessionException;
 import org.vaultit.mobilesso.mobilessosdk.SessionManager;
 
-import java.io.BufferedReader;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.InputStreamReader;
 import java.net.MalformedURLException;
 import java.net.URL;
 import java.text.SimpleDateFormat;
@@ -50,6 +51,7 @@ import java.util.HashMap;
 import java.util.Locale;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicLong;
 
 import javax.net.ssl.HttpsURLConnection;
@@ -72,7 +74,7 @@ public final class MainActivity extends AppCompatActivity
     private static final String INTENT_EXTRA_LOGOUT_CALLBACK = "logoutCallback";
 
     // other constants
-    private static final int READ_STREAM_BUFFER_SIZE = 1024;
+    private static final long TOKEN_TIMEOUT_SECONDS = 30;
 
     private SessionManager mSessionManager;
     private IdentityProvider mIdentityProvider;
@@ -333,62 +335,42 @@ public final class MainActivity extends AppCompatActivity
             return;
         }
 
-        mSessionManager.getFreshSession(new SessionManager.TokenRefreshCallback() {
-            @Override
-            public void tokenRefreshCallback(
-                    @Nullable Session session,
-                    @Nullable SessionError error) {
-                if (error != null) {
-                    Log.d(TAG, "fetchPerson failed err=" + error.getErrorMessage());
-
-                    Bitmap profilePhoto = BitmapFactory.decodeFile(getCachedProfileFileName());
-                    mPersonInfo.setPhoto(profilePhoto);
-                    refreshUi();
-                } else {
-                    mExecutor.execute(new Runnable() {
-                        public void run() {
-                            readPerson();
-                        }
-                    });
-                }
+        mExecutor.execute(new Runnable() {
+            public void run() {
+                readPerson();
             }
         });
     }
 
     @WorkerThread
     private void readPerson() {
-        String accessToken = mSession.getAccessToken();
-
-        Log.d(TAG,"readPerson() accessToken=" + accessToken);
-        URL personEndpoint;
-
+        Uri personEndpoint = Uri.parse(getResources().getString(R.string.backend_person_get));
+        Log.d(TAG,"readPerson() " + personEndpoint);
         try {
-            personEndpoint = new URL(getResources().getString(R.string.backend_person_get));
-        } catch (MalformedURLException urlEx) {
-            Log.e(TAG, "readPerson() Failed to construct person info endpoint URL", urlEx);
-            return;
-        }
-
-        InputStream personResponse = null;
-        try {
-            HttpsURLConnection conn = (HttpsURLConnection) personEndpoint.openConnection();
-            conn.setRequestProperty("Authorization", "Bearer " + accessToken);
-            conn.setInstanceFollowRedirects(false);
-            personResponse = conn.getInputStream();
-            String response = readStream(personResponse);
-            updatePerson(new JSONObject(response),null);
+            // adds access token, refreshes it in this thread if needed and retries once on 401
+            AuthenticatedHttpClient.Response response =
+                    new AuthenticatedHttpClient(mSessionManager).get(personEndpoint);
+            if (!response.isSuccessful()) {
+                Log.e(TAG, "readPerson() person info endpoint returned " + response.getStatusCode());
+                updatePerson(null, "Person info endpoint returned " + response.getStatusCode());
+                return;
+            }
+            updatePerson(new JSONObject(response.getBodyAsString()), null);
+        } catch (SessionException ex) {
+            Log.d(TAG, "fetchPerson failed err=" + ex.getSessionError().getErrorMessage());
+            final Bitmap profilePhoto = BitmapFactory.decodeFile(getCachedProfileFileName());
+            new Handler(Looper.getMainLooper()).post(new Runnable() {
+                public void run() {
+                    mPersonInfo.setPhoto(profilePhoto);
+                    refreshUi();
+                }
+            });
         } catch (IOException ioEx) {
-            Log.e(TAG, "readPerson() Network error when querying card info endpoint (invalid access token?): ", ioEx);
+            Log.e(TAG, "readPerson() Network error when querying card info endpoint: ", ioEx);
             updatePerson(null, "Network error when querying card info endpoint: "+ ioEx.getMessage());
         } catch (JSONException jsonEx) {
             Log.e(TAG, "readPerson() Failed to parse card info response");
             updatePerson(null, "Failed to parse card info response");
-        } finally {
-            if (personResponse != null) {
-                try {
-                    personResponse.close();
-                } catch (Exception Ex) {}
-            }
         }
     }
 
@@ -427,21 +409,9 @@ public final class MainActivity extends AppCompatActivity
             return;
         }
 
-        mSessionManager.getFreshSession(new SessionManager.TokenRefreshCallback() {
-            @Override
-            public void tokenRefreshCallback(
-                    @Nullable Session session,
-                    @Nullable SessionError error) {
-                if (error != null) {
-                    Log.e(TAG, "fetchPhoto failed err=" + error.getErrorMessage());
-                } else {
-                    Log.d(TAG, "fetchPhoto succeeded");
-                    mExecutor.execute(new Runnable() {
-                        public void run() {
-                            readPhoto();
-                        }
-                    });
-                }
+        mExecutor.execute(new Runnable() {
+            public void run() {
+                readPhoto();
             }
         });
     }
@@ -456,7 +426,15 @@ public final class MainActivity extends AppCompatActivity
             Log.e(TAG,"readPhoto(): session doesn't exist!");
             return;
         }
-        String accessToken = mSession.getAccessToken();
+        Session session;
+        try {
+            session = mSessionManager.getFreshSessionBlocking(TOKEN_TIMEOUT_SECONDS,
+                    TimeUnit.SECONDS);
+        } catch (SessionException ex) {
+            Log.e(TAG, "fetchPhoto failed err=" + ex.getSessionError().getErrorMessage());
+            return;
+        }
+        String accessToken = session.getAccessToken();
 
         Log.d(TAG,"readPhoto()");
         URL photoEndpoint;
@@ -517,17 +495,6 @@ public final class MainActivity extends AppCompatActivity
         });
     }
 
-    private static String readStream(InputStream stream) throws IOException {
-        BufferedReader br = new BufferedReader(new InputStreamReader(stream));
-        char[] buffer = new char[READ_STREAM_BUFFER_SIZE];
-        StringBuilder sb = new StringBuilder();
-        int readCount;
-        while ((readCount = br.read(buffer)) != -1) {
-            sb.append(buffer, 0, readCount);
-        }
-        return sb.toString();
-    }
-
     // intent for starting up main activity after logout response redirect
     private Intent createPostLogoutIntent() {
         Intent intent = new Intent(mContext, MainActivity.class);
@@ -0,0 +1,37 @@
+package org.vaultit.mobilesso.mobilessosdk.okhttp;
+
+
+import android.support.annotation.NonNull;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Access tokens recently attached to requests by SessionInterceptor and SessionAuthenticator.
+ * SessionAuthenticator handles a 401 only if the request carries one of them, so that it never
+ * replaces a token which the application attached itself, and never sends the session's token
+ * to a host the application did not send it to.
+ */
+final class AttachedTokens {
+    // current token and a few previous ones, for requests in flight during a refresh
+    private static final int MAX_TOKENS = 4;
+
+    private static final Map<String,Boolean> sTokens =
+            new LinkedHashMap<String,Boolean>(MAX_TOKENS, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<String,Boolean> eldest) {
+                    return size() > MAX_TOKENS;
+                }
+            };
+
+    private AttachedTokens() {
+    }
+
+    static synchronized void add(@NonNull String accessToken) {
+        sTokens.put(accessToken, Boolean.TRUE);
+    }
+
+    static synchronized boolean contains(@NonNull String accessToken) {
+        return sTokens.containsKey(accessToken);
+    }
+}
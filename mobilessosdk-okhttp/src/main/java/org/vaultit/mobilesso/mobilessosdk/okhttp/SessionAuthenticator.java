@@ -0,0 +1,79 @@
+package org.vaultit.mobilesso.mobilessosdk.okhttp;
+
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+import android.util.Log;
+
+import org.vaultit.mobilesso.mobilessosdk.SessionException;
+import org.vaultit.mobilesso.mobilessosdk.SessionManager;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import okhttp3.Authenticator;
+import okhttp3.Request;
+import okhttp3.Response;
+import okhttp3.Route;
+
+import static org.vaultit.mobilesso.mobilessosdk.okhttp.SessionInterceptor.BEARER_PREFIX;
+import static org.vaultit.mobilesso.mobilessosdk.okhttp.SessionInterceptor.DEFAULT_SESSION_TIMEOUT_MS;
+import static org.vaultit.mobilesso.mobilessosdk.okhttp.SessionInterceptor.HEADER_AUTHORIZATION;
+
+/**
+ * OkHttp authenticator which recovers from HTTP 401 by refreshing tokens once with
+ * SessionManager.refreshSessionBlocking() and retrying the request.  The refresh is keyed on
+ * the rejected token, so concurrent 401s share a single refresh.  Only requests whose token
+ * was attached by SessionInterceptor are handled; requests the application authorized itself
+ * are left alone.
+ */
+public class SessionAuthenticator implements Authenticator {
+    private static final String TAG = "SessionAuthenticator";
+
+    private final SessionManager mSessionManager;
+    private final long mSessionTimeoutMs;
+
+    public SessionAuthenticator(@NonNull SessionManager sessionManager) {
+        this(sessionManager, DEFAULT_SESSION_TIMEOUT_MS);
+    }
+
+    /**
+     * @param sessionManager    provides access tokens
+     * @param sessionTimeoutMs  maximum time to wait for the refresh
+     */
+    public SessionAuthenticator(@NonNull SessionManager sessionManager, long sessionTimeoutMs) {
+        mSessionManager = sessionManager;
+        mSessionTimeoutMs = sessionTimeoutMs;
+    }
+
+    @Nullable
+    @Override
+    public Request authenticate(@Nullable Route route, @NonNull Response response)
+            throws IOException {
+        String authorization = response.request().header(HEADER_AUTHORIZATION);
+        if (authorization == null || !authorization.startsWith(BEARER_PREFIX) ||
+                !AttachedTokens.contains(authorization.substring(BEARER_PREFIX.length()))) {
+            return null;  // not a request authenticated by the SDK
+        }
+        if (response.priorResponse() != null) {
+            Log.d(TAG,"authenticate(): retried request rejected too, giving up");
+            return null;
+        }
+        String staleToken = authorization.substring(BEARER_PREFIX.length());
+        String freshToken;
+        try {
+            freshToken = mSessionManager.refreshSessionBlocking(staleToken, mSessionTimeoutMs,
+                    TimeUnit.MILLISECONDS).getAccessToken();
+        } catch (SessionException ex) {
+            Log.d(TAG,"authenticate(): refresh failed, error=" + ex.getErrorCode());
+            return null;
+        }
+        if (freshToken == null || freshToken.equals(staleToken)) {
+            return null;
+        }
+        AttachedTokens.add(freshToken);
+        return response.request().newBuilder()
+                .header(HEADER_AUTHORIZATION, BEARER_PREFIX + freshToken)
+                .build();
+    }
+}
@@ -0,0 +1,74 @@
+package org.vaultit.mobilesso.mobilessosdk.okhttp;
+
+
+import android.support.annotation.NonNull;
+import android.util.Log;
+
+import org.vaultit.mobilesso.mobilessosdk.SessionException;
+import org.vaultit.mobilesso.mobilessosdk.SessionManager;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import okhttp3.Interceptor;
+import okhttp3.Request;
+import okhttp3.Response;
+
+/**
+ * OkHttp interceptor which adds the session's access token to requests.  The token is taken
+ * with SessionManager.getFreshSessionBlocking() in OkHttp's calling thread.  Requests which
+ * already have an Authorization header are passed as is.
+ *
+ * Use together with SessionAuthenticator, which recovers from HTTP 401:
+ *
+ *     OkHttpClient client = new OkHttpClient.Builder()
+ *             .addInterceptor(new SessionInterceptor(sessionManager))
+ *             .authenticator(new SessionAuthenticator(sessionManager))
+ *             .build();
+ */
+public class SessionInterceptor implements Interceptor {
+    private static final String TAG = "SessionInterceptor";
+
+    static final String HEADER_AUTHORIZATION = "Authorization";
+    static final String BEARER_PREFIX = "Bearer ";
+    static final long DEFAULT_SESSION_TIMEOUT_MS = 30000;
+
+    private final SessionManager mSessionManager;
+    private final long mSessionTimeoutMs;
+
+    public SessionInterceptor(@NonNull SessionManager sessionManager) {
+        this(sessionManager, DEFAULT_SESSION_TIMEOUT_MS);
+    }
+
+    /**
+     * @param sessionManager    provides access tokens
+     * @param sessionTimeoutMs  maximum time to wait for a fresh session per request
+     */
+    public SessionInterceptor(@NonNull SessionManager sessionManager, long sessionTimeoutMs) {
+        mSessionManager = sessionManager;
+        mSessionTimeoutMs = sessionTimeoutMs;
+    }
+
+    @Override
+    public Response intercept(@NonNull Chain chain) throws IOException {
+        Request request = chain.request();
+        if (request.header(HEADER_AUTHORIZATION) != null) {
+            return chain.proceed(request);
+        }
+        String accessToken;
+        try {
+            accessToken = mSessionManager.getFreshSessionBlocking(mSessionTimeoutMs,
+                    TimeUnit.MILLISECONDS).getAccessToken();
+        } catch (SessionException ex) {
+            Log.d(TAG,"intercept(): no fresh session, error=" + ex.getErrorCode());
+            throw new IOException("No fresh session: " + ex.getMessage(), ex);
+        }
+        if (accessToken == null) {
+            return chain.proceed(request);
+        }
+        AttachedTokens.add(accessToken);
+        return chain.proceed(request.newBuilder()
+                .header(HEADER_AUTHORIZATION, BEARER_PREFIX + accessToken)
+                .build());
+    }
+}
@@ -0,0 +1,89 @@
+package org.vaultit.mobilesso.mobilessosdk.okhttp;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+import org.vaultit.mobilesso.mobilessosdk.Session;
+import org.vaultit.mobilesso.mobilessosdk.SessionManager;
+
+import java.util.concurrent.TimeUnit;
+
+import okhttp3.Protocol;
+import okhttp3.Request;
+import okhttp3.Response;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyLong;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+@RunWith(RobolectricTestRunner.class)
+@Config(manifest=Config.NONE)
+public class SessionAuthenticatorTest {
+    private static final String URL = "https://api.example.com/resource";
+
+    private SessionManager mSessionManager;
+    private SessionAuthenticator mAuthenticator;
+
+    @Before
+    public void setUp() throws Exception {
+        mSessionManager = mock(SessionManager.class);
+        Session fresh = mock(Session.class);
+        when(fresh.getAccessToken()).thenReturn("fresh-token");
+        when(mSessionManager.refreshSessionBlocking(eq("stale-token"), anyLong(),
+                any(TimeUnit.class))).thenReturn(fresh);
+        mAuthenticator = new SessionAuthenticator(mSessionManager);
+        AttachedTokens.add("stale-token");  // as attached by SessionInterceptor
+    }
+
+    @Test
+    public void rejectedRequestIsRetriedWithFreshToken() throws Exception {
+        Request retry = mAuthenticator.authenticate(null, unauthorized("stale-token", null));
+
+        assertEquals("Bearer fresh-token", retry.header("Authorization"));
+        assertEquals(URL, retry.url().toString());
+        assertTrue(AttachedTokens.contains("fresh-token"));
+        verify(mSessionManager, times(1)).refreshSessionBlocking(eq("stale-token"), anyLong(),
+                any(TimeUnit.class));
+    }
+
+    @Test
+    public void retriedRequestIsNotRetriedAgain() throws Exception {
+        Response prior = unauthorized("stale-token", null);
+
+        assertNull(mAuthenticator.authenticate(null, unauthorized("stale-token", prior)));
+        verify(mSessionManager, never()).refreshSessionBlocking(anyString(), anyLong(),
+                any(TimeUnit.class));
+    }
+
+    @Test
+    public void applicationTokenIsLeftAlone() throws Exception {
+        assertNull(mAuthenticator.authenticate(null,
+                unauthorized("application-token", null)));
+        verify(mSessionManager, never()).refreshSessionBlocking(anyString(), anyLong(),
+                any(TimeUnit.class));
+    }
+
+    private static Response unauthorized(String accessToken, Response prior) {
+        Request request = new Request.Builder().url(URL)
+                .header("Authorization", "Bearer " + accessToken)
+                .build();
+        return new Response.Builder()
+                .request(request)
+                .protocol(Protocol.HTTP_1_1)
+                .code(401)
+                .message("Unauthorized")
+                .priorResponse(prior)
+                .build();
+    }
+}
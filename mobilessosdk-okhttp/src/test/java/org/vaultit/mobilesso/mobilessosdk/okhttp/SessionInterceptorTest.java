@@ -0,0 +1,85 @@
+package org.vaultit.mobilesso.mobilessosdk.okhttp;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.ArgumentCaptor;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+import org.vaultit.mobilesso.mobilessosdk.Session;
+import org.vaultit.mobilesso.mobilessosdk.SessionManager;
+
+import java.util.concurrent.TimeUnit;
+
+import okhttp3.Interceptor;
+import okhttp3.Protocol;
+import okhttp3.Request;
+import okhttp3.Response;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyLong;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+@RunWith(RobolectricTestRunner.class)
+@Config(manifest=Config.NONE)
+public class SessionInterceptorTest {
+    private static final String URL = "https://api.example.com/resource";
+
+    private SessionManager mSessionManager;
+    private SessionInterceptor mInterceptor;
+
+    @Before
+    public void setUp() throws Exception {
+        mSessionManager = mock(SessionManager.class);
+        Session session = mock(Session.class);
+        when(session.getAccessToken()).thenReturn("interceptor-token");
+        when(mSessionManager.getFreshSessionBlocking(anyLong(), any(TimeUnit.class)))
+                .thenReturn(session);
+        mInterceptor = new SessionInterceptor(mSessionManager);
+    }
+
+    @Test
+    public void sessionTokenIsAttached() throws Exception {
+        Request request = new Request.Builder().url(URL).build();
+        Interceptor.Chain chain = chain(request);
+
+        mInterceptor.intercept(chain);
+
+        ArgumentCaptor<Request> sent = ArgumentCaptor.forClass(Request.class);
+        verify(chain).proceed(sent.capture());
+        assertEquals("Bearer interceptor-token", sent.getValue().header("Authorization"));
+        assertTrue(AttachedTokens.contains("interceptor-token"));
+    }
+
+    @Test
+    public void applicationTokenIsNotReplaced() throws Exception {
+        Request request = new Request.Builder().url(URL)
+                .header("Authorization", "Bearer application-token")
+                .build();
+        Interceptor.Chain chain = chain(request);
+
+        mInterceptor.intercept(chain);
+
+        verify(chain).proceed(request);
+        verify(mSessionManager, never()).getFreshSessionBlocking(anyLong(),
+                any(TimeUnit.class));
+    }
+
+    private static Interceptor.Chain chain(Request request) throws Exception {
+        Interceptor.Chain chain = mock(Interceptor.Chain.class);
+        when(chain.request()).thenReturn(request);
+        when(chain.proceed(any(Request.class))).thenReturn(new Response.Builder()
+                .request(request)
+                .protocol(Protocol.HTTP_1_1)
+                .code(200)
+                .message("OK")
+                .build());
+        return chain;
+    }
+}
@@ -0,0 +1,279 @@
+package org.vaultit.mobilesso.mobilessosdk;
+
+import android.content.Context;
+import android.content.Intent;
+import android.net.Uri;
+import android.os.SystemClock;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+import android.util.Base64;
+import android.util.Log;
+
+import net.openid.appauth.AuthState;
+import net.openid.appauth.AuthorizationServiceConfiguration;
+import net.openid.appauth.GrantTypeValues;
+import net.openid.appauth.TokenRequest;
+import net.openid.appauth.TokenResponse;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.Arrays;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Cold start cost of loading session data:
+ *
+ *  - "legacy" is readData() as it was before decoding was made lazy, decoding every
+ *    persisted component from the same store
+ *  - "lazy" is Data.create() and the components which initialize() decodes
+ *  - "initialize" is a cold SessionManager constructor and initialize() until the listener
+ *    gets the session, as at process start; the discovery document is fresh in the cache,
+ *    so there is no network access
+ *
+ * Results are logged:
+ *
+ *     adb logcat -s DataStartupBenchmark
+ */
+@RunWith(AndroidJUnit4.class)
+public class DataStartupBenchmark {
+    private static final String TAG = "DataStartupBenchmark";
+    private static final int WARMUP_ROUNDS = 10;
+    private static final int ROUNDS = 50;
+    private static final String DISCOVERY_ENDPOINT =
+            "https://idp.example.com/.well-known/openid-configuration";
+    private static final String ID_TOKEN_PAYLOAD = "{\"iat\":1508760000,\"exp\":4102444800," +
+            "\"auth_time\":1508760000,\"iss\":\"https://idp.example.com\",\"aud\":\"client_id\"," +
+            "\"oxOpenIDConnectVersion\":\"openidconnect-1.0\",\"oxValidationURI\":" +
+            "\"https://idp.example.com/oxauth/opiframe\",\"sub\":\"user\",\"name\":\"Test User\"}";
+
+    private Context mContext;
+
+    @Before
+    public void setUp() throws Exception {
+        mContext = InstrumentationRegistry.getTargetContext();
+        Data.releaseInstance();
+        Data.diskDataReset(mContext);
+        Data data = Data.create(mContext);
+        data.init(createIdentityProvider());
+        data.setAuthState(createAuthState());
+        data.setIdTokenPayload(new IdTokenPayload(ID_TOKEN_PAYLOAD));
+        data.setLogoutEndPoint(Uri.parse("https://idp.example.com/logout"));
+        data.setTokenResponseIntent(new Intent(Intent.ACTION_VIEW, Uri.parse("app://token"))
+                .putExtra("extra", "value"));
+        data.setLogoutResponseIntent(new Intent(Intent.ACTION_VIEW, Uri.parse("app://logout"))
+                .putExtra("extra", "value"));
+        data.putScopedToken(new ScopedToken("api", "scoped-token", "Bearer",
+                System.currentTimeMillis() + 3600000L));
+        data.flush();
+        // fresh document, initialize() does not revalidate it
+        data.getDiscoveryCache().put(Uri.parse(DISCOVERY_ENDPOINT), new DiscoveryCache.Entry(
+                createDiscoveryDocument(), null, null, System.currentTimeMillis(),
+                TimeUnit.DAYS.toMillis(1)));
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        Data.releaseInstance();
+        Data.diskDataReset(mContext);
+    }
+
+    @Test
+    public void coldLoad() throws Exception {
+        long legacyUs = measure(new Runnable() {
+            @Override
+            public void run() {
+                legacyLoad();
+            }
+        });
+        long lazyUs = measure(new Runnable() {
+            @Override
+            public void run() {
+                lazyLoad();
+            }
+        });
+        long initializeUs = measure(new Runnable() {
+            @Override
+            public void run() {
+                coldInitialize();
+            }
+        });
+        Log.i(TAG, "cold load median: legacy=" + legacyUs + " us, lazy=" + lazyUs +
+                " us, initialize=" + initializeUs + " us");
+        assertTrue("lazy load not faster than legacy", lazyUs < legacyUs);
+    }
+
+    // median time in microseconds
+    private static long measure(@NonNull Runnable load) {
+        for (int i = 0; i < WARMUP_ROUNDS; i++) {
+            load.run();
+        }
+        long[] times = new long[ROUNDS];
+        for (int i = 0; i < ROUNDS; i++) {
+            long start = SystemClock.elapsedRealtimeNanos();
+            load.run();
+            times[i] = (SystemClock.elapsedRealtimeNanos() - start) / 1000;
+        }
+        Arrays.sort(times);
+        return times[ROUNDS / 2];
+    }
+
+    // readData() before decoding was made lazy; store files are closed after reading
+    private void legacyLoad() {
+        SessionStore store = Data.openStore(mContext);
+        String authStateJson = store.getString("authStateInJson");
+        String idTokenPayloadJson = store.getString("idTokenPayloadInJson");
+        String logoutUri = store.getString("logoutEndpoint");
+        String idpJson = store.getString("idpInJson");
+        String tokResp = store.getString("tokenResponseIntent");
+        String logoutIntent = store.getString("logoutResponseIntent");
+        String scopedTokensJson = store.getString("scopedTokensInJson");
+        store.getBoolean("smInitOngoing", false);
+        store.getBoolean("networkAvailable", true);
+        try {
+            Uri.parse(logoutUri);
+            Log.d(TAG, "readData(): authStateJson=" + authStateJson);
+            assertNotNull(AuthState.jsonDeserialize(authStateJson));
+            Log.d(TAG, "readData(): idTokenPayloadJson=" + idTokenPayloadJson);
+            assertTrue(new IdTokenPayload(idTokenPayloadJson).isValid());
+            assertNotNull(IdentityProvider.deserializeFromJson(idpJson));
+            assertNotNull(Intent.parseUri(tokResp, Intent.URI_INTENT_SCHEME));
+            assertNotNull(Intent.parseUri(logoutIntent, Intent.URI_INTENT_SCHEME));
+            ScopedTokenCache scopedTokens = new ScopedTokenCache();
+            scopedTokens.deserializeFromJson(scopedTokensJson);
+            assertEquals(1, scopedTokens.size());
+        } catch (Exception ex) {
+            throw new AssertionError(ex);
+        }
+    }
+
+    // what initialize() decodes, see Data.preload()
+    private void lazyLoad() {
+        Data data = Data.create(mContext);
+        assertNotNull(data.getAuthState());
+        assertNotNull(data.getIdp());
+        data.getNeedsTokenRefresh();
+        assertNotNull(data.getIdTokenPayload());
+    }
+
+    private void coldInitialize() {
+        Data.releaseInstance();
+        final InitializedListener listener = new InitializedListener();
+        final SessionManager[] manager = new SessionManager[1];
+        // as an application does in onCreate(); the result is delivered in the main thread
+        InstrumentationRegistry.getInstrumentation().runOnMainSync(new Runnable() {
+            @Override
+            public void run() {
+                manager[0] = new SessionManager(mContext, createIdentityProvider());
+                Data.getInstance(mContext).getListeners().add(listener);
+                manager[0].initialize();
+            }
+        });
+        try {
+            assertTrue("initialize() timed out", listener.mDone.await(10, TimeUnit.SECONDS));
+        } catch (InterruptedException ex) {
+            throw new AssertionError(ex);
+        }
+        assertNotNull("initialize() failed: " + listener.mError, listener.mSession);
+        Data.getInstance(mContext).getListeners().remove(listener);
+        manager[0].dispose();
+    }
+
+    private static IdentityProvider createIdentityProvider() {
+        return new IdentityProvider(
+                DISCOVERY_ENDPOINT,
+                "client_id",
+                "client_secret",
+                "test.mobilessodemo.auth://oidc_callback",
+                "test.mobilessodemo.logout://oidc_callback",
+                "openid profile email");
+    }
+
+    private static AuthState createAuthState() {
+        AuthorizationServiceConfiguration config = new AuthorizationServiceConfiguration(
+                Uri.parse("https://idp.example.com/authorize"),
+                Uri.parse("https://idp.example.com/token"));
+        TokenRequest request = new TokenRequest.Builder(config, "client_id")
+                .setGrantType(GrantTypeValues.REFRESH_TOKEN)
+                .setRefreshToken("refresh-token")
+                .build();
+        String idToken = "eyJhbGciOiJSUzI1NiJ9." + Base64.encodeToString(
+                ID_TOKEN_PAYLOAD.getBytes(), Base64.URL_SAFE | Base64.NO_PADDING |
+                        Base64.NO_WRAP) + ".signature";
+        TokenResponse response = new TokenResponse.Builder(request)
+                .setTokenType("Bearer")
+                .setAccessToken("access-token")
+                .setAccessTokenExpirationTime(System.currentTimeMillis() + 3600000L)
+                .setIdToken(idToken)
+                .setRefreshToken("refresh-token")
+                .build();
+        AuthState authState = new AuthState(config);
+        authState.update(response, null);
+        return authState;
+    }
+
+    private static JSONObject createDiscoveryDocument() throws Exception {
+        String issuer = "https://idp.example.com";
+        return new JSONObject()
+                .put("issuer", issuer)
+                .put("authorization_endpoint", issuer + "/authorize")
+                .put("token_endpoint", issuer + "/token")
+                .put("end_session_endpoint", issuer + "/logout")
+                .put("jwks_uri", issuer + "/jwks")
+                .put("response_types_supported", new JSONArray().put("code"))
+                .put("subject_types_supported", new JSONArray().put("public"))
+                .put("id_token_signing_alg_values_supported", new JSONArray().put("RS256"));
+    }
+
+    private static class InitializedListener implements SessionManager.SessionListener {
+        final CountDownLatch mDone = new CountDownLatch(1);
+        volatile Session mSession;
+        volatile SessionError mError;
+
+        @Override
+        public void initialized(@Nullable Session session, @Nullable SessionError error) {
+            mSession = session;
+            mError = error;
+            mDone.countDown();
+        }
+
+        @Override
+        public void didFailAuthorize(@NonNull SessionError error) {
+        }
+
+        @Override
+        public void didFailLogout(@NonNull SessionError error) {
+        }
+
+        @Override
+        public void didLoseSession(@NonNull SessionError error) {
+        }
+
+        @Override
+        public void didResumeSession(Session session) {
+        }
+
+        @Override
+        public void didRefreshSession(Session session) {
+        }
+
+        @Override
+        public void didLoseNetwork() {
+        }
+
+        @Override
+        public void didGainNetwork() {
+        }
+    }
+}
@@ -0,0 +1,201 @@
+package org.vaultit.mobilesso.mobilessosdk;
+
+
+import android.net.Uri;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+import android.support.annotation.WorkerThread;
+import android.util.Log;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.net.HttpURLConnection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Executes HTTP requests to APIs protected with the session's access token.
+ *
+ *  - the access token is taken with SessionManager.getFreshSessionBlocking(), so requests
+ *    are made in the calling worker thread without hops to the main thread
+ *  - connections come from an IdpTransport (PooledIdpTransport by default) and are returned
+ *    to the keep-alive pool after the response has been read
+ *  - on HTTP 401 the tokens are refreshed once with SessionManager.refreshSessionBlocking()
+ *    and the request is retried; concurrent 401s share a single refresh
+ *
+ * Usage:
+ *
+ *     AuthenticatedHttpClient client = new AuthenticatedHttpClient(sessionManager);
+ *     AuthenticatedHttpClient.Response response = client.get(Uri.parse(url));
+ */
+public class AuthenticatedHttpClient {
+    private static final String TAG = "AuthenticatedHttpClient";
+
+    public static final long DEFAULT_SESSION_TIMEOUT_MS = 30000;
+
+    private static final int READ_BUFFER_SIZE = 1024;
+
+    private final SessionManager mSessionManager;
+    private final IdpTransport mTransport;
+    private final long mSessionTimeoutMs;
+
+    /**
+     * Creates client with a pooled transport and default session timeout.
+     */
+    public AuthenticatedHttpClient(@NonNull SessionManager sessionManager) {
+        this(sessionManager, new PooledIdpTransport(), DEFAULT_SESSION_TIMEOUT_MS);
+    }
+
+    /**
+     * @param sessionManager    provides access tokens
+     * @param transport         opens connections, sets timeouts
+     * @param sessionTimeoutMs  maximum time to wait for a fresh session per request
+     */
+    public AuthenticatedHttpClient(@NonNull SessionManager sessionManager,
+                                   @NonNull IdpTransport transport,
+                                   long sessionTimeoutMs) {
+        mSessionManager = Preconditions.checkNotNull(sessionManager);
+        mTransport = Preconditions.checkNotNull(transport);
+        Preconditions.checkArgument(sessionTimeoutMs > 0, "sessionTimeoutMs must be positive");
+        mSessionTimeoutMs = sessionTimeoutMs;
+    }
+
+    /**
+     * Performs GET request.
+     */
+    @WorkerThread
+    @NonNull
+    public Response get(@NonNull Uri uri) throws IOException, SessionException {
+        return execute("GET", uri, null, null);
+    }
+
+    /**
+     * Performs request with the access token in the Authorization header.  The body is kept
+     * in memory, so that the request can be retried after a token refresh.
+     *
+     * @param method       HTTP method, e.g. "POST"
+     * @param uri          API endpoint
+     * @param contentType  content type of body, can be null if no body
+     * @param body         request body, can be null
+     * @return response; any status other than 401 is returned as is
+     * @throws IOException       on network error, or if uri is not https
+     * @throws SessionException  if no fresh session is available
+     */
+    @WorkerThread
+    @NonNull
+    public Response execute(@NonNull String method, @NonNull Uri uri,
+                            @Nullable String contentType, @Nullable byte[] body)
+            throws IOException, SessionException {
+        String accessToken = mSessionManager.getFreshSessionBlocking(mSessionTimeoutMs,
+                TimeUnit.MILLISECONDS).getAccessToken();
+        Response response = executeOnce(method, uri, contentType, body, accessToken);
+        if (response.getStatusCode() != HttpURLConnection.HTTP_UNAUTHORIZED) {
+            return response;
+        }
+        Log.d(TAG,"execute(): 401 from " + uri + ", refreshing tokens");
+        String freshToken = mSessionManager.refreshSessionBlocking(accessToken, mSessionTimeoutMs,
+                TimeUnit.MILLISECONDS).getAccessToken();
+        return executeOnce(method, uri, contentType, body, freshToken);
+    }
+
+    private Response executeOnce(@NonNull String method, @NonNull Uri uri,
+                                 @Nullable String contentType, @Nullable byte[] body,
+                                 @Nullable String accessToken) throws IOException {
+        HttpURLConnection conn = TransportConnectionBuilder.openHttpsConnection(mTransport, uri);
+        conn.setRequestMethod(method);
+        if (accessToken != null) {
+            conn.setRequestProperty("Authorization", "Bearer " + accessToken);
+        }
+        if (body != null) {
+            if (contentType != null) {
+                conn.setRequestProperty("Content-Type", contentType);
+            }
+            conn.setDoOutput(true);
+            conn.setFixedLengthStreamingMode(body.length);
+            OutputStream os = conn.getOutputStream();
+            try {
+                os.write(body);
+            } finally {
+                os.close();
+            }
+        }
+
+        InputStream is = null;
+        try {
+            int status = conn.getResponseCode();
+            is = (status < HttpURLConnection.HTTP_BAD_REQUEST ?
+                    conn.getInputStream() : conn.getErrorStream());
+            byte[] responseBody = (is != null ? readFully(is) : new byte[0]);
+            return new Response(status, conn.getHeaderFields(), responseBody);
+        } finally {
+            PooledIdpTransport.release(is);
+        }
+    }
+
+    private static byte[] readFully(@NonNull InputStream stream) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buffer = new byte[READ_BUFFER_SIZE];
+        int readCount;
+        while ((readCount = stream.read(buffer)) != -1) {
+            out.write(buffer, 0, readCount);
+        }
+        return out.toByteArray();
+    }
+
+    /**
+     * Fully read HTTP response.
+     */
+    public static class Response {
+        private final int statusCode;
+        private final Map<String, List<String>> headers;
+        private final byte[] body;
+
+        Response(int statusCode, @Nullable Map<String, List<String>> headers,
+                 @NonNull byte[] body) {
+            this.statusCode = statusCode;
+            this.headers = (headers != null ? headers :
+                    Collections.<String, List<String>>emptyMap());
+            this.body = body;
+        }
+
+        public int getStatusCode() {
+            return statusCode;
+        }
+
+        public boolean isSuccessful() {
+            return statusCode >= 200 && statusCode < 300;
+        }
+
+        /**
+         * Returns first value of header, null if not present.
+         */
+        @Nullable
+        public String getHeaderField(@NonNull String name) {
+            for (Map.Entry<String, List<String>> header : headers.entrySet()) {
+                if (name.equalsIgnoreCase(header.getKey()) && !header.getValue().isEmpty()) {
+                    return header.getValue().get(0);
+                }
+            }
+            return null;
+        }
+
+        @NonNull
+        public byte[] getBody() {
+            return body;
+        }
+
+        @NonNull
+        public String getBodyAsString() {
+            try {
+                return new String(body, "UTF-8");
+            } catch (UnsupportedEncodingException ex) {
+                throw new IllegalStateException(ex);
+            }
+        }
+    }
+}
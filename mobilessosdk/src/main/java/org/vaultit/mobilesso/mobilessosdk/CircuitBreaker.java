@@ -0,0 +1,183 @@
+package org.vaultit.mobilesso.mobilessosdk;
+
+
+import android.net.Uri;
+import android.os.SystemClock;
+import android.support.annotation.NonNull;
+import android.util.Log;
+
+import net.openid.appauth.AuthorizationException;
+import net.openid.appauth.AuthorizationException.GeneralErrors;
+
+import java.net.SocketTimeoutException;
+import java.util.HashMap;
+import java.util.Map;
+
+import static net.openid.appauth.AuthorizationException.TYPE_GENERAL_ERROR;
+import static net.openid.appauth.AuthorizationException.TYPE_OAUTH_AUTHORIZATION_ERROR;
+import static net.openid.appauth.AuthorizationException.TYPE_OAUTH_TOKEN_ERROR;
+
+/**
+ * Circuit breaker for the token endpoint of an identity provider.  After repeated server
+ * errors (5xx) or timeouts the breaker opens, and token refreshes fail fast with
+ * SESSION_REFRESH_CIRCUIT_OPEN_ERROR until the cool-down period has passed.  After that one
+ * trial request is let through (HALF_OPEN): on success the breaker closes, on failure it
+ * opens again.  Only a response of the token endpoint, success or OAuth error, closes the
+ * breaker; other errors, e.g. a refused connection, leave it as it is.
+ *
+ * There is one breaker per identity provider (discovery endpoint) per process, see
+ * SessionManager.getCircuitBreaker().
+ */
+public class CircuitBreaker {
+    private static final String TAG = "CircuitBreaker";
+
+    static final int DEFAULT_FAILURE_THRESHOLD = 5;
+    static final long DEFAULT_COOL_DOWN_MS = 60000L;
+
+    // error reported while breaker is open
+    static final int CIRCUIT_OPEN_CODE = 1000;
+    static final AuthorizationException CIRCUIT_OPEN_ERROR = new AuthorizationException(
+            TYPE_GENERAL_ERROR, CIRCUIT_OPEN_CODE, "circuit_open",
+            "Token endpoint is failing, not retrying until cool-down has passed", null, null);
+
+    private static final Map<String, CircuitBreaker> sBreakers = new HashMap<>();
+
+    public enum State {
+        CLOSED,      // requests are made normally
+        OPEN,        // requests fail fast until cool-down has passed
+        HALF_OPEN    // one trial request is allowed
+    }
+
+    private State mState = State.CLOSED;
+    private int mFailureThreshold = DEFAULT_FAILURE_THRESHOLD;
+    private long mCoolDownMs = DEFAULT_COOL_DOWN_MS;
+    private int mConsecutiveFailures = 0;
+    private long mOpenedAt = 0;
+    private boolean mTrialInFlight = false;
+
+    CircuitBreaker() {}
+
+    /**
+     * Returns the process wide breaker of the identity provider.
+     */
+    static CircuitBreaker forIdp(@NonNull IdentityProvider idp) {
+        return forEndpoint(idp.getDiscoveryEndpoint());
+    }
+
+    static CircuitBreaker forEndpoint(@NonNull Uri discoveryEndpoint) {
+        synchronized (sBreakers) {
+            String key = discoveryEndpoint.toString();
+            CircuitBreaker breaker = sBreakers.get(key);
+            if (breaker == null) {
+                breaker = new CircuitBreaker();
+                sBreakers.put(key, breaker);
+            }
+            return breaker;
+        }
+    }
+
+    /**
+     * Configures breaker.
+     * @param failureThreshold  consecutive 5xx errors or timeouts before breaker opens
+     * @param coolDownMs        how long breaker stays open before a trial request
+     */
+    public synchronized void configure(int failureThreshold, long coolDownMs) {
+        Preconditions.checkArgument(failureThreshold >= 1, "failureThreshold must be at least 1");
+        Preconditions.checkArgument(coolDownMs >= 0, "coolDownMs must not be negative");
+        mFailureThreshold = failureThreshold;
+        mCoolDownMs = coolDownMs;
+    }
+
+    /**
+     * Current state.  An open breaker whose cool-down has passed is reported as HALF_OPEN.
+     */
+    public synchronized State getState() {
+        if (mState == State.OPEN && now() - mOpenedAt >= mCoolDownMs) {
+            return State.HALF_OPEN;
+        }
+        return mState;
+    }
+
+    /**
+     * Time left until an open breaker lets a trial request through, 0 if not open.
+     */
+    public synchronized long getRemainingCoolDownMs() {
+        if (mState != State.OPEN) {
+            return 0;
+        }
+        return Math.max(0, mCoolDownMs - (now() - mOpenedAt));
+    }
+
+    /**
+     * Closes breaker, e.g. when application knows that the identity provider has recovered.
+     */
+    public synchronized void reset() {
+        Log.d(TAG,"reset()");
+        mState = State.CLOSED;
+        mConsecutiveFailures = 0;
+        mTrialInFlight = false;
+    }
+
+    /**
+     * Should a request be made?  Returns false while breaker is open.
+     */
+    synchronized boolean allowRequest() {
+        switch (getState()) {
+            case CLOSED:
+                return true;
+            case HALF_OPEN:
+                if (mTrialInFlight) {
+                    return false;
+                }
+                mState = State.HALF_OPEN;
+                mTrialInFlight = true;
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    /**
+     * Records result of a request allowed by allowRequest().
+     * @param ex  null on success
+     */
+    synchronized void recordResult(AuthorizationException ex) {
+        mTrialInFlight = false;
+        if (ex != null && isBreakerFailure(ex)) {
+            mConsecutiveFailures++;
+            if (mState == State.HALF_OPEN || mConsecutiveFailures >= mFailureThreshold) {
+                Log.w(TAG,"recordResult(): opening breaker after " + mConsecutiveFailures +
+                        " failures");
+                mState = State.OPEN;
+                mOpenedAt = now();
+            }
+        } else if (ex == null || isEndpointResponse(ex)) {
+            // success or OAuth error, either way the token endpoint is responding
+            mConsecutiveFailures = 0;
+            mState = State.CLOSED;
+        }
+        // otherwise, e.g. no connectivity, nothing is known about the endpoint
+    }
+
+    // 5xx errors and timeouts count as failures, e.g. missing connectivity does not
+    static boolean isBreakerFailure(@NonNull AuthorizationException ex) {
+        if (ex.code == GeneralErrors.SERVER_ERROR.code) {
+            return true;
+        }
+        return ex.code == GeneralErrors.NETWORK_ERROR.code &&
+                ex.getCause() instanceof SocketTimeoutException;
+    }
+
+    // error response of the token endpoint
+    static boolean isEndpointResponse(@NonNull AuthorizationException ex) {
+        return ex.type == TYPE_OAUTH_TOKEN_ERROR || ex.type == TYPE_OAUTH_AUTHORIZATION_ERROR;
+    }
+
+    static boolean isCircuitOpenError(@NonNull AuthorizationException ex) {
+        return ex.type == CIRCUIT_OPEN_ERROR.type && ex.code == CIRCUIT_OPEN_CODE;
+    }
+
+    long now() {
+        return SystemClock.elapsedRealtime();
+    }
+}
@@ -0,0 +1,386 @@
+package org.vaultit.mobilesso.mobilessosdk;
+
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Single pass reader of a flat JSON object, such as the claims of a JWT, working on UTF-8
+ * bytes.  Member names are matched against a table of known names without allocating them,
+ * and values of unknown members are skipped, so only the values which are kept are
+ * allocated.  Nested objects and arrays can be skipped; arrays can also be read for their
+ * strings.
+ *
+ * Also decodes base64url (RFC 4648 section 5), with or without padding, straight into bytes.
+ */
+class ClaimsReader {
+    static final int STRING = 1;
+    static final int NUMBER = 2;
+    static final int ARRAY = 3;
+    static final int OTHER = 4;  // object, true, false or null
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+    private static final byte[] BASE64URL_VALUES = new byte[128];
+
+    static {
+        for (int i = 0; i < BASE64URL_VALUES.length; i++) {
+            BASE64URL_VALUES[i] = -1;
+        }
+        String alphabet = "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789-_";
+        for (int i = 0; i < alphabet.length(); i++) {
+            BASE64URL_VALUES[alphabet.charAt(i)] = (byte) i;
+        }
+    }
+
+    private final byte[] mJson;
+    private final int mEnd;
+    private int mPos;
+
+    ClaimsReader(@NonNull byte[] json) {
+        mJson = json;
+        mPos = 0;
+        mEnd = json.length;
+    }
+
+    /**
+     * Names as UTF-8 bytes, for nextName().
+     */
+    @NonNull
+    static byte[][] names(@NonNull String... names) {
+        byte[][] bytes = new byte[names.length][];
+        for (int i = 0; i < names.length; i++) {
+            bytes[i] = names[i].getBytes(UTF_8);
+        }
+        return bytes;
+    }
+
+    void beginObject() throws IOException {
+        expect('{');
+    }
+
+    /**
+     * @return true if the object has another member, false at the closing brace
+     */
+    boolean hasNext() throws IOException {
+        int c = peekByte();
+        if (c == '}') {
+            mPos++;
+            return false;
+        }
+        if (c == ',') {
+            mPos++;
+        }
+        return true;
+    }
+
+    /**
+     * Reads member name and the colon after it.  Names with escapes never match.
+     *
+     * @return index of the name in names, -1 if not one of them
+     */
+    int nextName(@NonNull byte[][] names) throws IOException {
+        expect('"');
+        int start = mPos;
+        boolean escaped = false;
+        while (true) {
+            if (mPos >= mEnd) {
+                throw new IOException("unterminated name");
+            }
+            byte b = mJson[mPos];
+            if (b == '"') {
+                break;
+            }
+            if (b == '\\') {
+                escaped = true;
+                mPos++;
+            }
+            mPos++;
+        }
+        int length = mPos - start;
+        mPos++;
+        expect(':');
+        if (escaped) {
+            return -1;
+        }
+        for (int i = 0; i < names.length; i++) {
+            if (regionMatches(names[i], start, length)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * @return type of the next value: STRING, NUMBER, ARRAY or OTHER
+     */
+    int peek() throws IOException {
+        int c = peekByte();
+        if (c == '"') {
+            return STRING;
+        } else if (c == '-' || (c >= '0' && c <= '9')) {
+            return NUMBER;
+        } else if (c == '[') {
+            return ARRAY;
+        }
+        return OTHER;
+    }
+
+    @NonNull
+    String nextString() throws IOException {
+        expect('"');
+        int start = mPos;
+        while (mPos < mEnd && mJson[mPos] != '"' && mJson[mPos] != '\\') {
+            mPos++;
+        }
+        if (mPos < mEnd && mJson[mPos] == '"') {
+            // common case, no escapes
+            return new String(mJson, start, mPos++ - start, UTF_8);
+        }
+        StringBuilder sb = new StringBuilder(new String(mJson, start, mPos - start, UTF_8));
+        while (true) {
+            if (mPos >= mEnd) {
+                throw new IOException("unterminated string");
+            }
+            byte b = mJson[mPos];
+            if (b == '"') {
+                mPos++;
+                return sb.toString();
+            }
+            if (b == '\\') {
+                sb.append(readEscape());
+            } else {
+                int runStart = mPos;
+                while (mPos < mEnd && mJson[mPos] != '"' && mJson[mPos] != '\\') {
+                    mPos++;
+                }
+                sb.append(new String(mJson, runStart, mPos - runStart, UTF_8));
+            }
+        }
+    }
+
+    /**
+     * Reads number as long; fractions are truncated.
+     */
+    long nextLong() throws IOException {
+        skipWhitespace();
+        int start = mPos;
+        boolean negative = false;
+        if (mPos < mEnd && mJson[mPos] == '-') {
+            negative = true;
+            mPos++;
+        }
+        long value = 0;
+        boolean integral = true;
+        int digits = 0;
+        while (mPos < mEnd) {
+            byte b = mJson[mPos];
+            if (b >= '0' && b <= '9') {
+                if (digits++ >= 18) {
+                    integral = false;  // may overflow, parse as double
+                }
+                value = value * 10 + (b - '0');
+            } else if (b == '.' || b == 'e' || b == 'E' || b == '+' || b == '-') {
+                integral = false;
+            } else {
+                break;
+            }
+            mPos++;
+        }
+        if (digits == 0) {
+            throw new IOException("malformed number at " + start);
+        }
+        if (integral) {
+            return negative ? -value : value;
+        }
+        try {
+            return (long) Double.parseDouble(new String(mJson, start, mPos - start, UTF_8));
+        } catch (NumberFormatException ex) {
+            throw new IOException("malformed number at " + start, ex);
+        }
+    }
+
+    /**
+     * Reads array and returns its string elements; other elements are skipped.
+     *
+     * @return string elements in order, empty if there are none
+     */
+    @NonNull
+    List<String> nextStringArray() throws IOException {
+        expect('[');
+        List<String> strings = new ArrayList<>(2);
+        while (true) {
+            int c = peekByte();
+            if (c == ']') {
+                mPos++;
+                return strings;
+            }
+            if (c == ',') {
+                mPos++;
+            }
+            if (peek() == STRING) {
+                strings.add(nextString());
+            } else {
+                skipValue();
+            }
+        }
+    }
+
+    void skipValue() throws IOException {
+        int c = peekByte();
+        if (c == '"') {
+            skipString();
+        } else if (c == '{' || c == '[') {
+            int depth = 0;
+            do {
+                c = peekByte();
+                if (c == '"') {
+                    skipString();
+                    continue;
+                }
+                if (c == '{' || c == '[') {
+                    depth++;
+                } else if (c == '}' || c == ']') {
+                    depth--;
+                }
+                mPos++;
+            } while (depth > 0);
+        } else {
+            // number or literal
+            while (mPos < mEnd) {
+                byte b = mJson[mPos];
+                if (b == ',' || b == '}' || b == ']' || isWhitespace(b)) {
+                    break;
+                }
+                mPos++;
+            }
+        }
+    }
+
+    /**
+     * Decodes base64url characters start..end of s.
+     *
+     * @return bytes, null if s has other characters or invalid length
+     */
+    @Nullable
+    static byte[] decodeBase64Url(@NonNull String s, int start, int end) {
+        while (end > start && s.charAt(end - 1) == '=') {
+            end--;
+        }
+        int length = end - start;
+        if (length % 4 == 1) {
+            return null;
+        }
+        byte[] out = new byte[length * 3 / 4];
+        int bits = 0;
+        int bitCount = 0;
+        int o = 0;
+        for (int i = start; i < end; i++) {
+            char c = s.charAt(i);
+            int value = (c < 128 ? BASE64URL_VALUES[c] : -1);
+            if (value < 0) {
+                return null;
+            }
+            bits = (bits << 6) | value;
+            bitCount += 6;
+            if (bitCount >= 8) {
+                bitCount -= 8;
+                out[o++] = (byte) (bits >> bitCount);
+            }
+        }
+        return out;
+    }
+
+    private void skipString() throws IOException {
+        expect('"');
+        while (true) {
+            if (mPos >= mEnd) {
+                throw new IOException("unterminated string");
+            }
+            byte b = mJson[mPos++];
+            if (b == '"') {
+                return;
+            }
+            if (b == '\\') {
+                mPos++;
+            }
+        }
+    }
+
+    private char readEscape() throws IOException {
+        mPos++;  // backslash
+        if (mPos >= mEnd) {
+            throw new IOException("unterminated escape");
+        }
+        byte b = mJson[mPos++];
+        switch (b) {
+            case 'b':
+                return '\b';
+            case 'f':
+                return '\f';
+            case 'n':
+                return '\n';
+            case 'r':
+                return '\r';
+            case 't':
+                return '\t';
+            case 'u':
+                if (mPos + 4 > mEnd) {
+                    throw new IOException("unterminated escape");
+                }
+                int value = 0;
+                for (int i = 0; i < 4; i++) {
+                    int digit = Character.digit(mJson[mPos++], 16);
+                    if (digit < 0) {
+                        throw new IOException("malformed escape");
+                    }
+                    value = (value << 4) | digit;
+                }
+                return (char) value;
+            default:
+                return (char) b;  // \" \\ \/
+        }
+    }
+
+    private boolean regionMatches(@NonNull byte[] name, int start, int length) {
+        if (name.length != length) {
+            return false;
+        }
+        for (int i = 0; i < length; i++) {
+            if (name[i] != mJson[start + i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private void expect(char c) throws IOException {
+        if (peekByte() != c) {
+            throw new IOException("expected '" + c + "' at " + mPos);
+        }
+        mPos++;
+    }
+
+    // next non-whitespace byte, not consumed
+    private int peekByte() throws IOException {
+        skipWhitespace();
+        if (mPos >= mEnd) {
+            throw new IOException("unexpected end");
+        }
+        return mJson[mPos];
+    }
+
+    private void skipWhitespace() {
+        while (mPos < mEnd && isWhitespace(mJson[mPos])) {
+            mPos++;
+        }
+    }
+
+    private static boolean isWhitespace(byte b) {
+        return b == ' ' || b == '\t' || b == '\n' || b == '\r';
+    }
+}
@@ -0,0 +1,71 @@
+package org.vaultit.mobilesso.mobilessosdk;
+
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+/**
+ * Result of a token endpoint connection pre-warm, see SessionManager.enableConnectionPrewarm().
+ * Setup times are what the first token refresh would otherwise have paid.
+ */
+public class ConnectionPrewarmMetrics {
+    private final String host;
+    private final long dnsLookupMs;
+    private final long connectionSetupMs;
+    private final Exception error;
+
+    ConnectionPrewarmMetrics(@NonNull String host, long dnsLookupMs, long connectionSetupMs,
+                             @Nullable Exception error) {
+        this.host = host;
+        this.dnsLookupMs = dnsLookupMs;
+        this.connectionSetupMs = connectionSetupMs;
+        this.error = error;
+    }
+
+    /**
+     * Token endpoint host.
+     */
+    @NonNull
+    public String getHost() {
+        return host;
+    }
+
+    /**
+     * Time spent resolving the host in milliseconds.
+     */
+    public long getDnsLookupMs() {
+        return dnsLookupMs;
+    }
+
+    /**
+     * Time spent connecting, including TCP and TLS handshakes, in milliseconds.
+     */
+    public long getConnectionSetupMs() {
+        return connectionSetupMs;
+    }
+
+    /**
+     * Setup time saved from the first token refresh, 0 if pre-warm failed.
+     */
+    public long getSetupTimeSavedMs() {
+        return isSuccessful() ? dnsLookupMs + connectionSetupMs : 0;
+    }
+
+    public boolean isSuccessful() {
+        return error == null;
+    }
+
+    /**
+     * Failure reason, null if pre-warm succeeded.
+     */
+    @Nullable
+    public Exception getError() {
+        return error;
+    }
+
+    @Override
+    public String toString() {
+        return "host=" + host + " dnsLookupMs=" + dnsLookupMs + " connectionSetupMs=" +
+                connectionSetupMs + " successful=" + isSuccessful();
+    }
+}
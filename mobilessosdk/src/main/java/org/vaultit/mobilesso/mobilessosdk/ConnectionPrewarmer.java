@@ -0,0 +1,126 @@
+package org.vaultit.mobilesso.mobilessosdk;
+
+
+import android.net.Uri;
+import android.os.SystemClock;
+import android.support.annotation.NonNull;
+import android.support.annotation.WorkerThread;
+import android.util.Log;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.InetAddress;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Opens a connection to the token endpoint ahead of the first token refresh, so that DNS
+ * lookup and TCP and TLS handshakes are done before they are needed.  The connection is
+ * left in the transport's keep-alive pool.
+ *
+ * A HEAD request is used, since the token endpoint accepts only POST requests with
+ * credentials; any HTTP status counts as success, as the connection is usable either way.
+ *
+ * Pre-warming runs in its own thread with a short timeout, so that it never delays a token
+ * refresh, and is skipped while an earlier pre-warm or token request to the same host is
+ * recent enough for its connection to still be in the pool.
+ */
+class ConnectionPrewarmer {
+    private static final String TAG = "ConnectionPrewarmer";
+    // connect and read timeout of the HEAD request
+    static final int PREWARM_TIMEOUT_MS = 3000;
+    // below the platform pool's keep-alive time of 5 minutes
+    static final long WARM_WINDOW_MS = TimeUnit.MINUTES.toMillis(4);
+
+    private static final Executor EXECUTOR =
+            Executors.newSingleThreadExecutor(new ThreadFactory() {
+                @Override
+                public Thread newThread(@NonNull Runnable r) {
+                    Thread thread = new Thread(r, "MobileSsoPrewarm");
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+
+    // host -> elapsedRealtime() of last connection to it
+    private static final Map<String, Long> sLastConnected = new HashMap<>();
+
+    private ConnectionPrewarmer() {
+    }
+
+    /**
+     * Runs task in the pre-warm thread.
+     */
+    static void execute(@NonNull Runnable task) {
+        EXECUTOR.execute(task);
+    }
+
+    /**
+     * Records that a connection to the endpoint's host has just been used.
+     */
+    static synchronized void markWarm(@NonNull Uri endpoint) {
+        sLastConnected.put(String.valueOf(endpoint.getHost()), SystemClock.elapsedRealtime());
+    }
+
+    /**
+     * True if a connection to the endpoint's host has been used within WARM_WINDOW_MS.
+     */
+    static synchronized boolean isWarm(@NonNull Uri endpoint) {
+        Long last = sLastConnected.get(String.valueOf(endpoint.getHost()));
+        return last != null && SystemClock.elapsedRealtime() - last < WARM_WINDOW_MS;
+    }
+
+    /**
+     * Pre-warms connection in the calling (worker) thread.
+     *
+     * @param transport      transport whose pool receives the connection
+     * @param tokenEndpoint  token endpoint from discovery
+     * @return metrics, never null
+     */
+    @WorkerThread
+    @NonNull
+    static ConnectionPrewarmMetrics prewarm(@NonNull IdpTransport transport,
+                                            @NonNull Uri tokenEndpoint) {
+        String host = String.valueOf(tokenEndpoint.getHost());
+        long dnsLookupMs = 0;
+        long connectionSetupMs = 0;
+        InputStream is = null;
+        try {
+            long start = SystemClock.elapsedRealtime();
+            // warms the platform DNS cache, which the connection below uses
+            InetAddress.getAllByName(host);
+            dnsLookupMs = SystemClock.elapsedRealtime() - start;
+
+            HttpURLConnection conn = TransportConnectionBuilder.openHttpsConnection(transport,
+                    tokenEndpoint);
+            conn.setConnectTimeout(TokenEndpointClient.capTimeout(conn.getConnectTimeout(),
+                    PREWARM_TIMEOUT_MS));
+            conn.setReadTimeout(TokenEndpointClient.capTimeout(conn.getReadTimeout(),
+                    PREWARM_TIMEOUT_MS));
+            conn.setRequestMethod("HEAD");
+            // TCP and TLS setup only, not the server's handling of the request
+            start = SystemClock.elapsedRealtime();
+            conn.connect();
+            connectionSetupMs = SystemClock.elapsedRealtime() - start;
+
+            // the request leaves the connection in the pool for the first refresh
+            int status = conn.getResponseCode();
+            markWarm(tokenEndpoint);
+            is = (status < HttpURLConnection.HTTP_BAD_REQUEST ?
+                    conn.getInputStream() : conn.getErrorStream());
+            Log.d(TAG,"prewarm(): " + host + " status=" + status + " dns=" + dnsLookupMs +
+                    " ms, connect=" + connectionSetupMs + " ms");
+            return new ConnectionPrewarmMetrics(host, dnsLookupMs, connectionSetupMs, null);
+        } catch (IOException | RuntimeException ex) {
+            Log.d(TAG,"prewarm(): failed for " + host, ex);
+            return new ConnectionPrewarmMetrics(host, dnsLookupMs, connectionSetupMs, ex);
+        } finally {
+            PooledIdpTransport.release(is);
+        }
+    }
+}
@@ -1,32 +1,57 @@
 package org.vaultit.mobilesso.mobilessosdk;
 
 
+import android.content.ComponentCallbacks2;
 import android.content.Context;
 import android.content.Intent;
 import android.content.SharedPreferences;
+import android.content.res.Configuration;
 import android.net.Uri;
+import android.os.SystemClock;
 import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+import android.support.annotation.VisibleForTesting;
 import android.util.Log;
 
 import com.google.gson.JsonSyntaxException;
 
 import net.openid.appauth.AuthState;
+import net.openid.appauth.AuthorizationException;
+import net.openid.appauth.AuthorizationResponse;
 import net.openid.appauth.AuthorizationServiceConfiguration;
 import net.openid.appauth.AuthorizationServiceDiscovery;
+import net.openid.appauth.TokenResponse;
 
 import org.json.JSONException;
 
-import java.lang.ref.WeakReference;
+import java.io.File;
 import java.net.URISyntaxException;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
 
 class Data {
     private static final String TAG = "Data";
-    private static WeakReference<Data> sInstance = new WeakReference<>(null);
+    // held for the lifetime of the process; trimMemory() releases what can be rebuilt
+    private static Data sInstance = null;
+    // number of times session state has been loaded from disk, by any instance
+    private static final AtomicLong sLoadCount = new AtomicLong();
+    // instance being loaded in background by preload(), taken by getInstance()
+    private static FutureTask<Data> sPreload = null;
     // constants for saving state on disk
+    static final String FILE_SESSION_STORE = "mobileSsoSdk_session.bin";
+    // SharedPreferences file used by earlier versions, migrated to FILE_SESSION_STORE
     static final String FILE_SAVED_APP_STATE = "mobileSsoSdk_savedState";
     private static final String KEY_AUTH_STATE_JSON = "authStateInJson";
     private static final String KEY_ID_TOKEN_PAYLOAD_JSON = "idTokenPayloadInJson";
@@ -37,6 +62,31 @@ class Data {
     private static final String KEY_SM_INITIALIZED = "smInitialized";
     private static final String KEY_SM_INIT_ONGOING = "smInitOngoing";
     private static final String KEY_NETWORK_AVAILABLE = "networkAvailable";
+    private static final String KEY_SCOPED_TOKENS_JSON = "scopedTokensInJson";
+
+    // dirty flags, one per persisted field; saveData() writes only dirty fields
+    static final int DIRTY_AUTH_STATE = 1;
+    static final int DIRTY_ID_TOKEN_PAYLOAD = 1 << 1;
+    static final int DIRTY_IDP = 1 << 2;
+    static final int DIRTY_LOGOUT_ENDPOINT = 1 << 3;
+    static final int DIRTY_TOKEN_RESPONSE_INTENT = 1 << 4;
+    static final int DIRTY_LOGOUT_RESPONSE_INTENT = 1 << 5;
+    static final int DIRTY_INIT_ONGOING = 1 << 6;
+    static final int DIRTY_NETWORK_AVAILABLE = 1 << 7;
+    static final int DIRTY_SCOPED_TOKENS = 1 << 8;
+    static final int DIRTY_ALL = (1 << 9) - 1;
+
+    // saves made within this window are coalesced into one background write
+    static final long WRITE_BEHIND_DELAY_MS = 200L;
+    private static final ScheduledExecutorService WRITE_EXECUTOR =
+            Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+                @Override
+                public Thread newThread(@NonNull Runnable r) {
+                    Thread thread = new Thread(r, "MobileSsoPersist");
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
 
     // constant for discovery doc
     private static final String DISCOVERY_DOC_LOGOUT_ENDPOINT = "end_session_endpoint";
@@ -48,6 +98,14 @@ class Data {
     // stored to disk as 1st class member, since it appears that sometimes
     // id token is not available
     private IdTokenPayload mIdTokenPayload = null;
+    // id token mIdTokenPayload was taken from, null if it was set or read from disk
+    private String mIdTokenPayloadSource = null;
+
+    // published session state, read by Session without locking; created under the Data lock
+    // on first read after invalidateSnapshot(), which every change of AuthState or payload
+    // calls.  mSnapshotVersion counts the changes.
+    private volatile SessionSnapshot mSnapshot = null;
+    private long mSnapshotVersion = 0;
 
     // identity provider info;
     private IdentityProvider mIdp = null;
@@ -59,8 +117,40 @@ class Data {
     private Intent mLogoutResponseIntent = null;
     private boolean mSmInitOngoing= false;
     private boolean mNetworkAvailable = true;
+    // down-scoped access tokens
+    private final ScopedTokenCache mScopedTokens = new ScopedTokenCache();
+
+    // persisted forms read by readData(), decoded on first use; null when decoded or when
+    // nothing was stored.  Decoding all of them is not needed for initialize(), e.g. the
+    // logout response intent is only needed when logging out.
+    private String mAuthStateJson = null;
+    private String mIdTokenPayloadJson = null;
+    private String mIdpJson = null;
+    private String mTokenResponseIntentUri = null;
+    private String mLogoutResponseIntentUri = null;
+    private String mScopedTokensJson = null;
+    // persisted form of each field as last read or written; readData() keeps fields whose
+    // stored form has not changed, so that they are not decoded again
+    private final Map<String,String> mPersistedForms = new HashMap<>();
 
     private Context mAppContext;
+    // registered by register(), releases caches when memory runs low
+    private ComponentCallbacks2 mComponentCallbacks = null;
+    private final SessionStore mStore;
+    // kept separately from session state, survive logout
+    private final DiscoveryCache mDiscoveryCache;
+    private final IdTokenVerifier mIdTokenVerifier;
+
+    // fields changed in memory and not yet written; readData() does not overwrite them
+    private int mDirty = 0;
+    private ScheduledFuture<?> mPendingWrite = null;
+    // persistence statistics
+    private long mSaveCount = 0;
+    private long mFieldsWritten = 0;
+    private long mBytesWritten = 0;
+    private int mLastFieldsWritten = 0;
+    private int mLastBytesWritten = 0;
+    private long mDecodeCount = 0;
 
     // non-persistent data
     private final Set<SessionManager.SessionListener> mListeners =
@@ -69,6 +159,16 @@ class Data {
             new HashMap<Long, ConnectivityChangeReceiver>();
     private final Map<Long,NotificationReceiver> mNotificationReceivers =
             new HashMap<Long, NotificationReceiver>();
+    private final TokenRefreshCoordinator mRefreshCoordinator = new TokenRefreshCoordinator();
+    private final Map<String,TokenRefreshCoordinator> mScopedRefreshCoordinators =
+            new HashMap<>();
+    // held by every token request which uses the refresh token, since it may be rotated
+    private final ReentrantLock mRefreshTokenLock = new ReentrantLock();
+    private RetryPolicy mRetryPolicy = RetryPolicy.DEFAULT;
+    private IdpTransport mTransport = new PooledIdpTransport();  // not persisted
+    private int mDiscoverySnapshot = 0;  // raw resource id, not persisted
+    private boolean mPrewarmEnabled = false;
+    private SessionManager.ConnectionPrewarmCallback mPrewarmCallback = null;
 
     /**
      * Constructor which creates a singleton.
@@ -79,24 +179,195 @@ class Data {
      */
     static synchronized Data getInstance(Context appContext) {
         Log.d(TAG,"getInstance()");
-        Data data = sInstance.get();
+        Data data = sInstance;
 
+        if (data == null) {
+            data = takePreloaded();
+        } else {
+            data.reloadIfChanged();
+        }
         if (data == null) {
             Log.d(TAG,"getInstance(): creating 1st instance");
-            data = new Data();
-            sInstance = new WeakReference<>(data);
-            data.mAppContext = appContext;
-            data.readData();
+            data = create(appContext);
+            register(data);
         }
 
-        if (data.mAuthState == null) {
-            data.mAuthState = new AuthState();
-        }
+        data.ensureAuthState();
+        return data;
+    }
 
+    /**
+     * Creates instance and reads data from permanent store, without registering singleton.
+     */
+    @VisibleForTesting
+    static Data create(Context appContext) {
+        Data data = new Data(openStore(appContext), openDiscoveryCache(appContext),
+                new IdTokenVerifier(openJwksCache(appContext)));
+        data.mAppContext = appContext;
+        data.readData();
         return data;
     }
 
-    private Data() {}
+    /**
+     * Starts loading and decoding the instance in a background thread, so that the first
+     * getInstance() does not read the disk in the calling thread.  Does nothing if instance
+     * exists or is already being loaded.
+     */
+    static synchronized void preload(final Context appContext) {
+        if (sInstance != null || sPreload != null) {
+            return;
+        }
+        Log.d(TAG,"preload()");
+        // does not take the class lock, which getInstance() holds while waiting for it
+        sPreload = new FutureTask<>(new Callable<Data>() {
+            @Override
+            public Data call() {
+                Data data = create(appContext);
+                data.ensureAuthState();
+                // decode what SessionManager and Session use at start
+                IdentityProvider idp = data.getIdp();
+                data.getNeedsTokenRefresh();
+                data.getIdTokenPayload();
+                if (idp != null) {
+                    data.mDiscoveryCache.get(idp.getDiscoveryEndpoint());
+                }
+                return data;
+            }
+        });
+        Thread thread = new Thread(sPreload, "MobileSsoPreload");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    // waits for preload() to complete, registers and returns the preloaded instance;
+    // null if not preloading or preload failed
+    private static Data takePreloaded() {
+        if (sPreload == null) {
+            return null;
+        }
+        FutureTask<Data> preload = sPreload;
+        sPreload = null;
+        boolean interrupted = false;
+        try {
+            while (true) {
+                try {
+                    Data data = preload.get();
+                    register(data);
+                    return data;
+                } catch (InterruptedException ex) {
+                    interrupted = true;  // loading is short, finish waiting
+                }
+            }
+        } catch (ExecutionException ex) {
+            Log.e(TAG,"takePreloaded(): preload failed, loading in calling thread", ex);
+            return null;
+        } finally {
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    // makes instance the singleton and releases its caches when memory runs low
+    private static void register(@NonNull final Data data) {
+        sInstance = data;
+        data.mComponentCallbacks = new ComponentCallbacks2() {
+            @Override
+            public void onTrimMemory(int level) {
+                data.trimMemory(level);
+            }
+
+            @Override
+            public void onLowMemory() {
+                data.trimMemory(TRIM_MEMORY_COMPLETE);
+            }
+
+            @Override
+            public void onConfigurationChanged(Configuration newConfig) {
+            }
+        };
+        data.mAppContext.registerComponentCallbacks(data.mComponentCallbacks);
+    }
+
+    /**
+     * Writes pending changes and forgets the singleton, so that the next getInstance() loads
+     * the session from the store as at process start.  For cold start benchmarks.
+     */
+    @VisibleForTesting
+    static synchronized void releaseInstance() {
+        Data data = sInstance;
+        if (data == null) {
+            return;
+        }
+        sInstance = null;
+        data.flush();
+        data.mAppContext.unregisterComponentCallbacks(data.mComponentCallbacks);
+        IdTokenPayloadCache.clear();
+    }
+
+    private synchronized void ensureAuthState() {
+        if (mAuthState == null && mAuthStateJson == null) {
+            setAuthState(new AuthState());
+        }
+    }
+
+    private Data(@NonNull SessionStore store, @NonNull DiscoveryCache discoveryCache,
+                 @NonNull IdTokenVerifier idTokenVerifier) {
+        mStore = store;
+        mDiscoveryCache = discoveryCache;
+        mIdTokenVerifier = idTokenVerifier;
+    }
+
+    @NonNull
+    static DiscoveryCache openDiscoveryCache(@NonNull Context context) {
+        return new DiscoveryCache(new FileSessionStore(
+                new File(context.getFilesDir(), DiscoveryCache.FILE_DISCOVERY_CACHE)));
+    }
+
+    @NonNull
+    static JwksCache openJwksCache(@NonNull Context context) {
+        return new JwksCache(new FileSessionStore(
+                new File(context.getFilesDir(), JwksCache.FILE_JWKS_CACHE)));
+    }
+
+    /**
+     * Opens the session store, migrating state saved by earlier versions on first use.
+     */
+    @NonNull
+    static SessionStore openStore(@NonNull Context context) {
+        FileSessionStore store = new FileSessionStore(
+                new File(context.getFilesDir(), FILE_SESSION_STORE));
+        if (!store.exists()) {
+            migrateFromPreferences(context, store);
+        }
+        return store;
+    }
+
+    // one-time copy of SharedPreferences contents; preferences are cleared after the copy
+    // has been committed, and the commit creates the store even if there was nothing to copy
+    private static void migrateFromPreferences(@NonNull Context context,
+                                               @NonNull SessionStore store) {
+        SharedPreferences prefs = context.getSharedPreferences(FILE_SAVED_APP_STATE,
+                Context.MODE_PRIVATE);
+        SessionStore.Editor editor = store.edit();
+        int count = 0;
+        for (Map.Entry<String,?> entry : prefs.getAll().entrySet()) {
+            Object value = entry.getValue();
+            if (value instanceof String) {
+                editor.putString(entry.getKey(), (String) value);
+                count++;
+            } else if (value instanceof Boolean) {
+                editor.putBoolean(entry.getKey(), (Boolean) value);
+                count++;
+            }
+        }
+        if (editor.commit()) {
+            prefs.edit().clear().commit();
+            Log.d(TAG,"migrateFromPreferences(): migrated " + count + " values");
+        } else {
+            Log.e(TAG,"migrateFromPreferences(): failed, retried on next start");
+        }
+    }
 
     /**
      * Init for adding idp info.
@@ -105,6 +376,8 @@ class Data {
     synchronized void init(@NonNull IdentityProvider idp) {
         Log.d(TAG,"init()");
         mIdp = idp;
+        mIdpJson = null;
+        mDirty |= DIRTY_IDP;
         saveData();
     }
 
@@ -115,52 +388,61 @@ class Data {
     synchronized void sessionReset() {
         Log.d(TAG,"sessionReset()");
 
-        // retain discovery doc if it exists
-        AuthorizationServiceConfiguration asc = mAuthState.getAuthorizationServiceConfiguration();
+        // retain discovery doc if it exists; the cached one is newer if it was revalidated
+        // during the session
+        AuthorizationServiceConfiguration asc = getCachedConfiguration();
+        if (asc != null) {
+            //noinspection ConstantConditions
+            mLogoutEndPoint = getLogoutEndPointFromDoc(asc.discoveryDoc);
+        } else {
+            asc = decodeAuthState().getAuthorizationServiceConfiguration();
+        }
         if (asc != null) {
             mAuthState = new AuthState(asc);
         } else {
             mAuthState = new AuthState();
         }
 
-        SharedPreferences.Editor editor = mAppContext.getSharedPreferences(FILE_SAVED_APP_STATE,
-                Context.MODE_PRIVATE).edit();
-        // delete all
-        editor.clear();
-        editor.apply();
-
-        // retain idp & logoutendpt
-        if (mIdp != null) {
-            editor.putString(KEY_IDP_JSON, mIdp.serializeToJson());
-        }
-        if (mLogoutEndPoint != null) {
-            editor.putString(KEY_LOGOUT_ENDPOINT, mLogoutEndPoint.toString());
-        }
-
-        // retains only discovery doc
-        editor.putString(KEY_AUTH_STATE_JSON, mAuthState.jsonSerializeString());
-        editor.apply();
-
         mTokenResponseIntent = null;
+        mTokenResponseIntentUri = null;
         mIdTokenPayload = null;
+        mIdTokenPayloadJson = null;
+        mIdTokenPayloadSource = null;
+        IdTokenPayloadCache.clear();
+        invalidateSnapshot();
+        mScopedTokens.clear();
+        mScopedTokensJson = null;
+
+        // delete all and write what is retained (idp, logout endpoint, discovery doc) in
+        // a single commit, which is also a barrier for pending writes
+        cancelPendingWrite();
+        SessionStore.Editor editor = mStore.edit();
+        editor.clear();
+        mPersistedForms.clear();
+        mDirty = DIRTY_ALL;
+        writeDirtyFields(editor);
     }
 
     // deletes all data from disk & almost all from memory;
-    // left in memory: mAppContext  (needed for opening data file later)
+    // left in memory: mAppContext, mStore
     synchronized void dataReset(Context context) {
         Log.d(TAG,"dataReset()");
-        SharedPreferences.Editor editor = context.getSharedPreferences(Data.FILE_SAVED_APP_STATE,
-                Context.MODE_PRIVATE).edit();
-        editor.clear();
-        editor.commit();
+        cancelPendingWrite();
+        mStore.edit().clear().commit();
         mAuthState = new AuthState();
         mLogoutEndPoint = null;
         mLogoutResponseIntent = null;
         mIdTokenPayload = null;
+        mIdTokenPayloadSource = null;
+        IdTokenPayloadCache.clear();
+        invalidateSnapshot();
         mTokenResponseIntent = null;
         mIdp = null;
+        mScopedTokens.clear();
+        clearPersistedForms();
         mNetworkAvailable = false;  // default value
         mSmInitOngoing = false;     // default value
+        mDirty = DIRTY_ALL;
         mListeners.clear();
         mNotificationReceivers.clear();
 
@@ -174,36 +456,223 @@ class Data {
     // deletes data from disk, can be called without Data object instance since static
     synchronized static void diskDataReset(Context context) {
         Log.d(TAG,"diskDataReset()");
-        SharedPreferences.Editor editor = context.getSharedPreferences(Data.FILE_SAVED_APP_STATE,
-                Context.MODE_PRIVATE).edit();
-        editor.clear();
-        editor.commit();
+        Data data = sInstance;
+        if (data == null) {
+            data = takePreloaded();  // preload must not reopen the store concurrently
+        }
+        SessionStore store = (data != null ? data.mStore : openStore(context));
+        store.edit().clear().commit();
+        // unlike logout, a full reset also forgets discovery documents and signing keys
+        (data != null ? data.mDiscoveryCache : openDiscoveryCache(context)).clear();
+        (data != null ? data.mIdTokenVerifier.getJwksCache() : openJwksCache(context)).clear();
+
+        if (data != null) {
+            data.cancelPendingWrite();
+            data.markDirty(DIRTY_ALL);  // memory no longer matches disk
+        }
     }
 
     synchronized AuthState getAuthState() {
-        return mAuthState;
+        return decodeAuthState();
     }
     synchronized void setAuthState(@NonNull AuthState authState) {
         mAuthState = authState;
+        mAuthStateJson = null;
+        mDirty |= DIRTY_AUTH_STATE;
+        invalidateSnapshot();
+    }
+
+    /**
+     * Updates AuthState with authorization response and marks it dirty, atomically with
+     * respect to trimMemory().
+     */
+    synchronized void updateAuthState(@Nullable AuthorizationResponse response,
+                                      @Nullable AuthorizationException ex) {
+        decodeAuthState().update(response, ex);
+        mDirty |= DIRTY_AUTH_STATE;
+        invalidateSnapshot();
+    }
+
+    /**
+     * Updates AuthState with token response and marks it dirty, atomically with respect to
+     * trimMemory().
+     */
+    synchronized void updateAuthState(@Nullable TokenResponse response,
+                                      @Nullable AuthorizationException ex) {
+        decodeAuthState().update(response, ex);
+        mDirty |= DIRTY_AUTH_STATE;
+        invalidateSnapshot();
+    }
+
+    /**
+     * Must be called after AuthState returned by getAuthState() has been updated in place,
+     * e.g. with AuthState.update(), while holding the Data lock, so that trimMemory() does
+     * not drop the update.
+     */
+    synchronized void markAuthStateDirty() {
+        mDirty |= DIRTY_AUTH_STATE;
+        invalidateSnapshot();
+    }
+
+    synchronized void markDirty(int fields) {
+        mDirty |= fields;
+    }
+
+    private AuthState decodeAuthState() {
+        if (mAuthStateJson != null) {
+            String json = mAuthStateJson;
+            mAuthStateJson = null;
+            mDecodeCount++;
+            try {
+                mAuthState = AuthState.jsonDeserialize(json);
+            } catch (JSONException ex) {
+                Log.e(TAG, "decodeAuthState(): Malformed AuthState JSON saved", ex);
+                if (mAuthState == null) {
+                    setAuthState(new AuthState());
+                }
+            }
+        }
+        return mAuthState;
+    }
+
+    private void decodeIdTokenPayload() {
+        if (mIdTokenPayloadJson != null) {
+            String json = mIdTokenPayloadJson;
+            mIdTokenPayloadJson = null;
+            mDecodeCount++;
+            mIdTokenPayload = new IdTokenPayload(json);
+            if (!mIdTokenPayload.isValid()) {
+                mIdTokenPayload = null;
+                mDirty |= DIRTY_ID_TOKEN_PAYLOAD;  // removes malformed value on next save
+                Log.e(TAG, "decodeIdTokenPayload(): Malformed idTokenPayload JSON saved");
+            }
+        }
+    }
+
+    private void decodeScopedTokens() {
+        if (mScopedTokensJson != null) {
+            String json = mScopedTokensJson;
+            mScopedTokensJson = null;
+            mDecodeCount++;
+            try {
+                mScopedTokens.deserializeFromJson(json);
+            } catch (JSONException ex) {
+                Log.e(TAG, "decodeScopedTokens(): Malformed scoped tokens JSON saved", ex);
+            }
+        }
+    }
+
+    // returns parsed intent, or current one if uri is malformed
+    private Intent parseIntent(@NonNull String uri, @Nullable Intent current) {
+        mDecodeCount++;
+        try {
+            return Intent.parseUri(uri, Intent.URI_INTENT_SCHEME);
+        } catch (URISyntaxException ex) {
+            Log.e(TAG, "parseIntent(): Malformed response intent");
+            return current;
+        }
+    }
+
+    // true if stored form of the field differs from the one last read or written
+    private boolean isChanged(@NonNull String key, @NonNull String stored) {
+        boolean changed = !stored.equals(mPersistedForms.get(key));
+        mPersistedForms.put(key, stored);
+        return changed;
+    }
+
+    private void clearPersistedForms() {
+        mAuthStateJson = null;
+        mIdTokenPayloadJson = null;
+        mIdpJson = null;
+        mTokenResponseIntentUri = null;
+        mLogoutResponseIntentUri = null;
+        mScopedTokensJson = null;
+        mPersistedForms.clear();
+    }
+
+    private synchronized void cancelPendingWrite() {
+        if (mPendingWrite != null) {
+            mPendingWrite.cancel(false);
+            mPendingWrite = null;
+        }
+    }
+
+    // refresh-ahead margin of the identity provider
+    synchronized long getRefreshAheadMs() {
+        IdentityProvider idp = getIdp();
+        return (idp != null ? idp.getRefreshAheadMs() : IdentityProvider.DEFAULT_REFRESH_AHEAD_MS);
+    }
+
+    /**
+     * Replaces AuthState.getNeedsTokenRefresh(), whose expiry tolerance is fixed, with one
+     * using the identity provider's refresh-ahead margin.
+     */
+    synchronized boolean getNeedsTokenRefresh() {
+        AuthState authState = decodeAuthState();
+        Long expiration = authState.getAccessTokenExpirationTime();
+        if (expiration == null) {
+            // no expiration: AppAuth refreshes only if there is no access token
+            return authState.getNeedsTokenRefresh();
+        }
+        return expiration <= System.currentTimeMillis() + getRefreshAheadMs();
+    }
+
+    /**
+     * Returns current session state.  Takes no lock and allocates nothing unless the session
+     * has changed since the previous call.
+     */
+    @NonNull
+    SessionSnapshot getSnapshot() {
+        SessionSnapshot snapshot = mSnapshot;
+        return (snapshot != null ? snapshot : createSnapshot());
+    }
+
+    private synchronized SessionSnapshot createSnapshot() {
+        IdTokenPayload payload = getIdTokenPayload();  // may invalidate, so read it first
+        SessionSnapshot snapshot = mSnapshot;
+        if (snapshot == null) {
+            snapshot = new SessionSnapshot(mSnapshotVersion, decodeAuthState(), payload);
+            mSnapshot = snapshot;
+        }
+        return snapshot;
     }
 
+    private void invalidateSnapshot() {
+        mSnapshot = null;
+        mSnapshotVersion++;
+    }
+
+    /**
+     * Returns payload of the current id token.  Payload follows the id token, also when it
+     * is renewed by token refresh; a token is decoded once per process (IdTokenPayloadCache),
+     * and the payload is saved only when it has changed.  Stored payload is used if there is
+     * no id token or it cannot be decoded.
+     */
     synchronized IdTokenPayload getIdTokenPayload() {
-        // if null, try to reconstruct from id token
-        if (mIdTokenPayload == null) {
-            Log.d(TAG,"getIdTokenPayload(): reconstructing idTokenPayload from id token");
-            String json = IdTokenPayload.decodeJWTToken(getIdToken());
-            if (json != null) {
-                mIdTokenPayload = new IdTokenPayload(json);
-                if (!mIdTokenPayload.isValid()) {
-                    Log.e(TAG,"getIdTokenPayload(): error deserializing id token!");
-                    mIdTokenPayload = null;
-                } else {
-                    saveData();  // save new idtokenpayload to disk
+        String idToken = getIdToken();
+        // same token object as last time is the common case, no lookup needed
+        if (idToken != null && (idToken != mIdTokenPayloadSource || mIdTokenPayload == null)) {
+            IdTokenPayload payload = IdTokenPayloadCache.get(idToken);
+            if (payload != null) {
+                mIdTokenPayloadSource = idToken;
+                if (payload != mIdTokenPayload) {
+                    mIdTokenPayload = payload;
+                    mIdTokenPayloadJson = null;
+                    invalidateSnapshot();
+                    if (!payload.serializeToJson().equals(
+                            mPersistedForms.get(KEY_ID_TOKEN_PAYLOAD_JSON))) {
+                        Log.d(TAG,"getIdTokenPayload(): id token changed, saving payload");
+                        mDirty |= DIRTY_ID_TOKEN_PAYLOAD;
+                        saveData();
+                    }
                 }
-            } else {
-                Log.e(TAG,"getIdTokenPayload(): missing id token!");
+                return mIdTokenPayload;
             }
         }
+        decodeIdTokenPayload();
+        if (mIdTokenPayload == null) {
+            Log.e(TAG,"getIdTokenPayload(): missing id token!");
+        }
         return mIdTokenPayload;
     }
 
@@ -214,9 +683,23 @@ class Data {
 
     synchronized void setIdTokenPayload(IdTokenPayload idTokenPayload) {
         this.mIdTokenPayload = idTokenPayload;
+        mIdTokenPayloadJson = null;
+        mIdTokenPayloadSource = null;
+        mDirty |= DIRTY_ID_TOKEN_PAYLOAD;
+        invalidateSnapshot();
     }
 
     synchronized IdentityProvider getIdp() {
+        if (mIdpJson != null) {
+            String json = mIdpJson;
+            mIdpJson = null;
+            mDecodeCount++;
+            try {
+                mIdp = IdentityProvider.deserializeFromJson(json);
+            } catch (JsonSyntaxException ex) {
+                Log.e(TAG, "getIdp(): Malformed IDP JSON saved", ex);
+            }
+        }
         return mIdp;
     }
     synchronized Uri getLogoutEndPoint() {
@@ -224,18 +707,31 @@ class Data {
     }
     synchronized void setLogoutEndPoint(Uri logoutEndPoint) {
         this.mLogoutEndPoint = logoutEndPoint;
+        mDirty |= DIRTY_LOGOUT_ENDPOINT;
     }
     synchronized Intent getTokenResponseIntent() {
+        if (mTokenResponseIntentUri != null) {
+            mTokenResponseIntent = parseIntent(mTokenResponseIntentUri, mTokenResponseIntent);
+            mTokenResponseIntentUri = null;
+        }
         return mTokenResponseIntent;
     }
     synchronized void setTokenResponseIntent(Intent tokenResponseIntent) {
         this.mTokenResponseIntent = tokenResponseIntent;
+        mTokenResponseIntentUri = null;
+        mDirty |= DIRTY_TOKEN_RESPONSE_INTENT;
     }
     synchronized Intent getLogoutResponseIntent() {
+        if (mLogoutResponseIntentUri != null) {
+            mLogoutResponseIntent = parseIntent(mLogoutResponseIntentUri, mLogoutResponseIntent);
+            mLogoutResponseIntentUri = null;
+        }
         return mLogoutResponseIntent;
     }
     synchronized void setLogoutResponseIntent(Intent logoutResponseIntent) {
         this.mLogoutResponseIntent = logoutResponseIntent;
+        mLogoutResponseIntentUri = null;
+        mDirty |= DIRTY_LOGOUT_RESPONSE_INTENT;
     }
 
     synchronized Set<SessionManager.SessionListener> getListeners() {
@@ -250,6 +746,145 @@ class Data {
         return mNotificationReceivers;
     }
 
+    TokenRefreshCoordinator getRefreshCoordinator() {
+        return mRefreshCoordinator;
+    }
+
+    // coordinator for refreshes of one scope set, see ScopedToken.scopeKey()
+    synchronized TokenRefreshCoordinator getScopedRefreshCoordinator(@NonNull String scopeKey) {
+        TokenRefreshCoordinator coordinator = mScopedRefreshCoordinators.get(scopeKey);
+        if (coordinator == null) {
+            coordinator = new TokenRefreshCoordinator();
+            mScopedRefreshCoordinators.put(scopeKey, coordinator);
+        }
+        return coordinator;
+    }
+
+    /**
+     * Locks token requests which use the refresh token within the process.
+     */
+    @NonNull
+    ReentrantLock getRefreshTokenLock() {
+        return mRefreshTokenLock;
+    }
+
+    /**
+     * Locks token requests which use the refresh token across processes.  Must be acquired
+     * while holding getRefreshTokenLock(), and the result committed with flush() before
+     * releasing it.
+     */
+    @NonNull
+    SessionStore.ProcessLock lockRefreshAcrossProcesses() {
+        return mStore.lockAcrossProcesses();
+    }
+
+    /**
+     * Like lockRefreshAcrossProcesses(), but waits at most until the deadline.
+     *
+     * @param deadline  SystemClock.elapsedRealtime(), Long.MAX_VALUE for no limit
+     * @return lock, or null if not acquired in time
+     */
+    @Nullable
+    SessionStore.ProcessLock lockRefreshAcrossProcesses(long deadline) {
+        if (deadline == Long.MAX_VALUE) {
+            return mStore.lockAcrossProcesses();
+        }
+        return mStore.tryLockAcrossProcesses(
+                Math.max(0, deadline - SystemClock.elapsedRealtime()));
+    }
+
+    /**
+     * Reads state committed by another process since it was last read.  Cheap when no
+     * other process has committed.
+     *
+     * @return true if state was read again
+     */
+    synchronized boolean reloadIfChanged() {
+        if (!mStore.reloadIfChanged()) {
+            return false;
+        }
+        readData();
+        return true;
+    }
+
+    synchronized ScopedTokenCache getScopedTokens() {
+        decodeScopedTokens();
+        return mScopedTokens;
+    }
+    synchronized void putScopedToken(@NonNull ScopedToken token) {
+        decodeScopedTokens();
+        mScopedTokens.put(token);
+        mDirty |= DIRTY_SCOPED_TOKENS;
+    }
+
+    synchronized PersistenceStatistics getPersistenceStatistics() {
+        return new PersistenceStatistics(mSaveCount, mFieldsWritten, mBytesWritten,
+                mLastFieldsWritten, mLastBytesWritten, sLoadCount.get(), mDecodeCount);
+    }
+
+    synchronized RetryPolicy getRetryPolicy() {
+        return mRetryPolicy;
+    }
+    synchronized void setRetryPolicy(@NonNull RetryPolicy retryPolicy) {
+        mRetryPolicy = retryPolicy;
+    }
+
+    @NonNull
+    DiscoveryCache getDiscoveryCache() {
+        return mDiscoveryCache;
+    }
+
+    @NonNull
+    IdTokenVerifier getIdTokenVerifier() {
+        return mIdTokenVerifier;
+    }
+
+    @NonNull
+    synchronized IdpTransport getTransport() {
+        return mTransport;
+    }
+    synchronized void setTransport(@NonNull IdpTransport transport) {
+        mTransport = transport;
+    }
+
+    synchronized int getDiscoverySnapshot() {
+        return mDiscoverySnapshot;
+    }
+    synchronized void setDiscoverySnapshot(int resId) {
+        mDiscoverySnapshot = resId;
+    }
+
+    synchronized boolean isPrewarmEnabled() {
+        return mPrewarmEnabled;
+    }
+    synchronized SessionManager.ConnectionPrewarmCallback getPrewarmCallback() {
+        return mPrewarmCallback;
+    }
+    synchronized void setPrewarm(boolean enabled,
+                                 @Nullable SessionManager.ConnectionPrewarmCallback callback) {
+        mPrewarmEnabled = enabled;
+        mPrewarmCallback = callback;
+    }
+
+    // configuration of the discovery document cached for the identity provider, null if none
+    @Nullable
+    private synchronized AuthorizationServiceConfiguration getCachedConfiguration() {
+        IdentityProvider idp = getIdp();
+        if (idp == null) {
+            return null;
+        }
+        DiscoveryCache.Entry entry = mDiscoveryCache.get(idp.getDiscoveryEndpoint());
+        if (entry == null) {
+            return null;
+        }
+        try {
+            return entry.toConfiguration();
+        } catch (AuthorizationServiceDiscovery.MissingArgumentException ex) {
+            Log.e(TAG,"getCachedConfiguration(): invalid cached document", ex);
+            return null;
+        }
+    }
+
     synchronized static Uri getLogoutEndPointFromDoc(
             @NonNull AuthorizationServiceDiscovery discoveryDoc) {
         Uri endpoint = null;
@@ -264,17 +899,81 @@ class Data {
         return mSmInitOngoing;
     }
     synchronized void setInitOngoing(boolean initOngoing) {
+        if (mSmInitOngoing != initOngoing) {
+            mDirty |= DIRTY_INIT_ONGOING;
+        }
         this.mSmInitOngoing = initOngoing;
     }
     synchronized boolean getNetworkAvailable() {
         return mNetworkAvailable;
     }
     synchronized void setNetworkAvailable(boolean available) {
+        if (mNetworkAvailable != available) {
+            mDirty |= DIRTY_NETWORK_AVAILABLE;
+        }
         this.mNetworkAvailable = available;
     }
 
     /**
-     *   read local data from permanent storage.  Classes:
+     * Releases decoded forms of components which have no unsaved changes, keeping their
+     * persisted forms, from which they are decoded again on next use.  Done when the
+     * application is in background or memory runs low, not when the UI is merely hidden.
+     *
+     * @param level  ComponentCallbacks2.TRIM_MEMORY_* level
+     */
+    synchronized void trimMemory(int level) {
+        if (level < ComponentCallbacks2.TRIM_MEMORY_BACKGROUND &&
+                (level < ComponentCallbacks2.TRIM_MEMORY_RUNNING_LOW ||
+                        level == ComponentCallbacks2.TRIM_MEMORY_UI_HIDDEN)) {
+            return;
+        }
+        int released = 0;
+        // AuthState includes the parsed discovery document
+        String authStateJson = trimmable(KEY_AUTH_STATE_JSON, DIRTY_AUTH_STATE, mAuthState,
+                mAuthStateJson);
+        if (authStateJson != null) {
+            mAuthStateJson = authStateJson;
+            mAuthState = null;
+            released++;
+        }
+        String idTokenPayloadJson = trimmable(KEY_ID_TOKEN_PAYLOAD_JSON, DIRTY_ID_TOKEN_PAYLOAD,
+                mIdTokenPayload, mIdTokenPayloadJson);
+        if (idTokenPayloadJson != null) {
+            mIdTokenPayloadJson = idTokenPayloadJson;
+            mIdTokenPayload = null;
+            mIdTokenPayloadSource = null;
+            IdTokenPayloadCache.clear();
+            released++;
+        }
+        String tokResp = trimmable(KEY_TOKEN_RESPONSE_INTENT, DIRTY_TOKEN_RESPONSE_INTENT,
+                mTokenResponseIntent, mTokenResponseIntentUri);
+        if (tokResp != null) {
+            mTokenResponseIntentUri = tokResp;
+            mTokenResponseIntent = null;
+            released++;
+        }
+        String logoutIntent = trimmable(KEY_LOGOUT_RESPONSE_INTENT, DIRTY_LOGOUT_RESPONSE_INTENT,
+                mLogoutResponseIntent, mLogoutResponseIntentUri);
+        if (logoutIntent != null) {
+            mLogoutResponseIntentUri = logoutIntent;
+            mLogoutResponseIntent = null;
+            released++;
+        }
+        Log.d(TAG,"trimMemory(): level=" + level + " released=" + released);
+    }
+
+    // persisted form to which a decoded component can be released, null if it cannot be
+    private String trimmable(@NonNull String key, int dirtyFlag, @Nullable Object decoded,
+                             @Nullable String persisted) {
+        if (decoded == null || persisted != null || (mDirty & dirtyFlag) != 0) {
+            return null;  // not decoded, or has unsaved changes
+        }
+        return mPersistedForms.get(key);
+    }
+
+    /**
+     *   read local data from permanent storage.  Only flags and logout endpoint are parsed
+     *   here, the rest are kept in persisted form and decoded on first use.  Classes:
      *      AuthState
      *      IdTokenPayload
      *      IdentityProvider
@@ -282,58 +981,61 @@ class Data {
      *      tokenResponseIntent
      *      logoutResponseIntent
      *      smInitOngoing
+     *      scopedTokens
      */
     synchronized void readData() {
-        SharedPreferences appPrefs = mAppContext.getSharedPreferences(FILE_SAVED_APP_STATE,
-                Context.MODE_PRIVATE);
-        String authStateJson = appPrefs.getString(KEY_AUTH_STATE_JSON, null);
-        String idTokenPayloadJson = appPrefs.getString(KEY_ID_TOKEN_PAYLOAD_JSON, null);
-        String logoutUri = appPrefs.getString(KEY_LOGOUT_ENDPOINT, null);
-        String idpJson = appPrefs.getString(KEY_IDP_JSON, null);
-        String tokResp = appPrefs.getString(KEY_TOKEN_RESPONSE_INTENT, null);
-        String logoutIntent = appPrefs.getString(KEY_LOGOUT_RESPONSE_INTENT, null);
-        mSmInitOngoing = appPrefs.getBoolean(KEY_SM_INIT_ONGOING, false);
-        mNetworkAvailable = appPrefs.getBoolean(KEY_NETWORK_AVAILABLE, true);
-
-        if (logoutUri != null) {
+        sLoadCount.incrementAndGet();
+        String authStateJson = mStore.getString(KEY_AUTH_STATE_JSON);
+        String idTokenPayloadJson = mStore.getString(KEY_ID_TOKEN_PAYLOAD_JSON);
+        String logoutUri = mStore.getString(KEY_LOGOUT_ENDPOINT);
+        String idpJson = mStore.getString(KEY_IDP_JSON);
+        String tokResp = mStore.getString(KEY_TOKEN_RESPONSE_INTENT);
+        String logoutIntent = mStore.getString(KEY_LOGOUT_RESPONSE_INTENT);
+        String scopedTokensJson = mStore.getString(KEY_SCOPED_TOKENS_JSON);
+        // fields with pending writes are newer than disk and are not overwritten
+        int skip = mDirty;
+        if ((skip & DIRTY_INIT_ONGOING) == 0) {
+            mSmInitOngoing = mStore.getBoolean(KEY_SM_INIT_ONGOING, false);
+        }
+        if ((skip & DIRTY_NETWORK_AVAILABLE) == 0) {
+            mNetworkAvailable = mStore.getBoolean(KEY_NETWORK_AVAILABLE, true);
+        }
+
+        if (logoutUri != null && (skip & DIRTY_LOGOUT_ENDPOINT) == 0) {
             mLogoutEndPoint = Uri.parse(logoutUri);
         }
-        if (authStateJson != null) {
-            Log.d(TAG, "readData(): authStateJson=" + authStateJson);
-            try {
-                mAuthState = AuthState.jsonDeserialize(authStateJson);
-            } catch (JSONException ex) {
-                Log.e(TAG, "readData(): Malformed AuthState JSON saved", ex);
+        // rest are decoded on first use; nothing to decode if stored form is unchanged
+        // AuthState committed by another process wins over a pending change, which was made
+        // to older state, e.g. with a refresh token the other process has already rotated
+        if (authStateJson != null && isChanged(KEY_AUTH_STATE_JSON, authStateJson)) {
+            if ((skip & DIRTY_AUTH_STATE) != 0) {
+                Log.d(TAG, "readData(): AuthState changed by another process, " +
+                        "dropping pending change");
+                mDirty &= ~DIRTY_AUTH_STATE;
             }
+            mAuthStateJson = authStateJson;
+            invalidateSnapshot();
         }
-        if (idTokenPayloadJson != null) {
-            Log.d(TAG, "readData(): idTokenPayloadJson=" + idTokenPayloadJson);
-            mIdTokenPayload = new IdTokenPayload(idTokenPayloadJson);
-            if (!mIdTokenPayload.isValid()) {
-                mIdTokenPayload = null;
-                Log.e(TAG, "readData(): Malformed idTokenPayload JSON saved");
-            }
+        if (idTokenPayloadJson != null && (skip & DIRTY_ID_TOKEN_PAYLOAD) == 0 &&
+                isChanged(KEY_ID_TOKEN_PAYLOAD_JSON, idTokenPayloadJson)) {
+            mIdTokenPayloadJson = idTokenPayloadJson;
+            invalidateSnapshot();
         }
-        if (idpJson != null) {
-            try {
-                mIdp = IdentityProvider.deserializeFromJson(idpJson);
-            } catch (JsonSyntaxException ex) {
-                Log.e(TAG, "readData(): Malformed IDP JSON saved", ex);
-            }
+        if (idpJson != null && (skip & DIRTY_IDP) == 0 &&
+                isChanged(KEY_IDP_JSON, idpJson)) {
+            mIdpJson = idpJson;
         }
-        if (tokResp != null) {
-            try {
-                mTokenResponseIntent = Intent.parseUri(tokResp, Intent.URI_INTENT_SCHEME);
-            } catch (URISyntaxException ex) {
-                Log.e(TAG,"readData(): Malformed token response intent");
-            }
+        if (tokResp != null && (skip & DIRTY_TOKEN_RESPONSE_INTENT) == 0 &&
+                isChanged(KEY_TOKEN_RESPONSE_INTENT, tokResp)) {
+            mTokenResponseIntentUri = tokResp;
         }
-        if (logoutIntent != null) {
-            try {
-                mLogoutResponseIntent = Intent.parseUri(logoutIntent, Intent.URI_INTENT_SCHEME);
-            } catch (URISyntaxException ex) {
-                Log.e(TAG,"readData(): Malformed logout response intent");
-            }
+        if (logoutIntent != null && (skip & DIRTY_LOGOUT_RESPONSE_INTENT) == 0 &&
+                isChanged(KEY_LOGOUT_RESPONSE_INTENT, logoutIntent)) {
+            mLogoutResponseIntentUri = logoutIntent;
+        }
+        if (scopedTokensJson != null && (skip & DIRTY_SCOPED_TOKENS) == 0 &&
+                isChanged(KEY_SCOPED_TOKENS_JSON, scopedTokensJson)) {
+            mScopedTokensJson = scopedTokensJson;
         }
         Log.d(TAG, "readData() : AuthState=" +
                 (authStateJson != null ? authStateJson.length() : "0") +
@@ -342,6 +1044,7 @@ class Data {
                 " tokenResp="  + (tokResp != null ? tokResp.length() : "0") +
                 " logoutIntent="  + (logoutIntent != null ? logoutIntent.length() : "0") +
                 " logoutUri=" + (logoutUri != null ? logoutUri.length() : "0") +
+                " scopedTokens=" + (scopedTokensJson != null ? scopedTokensJson.length() : "0") +
                 " initOngoing=" + mSmInitOngoing +
                 " nwAvail=" + mNetworkAvailable);
     }
@@ -355,51 +1058,146 @@ class Data {
      *      tokenResponseIntent
      *      logoutResponseIntent
      *      smInitOngoing
+     *      scopedTokens
+     *
+     *   Write-behind: changed fields are written to the SessionStore in a background thread after
+     *   WRITE_BEHIND_DELAY_MS, so that saves made in a row result in one write.  Use flush()
+     *   when the data must be on disk before continuing.
      */
     synchronized void saveData() {
-        int authL = 0, idTokPayL = 0, idpL = 0, tokL = 0, logoutIL = 0, logoutL = 0;
-        String str;
-        SharedPreferences.Editor editor = mAppContext.getSharedPreferences(FILE_SAVED_APP_STATE,
-                Context.MODE_PRIVATE).edit();
-
-        if (mAuthState != null) {
-            str = mAuthState.jsonSerializeString();
-            authL = str.length();
-            editor.putString(KEY_AUTH_STATE_JSON, str);
-        }
-        if (mIdTokenPayload != null) {
-            str = mIdTokenPayload.serializeToJson();
-            idTokPayL = str.length();
-            editor.putString(KEY_ID_TOKEN_PAYLOAD_JSON, str);
-        }
-        if (mIdp != null) {
-            str = mIdp.serializeToJson();
-            idpL = str.length();
-            editor.putString(KEY_IDP_JSON, str);
-        }
-        if (mLogoutEndPoint != null) {
-            str = mLogoutEndPoint.toString();
-            logoutL = str.length();
-            editor.putString(KEY_LOGOUT_ENDPOINT, str);
-        }
-        if (mTokenResponseIntent != null) {
-            str = mTokenResponseIntent.toUri(Intent.URI_INTENT_SCHEME);
-            tokL = str.length();
-            editor.putString(KEY_TOKEN_RESPONSE_INTENT,str);
-        }
-        if (mLogoutResponseIntent != null) {
-            str = mLogoutResponseIntent.toUri(Intent.URI_INTENT_SCHEME);
-            logoutIL = str.length();
-            editor.putString(KEY_LOGOUT_RESPONSE_INTENT,str);
-        }
-        editor.putBoolean(KEY_SM_INIT_ONGOING, mSmInitOngoing);
-        editor.putBoolean(KEY_NETWORK_AVAILABLE, mNetworkAvailable);
-        editor.apply();
-        Log.d(TAG, "saveData(): AuthState=" + authL +
-                " idTokPay=" + idTokPayL + " idp=" + idpL +
-                " tokenResp=" + tokL + " logoutIntent=" + logoutIL + " logoutUri=" + logoutL +
+        if (mDirty == 0 || mPendingWrite != null) {
+            return;  // nothing changed, or already scheduled write will include the changes
+        }
+        mPendingWrite = WRITE_EXECUTOR.schedule(new Runnable() {
+            @Override
+            public void run() {
+                synchronized (Data.this) {
+                    mPendingWrite = null;
+                    writeDirtyFields();
+                }
+            }
+        }, WRITE_BEHIND_DELAY_MS, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Writes pending changes synchronously.  Barrier for logout, session reset and the
+     * application going to background.
+     */
+    synchronized void flush() {
+        cancelPendingWrite();
+        writeDirtyFields();
+    }
+
+    private void writeDirtyFields() {
+        if (mDirty == 0) {
+            return;
+        }
+        if (!writeDirtyFields(mStore.edit()) && reloadIfChanged() && mDirty != 0) {
+            // AuthState was changed by another process; readData() took the committed one,
+            // write the other fields
+            writeDirtyFields(mStore.edit());
+        }
+    }
+
+    // writes dirty fields in one atomic commit; on failure the fields stay dirty and are
+    // written by the next save.  AuthState is written only if the stored one is the one this
+    // process last read or wrote, so that a pending change made to older state, e.g. with a
+    // refresh token already rotated by another process, does not overwrite newer state.
+    private boolean writeDirtyFields(@NonNull SessionStore.Editor editor) {
+        int dirty = mDirty;
+        int fields = 0;
+        // persisted forms of the written fields, taken into use when the commit succeeds
+        Map<String,String> written = new HashMap<>();
+
+        if ((dirty & DIRTY_AUTH_STATE) != 0) {
+            editor.expectString(KEY_AUTH_STATE_JSON, mPersistedForms.get(KEY_AUTH_STATE_JSON));
+            putString(editor, written, KEY_AUTH_STATE_JSON, mAuthStateJson != null ?
+                    mAuthStateJson :
+                    mAuthState != null ? mAuthState.jsonSerializeString() : null);
+            fields++;
+        }
+        if ((dirty & DIRTY_ID_TOKEN_PAYLOAD) != 0) {
+            putString(editor, written, KEY_ID_TOKEN_PAYLOAD_JSON, mIdTokenPayloadJson != null ?
+                    mIdTokenPayloadJson :
+                    mIdTokenPayload != null ? mIdTokenPayload.serializeToJson() : null);
+            fields++;
+        }
+        if ((dirty & DIRTY_IDP) != 0) {
+            putString(editor, written, KEY_IDP_JSON, mIdpJson != null ?
+                    mIdpJson :
+                    mIdp != null ? mIdp.serializeToJson() : null);
+            fields++;
+        }
+        if ((dirty & DIRTY_LOGOUT_ENDPOINT) != 0) {
+            putString(editor, written, KEY_LOGOUT_ENDPOINT,
+                    mLogoutEndPoint != null ? mLogoutEndPoint.toString() : null);
+            fields++;
+        }
+        if ((dirty & DIRTY_TOKEN_RESPONSE_INTENT) != 0) {
+            putString(editor, written, KEY_TOKEN_RESPONSE_INTENT, mTokenResponseIntentUri != null ?
+                    mTokenResponseIntentUri :
+                    mTokenResponseIntent != null ?
+                            mTokenResponseIntent.toUri(Intent.URI_INTENT_SCHEME) : null);
+            fields++;
+        }
+        if ((dirty & DIRTY_LOGOUT_RESPONSE_INTENT) != 0) {
+            putString(editor, written, KEY_LOGOUT_RESPONSE_INTENT, mLogoutResponseIntentUri != null ?
+                    mLogoutResponseIntentUri :
+                    mLogoutResponseIntent != null ?
+                            mLogoutResponseIntent.toUri(Intent.URI_INTENT_SCHEME) : null);
+            fields++;
+        }
+        if ((dirty & DIRTY_SCOPED_TOKENS) != 0) {
+            putString(editor, written, KEY_SCOPED_TOKENS_JSON, mScopedTokensJson != null ?
+                    mScopedTokensJson :
+                    !mScopedTokens.isEmpty() ? mScopedTokens.serializeToJson() : null);
+            fields++;
+        }
+        if ((dirty & DIRTY_INIT_ONGOING) != 0) {
+            editor.putBoolean(KEY_SM_INIT_ONGOING, mSmInitOngoing);
+            fields++;
+        }
+        if ((dirty & DIRTY_NETWORK_AVAILABLE) != 0) {
+            editor.putBoolean(KEY_NETWORK_AVAILABLE, mNetworkAvailable);
+            fields++;
+        }
+        if (!editor.commit()) {
+            Log.e(TAG, "writeDirtyFields(): write failed, dirty=0x" + Integer.toHexString(dirty));
+            return false;
+        }
+        mDirty = 0;
+        // the store rewrites all records, this is what reaches the flash
+        int bytes = editor.getBytesWritten();
+        for (Map.Entry<String,String> form : written.entrySet()) {
+            if (form.getValue() != null) {
+                mPersistedForms.put(form.getKey(), form.getValue());
+            } else {
+                mPersistedForms.remove(form.getKey());
+            }
+        }
+
+        mSaveCount++;
+        mFieldsWritten += fields;
+        mBytesWritten += bytes;
+        mLastFieldsWritten = fields;
+        mLastBytesWritten = bytes;
+        Log.d(TAG, "writeDirtyFields(): dirty=0x" + Integer.toHexString(dirty) +
+                " fields=" + fields + " bytes=" + bytes +
                 " initOngoing=" + mSmInitOngoing +
                 " nwAvail=" + mNetworkAvailable);
+        return true;
+    }
+
+    // puts value, or removes key if value is null, and records it in written
+    private static void putString(@NonNull SessionStore.Editor editor,
+                                  @NonNull Map<String,String> written, @NonNull String key,
+                                  @Nullable String value) {
+        written.put(key, value);
+        if (value == null) {
+            editor.remove(key);
+            return;
+        }
+        editor.putString(key, value);
     }
 
 }
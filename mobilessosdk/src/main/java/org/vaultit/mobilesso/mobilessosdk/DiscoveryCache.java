@@ -0,0 +1,400 @@
+package org.vaultit.mobilesso.mobilessosdk;
+
+
+import android.content.Context;
+import android.content.res.Resources;
+import android.net.Uri;
+import android.os.Handler;
+import android.os.Looper;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+import android.support.annotation.RawRes;
+import android.support.annotation.WorkerThread;
+import android.util.Log;
+
+import net.openid.appauth.AuthorizationException;
+import net.openid.appauth.AuthorizationException.GeneralErrors;
+import net.openid.appauth.AuthorizationServiceConfiguration;
+import net.openid.appauth.AuthorizationServiceDiscovery;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.util.HashSet;
+import java.util.Locale;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cache of discovery documents with their HTTP caching metadata (ETag, Last-Modified,
+ * Cache-Control max-age).  Kept in a store of its own, so that documents survive logout and
+ * the next initialize() does not wait for the network.
+ *
+ * Cached documents are used even when stale, and revalidated in background with a
+ * conditional request (stale-while-revalidate).  The revalidated document is reported to
+ * the caller, which takes a changed document into use, see SessionManager.
+ *
+ * On first launch the cache can be seeded with a snapshot bundled with the application, see
+ * IdentityProvider.setDiscoverySnapshot().
+ */
+class DiscoveryCache {
+    private static final String TAG = "DiscoveryCache";
+
+    static final String FILE_DISCOVERY_CACHE = "mobileSsoSdk_discovery.bin";
+    // freshness when the server gives no max-age
+    static final long DEFAULT_MAX_AGE_MS = TimeUnit.HOURS.toMillis(24);
+
+    private static final ExecutorService EXECUTOR =
+            Executors.newSingleThreadExecutor(new ThreadFactory() {
+                @Override
+                public Thread newThread(@NonNull Runnable r) {
+                    Thread thread = new Thread(r, "MobileSsoDiscovery");
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+
+    /**
+     * Result of fetch(), delivered in the main thread.
+     */
+    interface FetchCallback {
+        void discoveryDocFetched(@Nullable AuthorizationServiceConfiguration config,
+                                 @Nullable AuthorizationException ex);
+    }
+
+    /**
+     * Result of a successful revalidation, delivered in the main thread.  The document may
+     * be unchanged.
+     */
+    interface RevalidateCallback {
+        void discoveryDocRevalidated(@NonNull AuthorizationServiceConfiguration config);
+    }
+
+    /**
+     * Cached document and its metadata.
+     */
+    static class Entry {
+        private static final String KEY_DOCUMENT = "document";
+        private static final String KEY_ETAG = "etag";
+        private static final String KEY_LAST_MODIFIED = "lastModified";
+        private static final String KEY_FETCHED_AT = "fetchedAt";
+        private static final String KEY_MAX_AGE_MS = "maxAgeMs";
+
+        final JSONObject document;
+        final String etag;
+        final String lastModified;
+        final long fetchedAt;
+        final long maxAgeMs;
+
+        Entry(@NonNull JSONObject document, @Nullable String etag, @Nullable String lastModified,
+              long fetchedAt, long maxAgeMs) {
+            this.document = document;
+            this.etag = etag;
+            this.lastModified = lastModified;
+            this.fetchedAt = fetchedAt;
+            this.maxAgeMs = maxAgeMs;
+        }
+
+        boolean isStale(long now) {
+            return now < fetchedAt || now - fetchedAt >= maxAgeMs;
+        }
+
+        @NonNull
+        AuthorizationServiceConfiguration toConfiguration()
+                throws AuthorizationServiceDiscovery.MissingArgumentException {
+            return new AuthorizationServiceConfiguration(
+                    new AuthorizationServiceDiscovery(document));
+        }
+
+        @NonNull
+        String toJson() throws JSONException {
+            JSONObject json = new JSONObject();
+            json.put(KEY_DOCUMENT, document);
+            json.putOpt(KEY_ETAG, etag);
+            json.putOpt(KEY_LAST_MODIFIED, lastModified);
+            json.put(KEY_FETCHED_AT, fetchedAt);
+            json.put(KEY_MAX_AGE_MS, maxAgeMs);
+            return json.toString();
+        }
+
+        @NonNull
+        static Entry fromJson(@NonNull String jsonString) throws JSONException {
+            JSONObject json = new JSONObject(jsonString);
+            return new Entry(json.getJSONObject(KEY_DOCUMENT),
+                    json.optString(KEY_ETAG, null),
+                    json.optString(KEY_LAST_MODIFIED, null),
+                    json.getLong(KEY_FETCHED_AT),
+                    json.getLong(KEY_MAX_AGE_MS));
+        }
+    }
+
+    private final SessionStore mStore;
+    // endpoints being fetched in background
+    private final Set<String> mFetching = new HashSet<>();
+
+    /**
+     * @param store  store of its own, not the session store
+     */
+    DiscoveryCache(@NonNull SessionStore store) {
+        mStore = store;
+    }
+
+    /**
+     * @return cached entry, stale or not; null if none
+     */
+    @Nullable
+    synchronized Entry get(@NonNull Uri endpoint) {
+        mStore.reloadIfChanged();
+        String json = mStore.getString(endpoint.toString());
+        if (json == null) {
+            return null;
+        }
+        try {
+            return Entry.fromJson(json);
+        } catch (JSONException ex) {
+            Log.e(TAG,"get(): malformed cache entry for " + endpoint, ex);
+            return null;
+        }
+    }
+
+    synchronized void put(@NonNull Uri endpoint, @NonNull Entry entry) {
+        try {
+            mStore.edit().putString(endpoint.toString(), entry.toJson()).commit();
+        } catch (JSONException ex) {
+            Log.e(TAG,"put(): cannot serialize cache entry", ex);
+        }
+    }
+
+    synchronized void clear() {
+        mStore.edit().clear().commit();
+    }
+
+    /**
+     * Revalidates in background if there is no entry or it is stale.  Result is stored for
+     * the next use; errors are only logged.
+     *
+     * @param callback  receives the revalidated document, null if not needed
+     */
+    void revalidateIfStale(@NonNull IdpTransport transport, @NonNull Uri endpoint,
+                           @Nullable RevalidateCallback callback) {
+        Entry cached = get(endpoint);
+        if (cached != null && !cached.isStale(System.currentTimeMillis())) {
+            return;
+        }
+        revalidate(transport, endpoint, cached, callback);
+    }
+
+    /**
+     * Stores an entry obtained elsewhere, e.g. a snapshot, and revalidates it.  Both are done
+     * in background, so the caller does not wait for the store.
+     */
+    void seed(@NonNull IdpTransport transport, @NonNull final Uri endpoint,
+              @NonNull final Entry entry, @Nullable RevalidateCallback callback) {
+        // executor is single threaded: stored before revalidation completes
+        EXECUTOR.execute(new Runnable() {
+            @Override
+            public void run() {
+                put(endpoint, entry);
+            }
+        });
+        revalidate(transport, endpoint, entry, callback);
+    }
+
+    private void revalidate(@NonNull final IdpTransport transport, @NonNull final Uri endpoint,
+                            @Nullable final Entry cached,
+                            @Nullable final RevalidateCallback callback) {
+        if (!startFetching(endpoint)) {
+            return;
+        }
+        EXECUTOR.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    Entry entry = fetch(transport, endpoint, cached);
+                    put(endpoint, entry);
+                    if (callback != null) {
+                        final AuthorizationServiceConfiguration config = entry.toConfiguration();
+                        new Handler(Looper.getMainLooper()).post(new Runnable() {
+                            @Override
+                            public void run() {
+                                callback.discoveryDocRevalidated(config);
+                            }
+                        });
+                    }
+                } catch (IOException | JSONException |
+                        AuthorizationServiceDiscovery.MissingArgumentException ex) {
+                    Log.d(TAG,"revalidate(): failed for " + endpoint, ex);
+                } finally {
+                    endFetching(endpoint);
+                }
+            }
+        });
+    }
+
+    /**
+     * Fetches document in background, stores it and delivers the configuration in the
+     * main thread.  Used when nothing is cached.
+     */
+    void fetch(@NonNull final IdpTransport transport, @NonNull final Uri endpoint,
+               @NonNull final FetchCallback callback) {
+        EXECUTOR.execute(new Runnable() {
+            @Override
+            public void run() {
+                AuthorizationServiceConfiguration config = null;
+                AuthorizationException exception = null;
+                try {
+                    Entry entry = fetch(transport, endpoint, get(endpoint));
+                    config = entry.toConfiguration();
+                    put(endpoint, entry);
+                } catch (IOException ex) {
+                    exception = AuthorizationException.fromTemplate(
+                            GeneralErrors.NETWORK_ERROR, ex);
+                } catch (JSONException ex) {
+                    exception = AuthorizationException.fromTemplate(
+                            GeneralErrors.JSON_DESERIALIZATION_ERROR, ex);
+                } catch (AuthorizationServiceDiscovery.MissingArgumentException ex) {
+                    exception = AuthorizationException.fromTemplate(
+                            GeneralErrors.INVALID_DISCOVERY_DOCUMENT, ex);
+                }
+                final AuthorizationServiceConfiguration result = config;
+                final AuthorizationException error = exception;
+                new Handler(Looper.getMainLooper()).post(new Runnable() {
+                    @Override
+                    public void run() {
+                        callback.discoveryDocFetched(result, error);
+                    }
+                });
+            }
+        });
+    }
+
+    /**
+     * Fetches document, conditionally if cached entry has a validator.
+     *
+     * @param cached  cached entry, null if none
+     * @return fetched entry, or cached entry with renewed freshness if not modified
+     */
+    @WorkerThread
+    @NonNull
+    static Entry fetch(@NonNull IdpTransport transport, @NonNull Uri endpoint,
+                       @Nullable Entry cached) throws IOException, JSONException {
+        Log.d(TAG,"fetch(): " + endpoint + " conditional=" + (cached != null));
+        HttpURLConnection conn = TransportConnectionBuilder.openHttpsConnection(transport,
+                endpoint);
+        InputStream is = null;
+        try {
+            conn.setRequestMethod("GET");
+            conn.setRequestProperty("Accept", "application/json");
+            if (cached != null && cached.etag != null) {
+                conn.setRequestProperty("If-None-Match", cached.etag);
+            }
+            if (cached != null && cached.lastModified != null) {
+                conn.setRequestProperty("If-Modified-Since", cached.lastModified);
+            }
+            int status = conn.getResponseCode();
+            long now = System.currentTimeMillis();
+            long maxAgeMs = parseMaxAge(conn.getHeaderField("Cache-Control"));
+            String etag = conn.getHeaderField("ETag");
+            String lastModified = conn.getHeaderField("Last-Modified");
+
+            if (status == HttpURLConnection.HTTP_NOT_MODIFIED && cached != null) {
+                Log.d(TAG,"fetch(): not modified");
+                return new Entry(cached.document,
+                        etag != null ? etag : cached.etag,
+                        lastModified != null ? lastModified : cached.lastModified,
+                        now, maxAgeMs);
+            }
+            if (status != HttpURLConnection.HTTP_OK) {
+                is = conn.getErrorStream();
+                throw new IOException("discovery request failed, status=" + status);
+            }
+            is = conn.getInputStream();
+            JSONObject document = new JSONObject(TokenEndpointClient.readStream(is));
+            return new Entry(document, etag, lastModified, now, maxAgeMs);
+        } finally {
+            PooledIdpTransport.release(is);
+        }
+    }
+
+    /**
+     * Reads discovery document snapshot from a raw resource.  The snapshot must be a valid
+     * discovery document whose issuer is at the same origin as the discovery endpoint, so
+     * that a snapshot of another environment is not used.  The returned entry is stale, so
+     * the live document replaces it at the first revalidation.
+     *
+     * @return entry, or null if snapshot is missing or rejected
+     */
+    @Nullable
+    static Entry readSnapshot(@NonNull Context context, @RawRes int resId,
+                              @NonNull Uri endpoint) {
+        InputStream is = null;
+        try {
+            is = context.getResources().openRawResource(resId);
+            Entry entry = new Entry(new JSONObject(TokenEndpointClient.readStream(is)),
+                    null, null, 0, 0);
+            Uri issuer = Uri.parse(entry.toConfiguration().discoveryDoc.getIssuer());
+            if (!endpoint.getScheme().equalsIgnoreCase(issuer.getScheme()) ||
+                    !endpoint.getEncodedAuthority().equalsIgnoreCase(
+                            issuer.getEncodedAuthority())) {
+                Log.e(TAG,"readSnapshot(): rejected, issuer " + issuer + " does not match " +
+                        endpoint);
+                return null;
+            }
+            Log.d(TAG,"readSnapshot(): using snapshot of " + issuer);
+            return entry;
+        } catch (Resources.NotFoundException | IOException | JSONException |
+                AuthorizationServiceDiscovery.MissingArgumentException ex) {
+            Log.e(TAG,"readSnapshot(): rejected", ex);
+            return null;
+        } finally {
+            if (is != null) {
+                try {
+                    is.close();
+                } catch (IOException ex) {
+                    Log.d(TAG,"readSnapshot(): failed to close resource");
+                }
+            }
+        }
+    }
+
+    /**
+     * @param cacheControl  Cache-Control header value, may be null
+     * @return freshness lifetime; 0 for no-cache and no-store (document is still kept, since
+     *         it is needed offline, but always revalidated)
+     */
+    static long parseMaxAge(@Nullable String cacheControl) {
+        if (cacheControl == null) {
+            return DEFAULT_MAX_AGE_MS;
+        }
+        long maxAgeMs = DEFAULT_MAX_AGE_MS;
+        for (String directive : cacheControl.toLowerCase(Locale.US).split(",")) {
+            directive = directive.trim();
+            if (directive.equals("no-cache") || directive.equals("no-store")) {
+                return 0;
+            }
+            if (directive.startsWith("max-age=")) {
+                try {
+                    maxAgeMs = TimeUnit.SECONDS.toMillis(
+                            Long.parseLong(directive.substring("max-age=".length()).trim()));
+                } catch (NumberFormatException ex) {
+                    Log.d(TAG,"parseMaxAge(): malformed " + directive);
+                }
+            }
+        }
+        return maxAgeMs;
+    }
+
+    private synchronized boolean startFetching(@NonNull Uri endpoint) {
+        return mFetching.add(endpoint.toString());
+    }
+
+    private synchronized void endFetching(@NonNull Uri endpoint) {
+        mFetching.remove(endpoint.toString());
+    }
+}
@@ -0,0 +1,406 @@
+package org.vaultit.mobilesso.mobilessosdk;
+
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+import android.util.Log;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+/**
+ * SessionStore in a single binary file.  Replaces the SharedPreferences XML file, which is
+ * parsed fully when loaded and rewritten fully by every apply().
+ *
+ * File format, big endian:
+ *   magic    int    "MSSO"
+ *   version  byte   FORMAT_VERSION, files of other versions are not read
+ *   count    int    number of records
+ *   records         key: unsigned short length + UTF-8, type: byte, value:
+ *                     TYPE_STRING   int length + UTF-8
+ *                     TYPE_BOOLEAN  byte
+ *   crc      long   CRC32 of all of the above
+ *
+ * A commit writes a temporary file, syncs it to disk and renames it over the store, so
+ * that a crash leaves either the old or the new contents.  The file is read memory mapped
+ * when it is first accessed; a corrupted file is discarded and the session starts empty.
+ *
+ * Processes are kept coherent with a SessionGeneration counter next to the store file.
+ * Reads and commits hold its lock, and a commit re-reads the file first if another process
+ * has committed, so that changes of other processes are not overwritten.
+ */
+class FileSessionStore implements SessionStore {
+    private static final String TAG = "FileSessionStore";
+
+    static final byte FORMAT_VERSION = 1;
+    private static final int MAGIC = 0x4d53534f;  // "MSSO"
+    private static final byte TYPE_STRING = 1;
+    private static final byte TYPE_BOOLEAN = 2;
+    private static final int HEADER_SIZE = 9;
+    private static final int CRC_SIZE = 8;
+    private static final int CRC_CHUNK_SIZE = 4096;
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private final File mFile;
+    private final File mTmpFile;
+    private final SessionGeneration mGeneration;
+    // records, read on first access, and generation of the store they were read at
+    private Map<String,Object> mRecords = null;
+    private long mRecordsGeneration = 0;
+    // commit() has merged commits of other processes, which reloadIfChanged() has not reported
+    private boolean mMergeUnreported = false;
+
+    /**
+     * @param file  store file, created on first commit
+     */
+    FileSessionStore(@NonNull File file) {
+        mFile = file;
+        mTmpFile = new File(file.getPath() + ".tmp");
+        mGeneration = SessionGeneration.forFile(new File(file.getPath() + ".gen"));
+    }
+
+    synchronized boolean exists() {
+        return mFile.exists();
+    }
+
+    @Nullable
+    @Override
+    public synchronized String getString(@NonNull String key) {
+        Object value = records().get(key);
+        return (value instanceof String ? (String) value : null);
+    }
+
+    @Override
+    public synchronized boolean getBoolean(@NonNull String key, boolean defValue) {
+        Object value = records().get(key);
+        return (value instanceof Boolean ? (Boolean) value : defValue);
+    }
+
+    @Override
+    public synchronized boolean contains(@NonNull String key) {
+        return records().containsKey(key);
+    }
+
+    @NonNull
+    @Override
+    public Editor edit() {
+        return new FileEditor();
+    }
+
+    @Override
+    public synchronized boolean reloadIfChanged() {
+        if (mMergeUnreported) {
+            // records are current, but the caller has not seen the merged changes
+            Log.d(TAG,"reloadIfChanged(): changes merged by commit");
+            mMergeUnreported = false;
+            return true;
+        }
+        if (mRecords == null || mGeneration.get() == mRecordsGeneration) {
+            return false;
+        }
+        Log.d(TAG,"reloadIfChanged(): generation " + mRecordsGeneration + " -> " +
+                mGeneration.get());
+        mRecords = null;
+        return true;
+    }
+
+    @NonNull
+    @Override
+    public ProcessLock lockAcrossProcesses() {
+        return mGeneration.lockRefresh();
+    }
+
+    @Nullable
+    @Override
+    public ProcessLock tryLockAcrossProcesses(long timeoutMs) {
+        return mGeneration.tryLockRefresh(timeoutMs);
+    }
+
+    private Map<String,Object> records() {
+        if (mRecords == null) {
+            ProcessLock lock = mGeneration.lockCounter();
+            try {
+                load();
+            } finally {
+                lock.release();
+            }
+        }
+        return mRecords;
+    }
+
+    // caller holds counter lock
+    private void load() {
+        mRecordsGeneration = mGeneration.get();
+        mRecords = read();
+    }
+
+    private Map<String,Object> read() {
+        Map<String,Object> records = new HashMap<>();
+        if (mTmpFile.exists() && !mTmpFile.delete()) {
+            // left over from an interrupted commit, the store itself is intact
+            Log.e(TAG,"read(): cannot delete " + mTmpFile);
+        }
+        if (!mFile.exists()) {
+            return records;
+        }
+        RandomAccessFile file = null;
+        try {
+            file = new RandomAccessFile(mFile, "r");
+            FileChannel channel = file.getChannel();
+            long size = channel.size();
+            if (size > Integer.MAX_VALUE) {
+                throw new IOException("invalid size " + size);
+            }
+            parse(channel.map(FileChannel.MapMode.READ_ONLY, 0, size), records);
+            Log.d(TAG,"read(): records=" + records.size() + " bytes=" + size);
+        } catch (IOException ex) {
+            Log.e(TAG,"read(): discarding unreadable session store", ex);
+            records.clear();
+        } finally {
+            close(file);
+        }
+        return records;
+    }
+
+    /**
+     * Parses file contents into records.
+     *
+     * @throws IOException  if contents are corrupted or of unsupported version
+     */
+    static void parse(@NonNull ByteBuffer buffer, @NonNull Map<String,Object> records)
+            throws IOException {
+        int end = buffer.limit() - CRC_SIZE;
+        if (end < HEADER_SIZE) {
+            throw new IOException("truncated file");
+        }
+        if (crc(buffer, end) != buffer.getLong(end)) {
+            throw new IOException("checksum mismatch");
+        }
+        buffer.position(0);
+        buffer.limit(end);
+        try {
+            if (buffer.getInt() != MAGIC) {
+                throw new IOException("not a session store");
+            }
+            byte version = buffer.get();
+            if (version != FORMAT_VERSION) {
+                throw new IOException("unsupported version " + version);
+            }
+            int count = buffer.getInt();
+            for (int i = 0; i < count; i++) {
+                String key = readString(buffer, buffer.getShort() & 0xffff);
+                byte type = buffer.get();
+                switch (type) {
+                    case TYPE_STRING:
+                        records.put(key, readString(buffer, buffer.getInt()));
+                        break;
+                    case TYPE_BOOLEAN:
+                        records.put(key, buffer.get() != 0);
+                        break;
+                    default:
+                        throw new IOException("unknown record type " + type);
+                }
+            }
+        } catch (BufferUnderflowException ex) {
+            throw new IOException("truncated record", ex);
+        }
+    }
+
+    /**
+     * Serializes records into file contents.
+     */
+    @NonNull
+    static byte[] serialize(@NonNull Map<String,Object> records) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeInt(MAGIC);
+        out.writeByte(FORMAT_VERSION);
+        out.writeInt(records.size());
+        for (Map.Entry<String,Object> record : records.entrySet()) {
+            byte[] key = record.getKey().getBytes(UTF_8);
+            out.writeShort(key.length);
+            out.write(key);
+            Object value = record.getValue();
+            if (value instanceof Boolean) {
+                out.writeByte(TYPE_BOOLEAN);
+                out.writeByte((Boolean) value ? 1 : 0);
+            } else {
+                byte[] string = ((String) value).getBytes(UTF_8);
+                out.writeByte(TYPE_STRING);
+                out.writeInt(string.length);
+                out.write(string);
+            }
+        }
+        out.flush();
+        CRC32 crc = new CRC32();
+        crc.update(bytes.toByteArray());
+        out.writeLong(crc.getValue());
+        out.close();
+        return bytes.toByteArray();
+    }
+
+    private void writeAtomically(@NonNull byte[] contents) throws IOException {
+        File dir = mFile.getParentFile();
+        if (dir != null && !dir.exists() && !dir.mkdirs()) {
+            throw new IOException("cannot create " + dir);
+        }
+        FileOutputStream out = new FileOutputStream(mTmpFile);
+        try {
+            out.write(contents);
+            out.getFD().sync();
+        } finally {
+            close(out);
+        }
+        if (!mTmpFile.renameTo(mFile)) {
+            //noinspection ResultOfMethodCallIgnored
+            mTmpFile.delete();
+            throw new IOException("cannot rename " + mTmpFile);
+        }
+    }
+
+    // CRC32 of the first length bytes; CRC32 of Java 7 does not take a ByteBuffer
+    private static long crc(@NonNull ByteBuffer buffer, int length) {
+        ByteBuffer data = buffer.duplicate();
+        data.position(0);
+        CRC32 crc = new CRC32();
+        byte[] chunk = new byte[Math.min(CRC_CHUNK_SIZE, length)];
+        int remaining = length;
+        while (remaining > 0) {
+            int count = Math.min(chunk.length, remaining);
+            data.get(chunk, 0, count);
+            crc.update(chunk, 0, count);
+            remaining -= count;
+        }
+        return crc.getValue();
+    }
+
+    private static String readString(@NonNull ByteBuffer buffer, int length) throws IOException {
+        if (length < 0 || length > buffer.remaining()) {
+            throw new IOException("invalid length " + length);
+        }
+        byte[] bytes = new byte[length];
+        buffer.get(bytes);
+        return new String(bytes, UTF_8);
+    }
+
+    private static void close(@Nullable Closeable closeable) {
+        if (closeable == null) {
+            return;
+        }
+        try {
+            closeable.close();
+        } catch (IOException ex) {
+            Log.d(TAG,"close(): failed to close " + closeable);
+        }
+    }
+
+    private class FileEditor implements Editor {
+        // null value removes the record
+        private final Map<String,Object> mChanges = new HashMap<>();
+        // null value expects the record to be absent
+        private final Map<String,String> mExpected = new HashMap<>();
+        private boolean mClear = false;
+        private int mBytesWritten = 0;
+
+        @NonNull
+        @Override
+        public Editor putString(@NonNull String key, @Nullable String value) {
+            mChanges.put(key, value);
+            return this;
+        }
+
+        @NonNull
+        @Override
+        public Editor putBoolean(@NonNull String key, boolean value) {
+            mChanges.put(key, value);
+            return this;
+        }
+
+        @NonNull
+        @Override
+        public Editor remove(@NonNull String key) {
+            mChanges.put(key, null);
+            return this;
+        }
+
+        @NonNull
+        @Override
+        public Editor clear() {
+            mClear = true;
+            return this;
+        }
+
+        @NonNull
+        @Override
+        public Editor expectString(@NonNull String key, @Nullable String expected) {
+            mExpected.put(key, expected);
+            return this;
+        }
+
+        @Override
+        public boolean commit() {
+            synchronized (FileSessionStore.this) {
+                ProcessLock lock = mGeneration.lockCounter();
+                try {
+                    if (mRecords == null || mGeneration.get() != mRecordsGeneration) {
+                        // merge with commits of other processes; the new generation set below
+                        // would hide them from reloadIfChanged()
+                        mMergeUnreported |= (mRecords != null);
+                        load();
+                    }
+                    if (!mClear) {
+                        for (Map.Entry<String,String> expected : mExpected.entrySet()) {
+                            Object value = mRecords.get(expected.getKey());
+                            if (value == null ? expected.getValue() != null :
+                                    !value.equals(expected.getValue())) {
+                                Log.d(TAG,"commit(): " + expected.getKey() +
+                                        " changed by another process");
+                                mMergeUnreported = true;  // caller's view is stale
+                                return false;
+                            }
+                        }
+                    }
+                    Map<String,Object> records = (mClear ? new HashMap<String,Object>() :
+                            new HashMap<>(mRecords));
+                    for (Map.Entry<String,Object> change : mChanges.entrySet()) {
+                        if (change.getValue() == null) {
+                            records.remove(change.getKey());
+                        } else {
+                            records.put(change.getKey(), change.getValue());
+                        }
+                    }
+                    try {
+                        byte[] contents = serialize(records);
+                        writeAtomically(contents);
+                        mBytesWritten = contents.length;
+                    } catch (IOException ex) {
+                        Log.e(TAG,"commit(): write failed", ex);
+                        return false;
+                    }
+                    mRecords = records;
+                    mRecordsGeneration = mGeneration.increment();
+                    return true;
+                } finally {
+                    lock.release();
+                }
+            }
+        }
+
+        @Override
+        public int getBytesWritten() {
+            return mBytesWritten;
+        }
+    }
+}
@@ -3,26 +3,40 @@ package org.vaultit.mobilesso.mobilessosdk;
 
 import android.support.annotation.NonNull;
 import android.support.annotation.Nullable;
-import android.util.Base64;
 import android.util.Log;
 
-import com.google.gson.Gson;
-import com.google.gson.GsonBuilder;
 import com.google.gson.JsonSyntaxException;
+import com.google.gson.stream.JsonWriter;
 
-import org.json.JSONException;
-import org.json.JSONObject;
-
-import java.io.UnsupportedEncodingException;
+import java.io.IOException;
+import java.io.StringWriter;
+import java.nio.charset.Charset;
+import java.util.Collections;
 import java.util.Date;
+import java.util.List;
 
 /**
  * Convenience class created from ID Token.  Contains user info and time stamps, etc.
  * Function getValid() can be called to determine if JSON conversion succeeded.
+ *
+ * Claims are read in a single pass from the UTF-8 bytes of the payload (ClaimsReader);
+ * fromIdToken() decodes the base64url payload of the token straight into those bytes.
  */
 public class IdTokenPayload {
     private final static String TAG = "IdTokenPayload";
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    // claims read, in the order of the bits of REQUIRED_CLAIMS
+    private static final String[] CLAIMS = {
+            "iat", "exp", "auth_time", "iss", "aud", "oxOpenIDConnectVersion",
+            "oxValidationURI", "sub",
+            "name", "family_name", "given_name", "inum", "at_hash", "acr" };
+    private static final byte[][] CLAIM_NAMES = ClaimsReader.names(CLAIMS);
+    private static final int REQUIRED_CLAIMS = 0xff;  // first eight
+
     private boolean valid = false;
+    // all audiences, aud holds the first
+    private List<String> audiences = Collections.emptyList();
 
 
     /**
@@ -43,17 +57,17 @@ public class IdTokenPayload {
     /**
      * The raw unix timestamp of the token issue time. See issuedAtTime for a Date version.
      */
-    public int iat;
+    public long iat;
 
     /**
      * The raw unix timestamp of the session expire time. See expirationTime for a Date version.
      */
-    public int exp;
+    public long exp;
 
     /**
      * The raw unix timestamp of the time of authentication.
      */
-    public int auth_time;
+    public long auth_time;
 
     /**
      * client identificator
@@ -66,7 +80,7 @@ public class IdTokenPayload {
     public String iss  = null;
 
     /**
-     * client ID  (aud=Audience)
+     * client ID  (aud=Audience), the first one if there are several; see hasAudience()
      */
     public String aud  = null;
 
@@ -101,39 +115,115 @@ public class IdTokenPayload {
      * @param idTokenPayloadJSON  id token payload string in JSON format
      */
     public IdTokenPayload(@NonNull String idTokenPayloadJSON) {
-        JSONObject jsonObject = null;
+        parse(idTokenPayloadJSON.getBytes(UTF_8));
+    }
+
+    private IdTokenPayload(@NonNull byte[] json) {
+        parse(json);
+    }
+
+    /**
+     * Creates payload from the claims of an ID token, without an intermediate JSON string.
+     * @return payload, null if token is missing or not a JWT; check isValid() otherwise
+     */
+    @Nullable
+    public static IdTokenPayload fromIdToken(@Nullable String idToken) {
+        byte[] json = decodePayload(idToken);
+        return (json != null ? new IdTokenPayload(json) : null);
+    }
+
+    private void parse(@NonNull byte[] json) {
+        int found = 0;
         try {
-            jsonObject = new JSONObject(idTokenPayloadJSON);
-        } catch (JSONException ex) {
-            Log.e(TAG,"IdTokenPayload() constructor : JSON error converting string to object");
+            ClaimsReader reader = new ClaimsReader(json);
+            reader.beginObject();
+            while (reader.hasNext()) {
+                int claim = reader.nextName(CLAIM_NAMES);
+                int type = reader.peek();
+                if (claim < 0 || type == ClaimsReader.OTHER ||
+                        (claim < 3) != (type == ClaimsReader.NUMBER)) {
+                    reader.skipValue();
+                    continue;
+                }
+                if (claim < 3) {
+                    setTime(claim, reader.nextLong());
+                } else if (type == ClaimsReader.ARRAY) {
+                    // e.g. aud with several audiences
+                    List<String> values = reader.nextStringArray();
+                    setString(claim, values.isEmpty() ? null : values.get(0));
+                    if (claim == 4) {
+                        audiences = Collections.unmodifiableList(values);
+                    }
+                } else {
+                    String value = reader.nextString();
+                    setString(claim, value);
+                    if (claim == 4) {
+                        audiences = Collections.singletonList(value);
+                    }
+                }
+                found |= 1 << claim;
+            }
+        } catch (IOException ex) {
+            Log.e(TAG,"IdTokenPayload() constructor : JSON error converting string to object", ex);
             return;
         }
-        valid = true;
-        try {
-            iat = (int) jsonObject.get("iat");
-            exp = (int) jsonObject.get("exp");
-            auth_time = (int) jsonObject.get("auth_time");
-            iss = (String) jsonObject.get("iss");
-            aud = (String) jsonObject.get("aud");
-            oxOpenIDConnectVersion = (String) jsonObject.get("oxOpenIDConnectVersion");
-            oxValidationURI = (String) jsonObject.get("oxValidationURI");
-            sub = (String) jsonObject.get("sub");
-
-        } catch (JSONException ex) {
+        valid = (found & REQUIRED_CLAIMS) == REQUIRED_CLAIMS;
+        if (!valid) {
             Log.e(TAG,"IdTokenPayload() constructor: JSON error converting idTokenPayload,"+
-                            " missing value", ex);
-            valid = false;
+                    " missing value");
         }
-        try {
-            name = (String) jsonObject.get("name");
-            family_name = (String) jsonObject.get("family_name");
-            given_name = (String) jsonObject.get("given_name");
-            inum = (String) jsonObject.get("inum");
-            at_hash = (String) jsonObject.get("at_hash");
-            acr = (String) jsonObject.get("acr");
-        } catch (JSONException ex) {
-            Log.d(TAG,"IdTokenPayload() constructor: missing  at least one of : "+
-                    "at_hash, acr, inum or any of names");
+    }
+
+    // claim is an index of CLAIMS
+    private void setTime(int claim, long value) {
+        switch (claim) {
+            case 0:
+                iat = value;
+                break;
+            case 1:
+                exp = value;
+                break;
+            default:
+                auth_time = value;
+                break;
+        }
+    }
+
+    private void setString(int claim, @Nullable String value) {
+        switch (claim) {
+            case 3:
+                iss = value;
+                break;
+            case 4:
+                aud = value;
+                break;
+            case 5:
+                oxOpenIDConnectVersion = value;
+                break;
+            case 6:
+                oxValidationURI = value;
+                break;
+            case 7:
+                sub = value;
+                break;
+            case 8:
+                name = value;
+                break;
+            case 9:
+                family_name = value;
+                break;
+            case 10:
+                given_name = value;
+                break;
+            case 11:
+                inum = value;
+                break;
+            case 12:
+                at_hash = value;
+                break;
+            default:
+                acr = value;
+                break;
         }
     }
 
@@ -145,6 +235,25 @@ public class IdTokenPayload {
         return valid;
     }
 
+    /**
+     * All audiences of the token, aud being the first.
+     * @return audiences, empty if the claim is missing
+     */
+    @NonNull
+    public List<String> getAudiences() {
+        return audiences;
+    }
+
+    /**
+     * Is client one of the audiences of the token?
+     * @param clientId  client ID
+     * @return  true if aud is clientId or an array containing it
+     */
+    public boolean hasAudience(@NonNull String clientId) {
+        // aud may have been set directly
+        return (audiences.isEmpty() ? clientId.equals(aud) : audiences.contains(clientId));
+    }
+
     /**
      * convenience function for getting person resource id
      */
@@ -157,7 +266,7 @@ public class IdTokenPayload {
      * @return date
      */
     public Date getAuthTime() {
-        return new java.util.Date((long) auth_time *1000);
+        return new java.util.Date(auth_time * 1000);
     }
 
     /**
@@ -165,7 +274,7 @@ public class IdTokenPayload {
      * @return date
      */
     public Date getIssuedAtTime() {
-        return new java.util.Date((long) iat *1000);
+        return new java.util.Date(iat * 1000);
     }
 
     /**
@@ -173,7 +282,7 @@ public class IdTokenPayload {
      * @return date
      */
     public  Date getExpirationTime() {
-        return new java.util.Date((long) exp *1000);
+        return new java.util.Date(exp * 1000);
     }
 
     /**
@@ -182,29 +291,60 @@ public class IdTokenPayload {
      */
     public static String decodeJWTToken(@Nullable String idToken) {
         Log.d(TAG, "decodeJWTToken() ");
-        String payloadStr = null;
-        if (idToken != null) {
-            String[] parts = idToken.split("\\.");
-            if (parts.length > 1) {
-                String payloadBase64Str = parts[1];
-                try {
-                    payloadStr = new String(Base64.decode(payloadBase64Str,
-                            Base64.URL_SAFE), "UTF-8");
-                } catch (UnsupportedEncodingException ex) {
-                    Log.e(TAG, "decodeJWTToken(): Base64 UnsupportedEncodingException when reading IdTokenPayload", ex);
-                }
-            } else {
-                Log.e(TAG,"decodeJWTToken():  idToken split failed, parts.length=" + parts.length +
-                        " idToken=" + idToken);
-            }
-        }
+        byte[] json = decodePayload(idToken);
+        return (json != null ? new String(json, UTF_8) : null);
+    }
 
-        return payloadStr;
+    // base64url decoded payload (second part) of a JWT, null if not a JWT
+    @Nullable
+    private static byte[] decodePayload(@Nullable String idToken) {
+        if (idToken == null) {
+            return null;
+        }
+        int start = idToken.indexOf('.') + 1;
+        int end = (start > 0 ? idToken.indexOf('.', start) : -1);
+        if (end < 0) {
+            Log.e(TAG,"decodePayload(): idToken is not a JWT");
+            return null;
+        }
+        byte[] json = ClaimsReader.decodeBase64Url(idToken, start, end);
+        if (json == null) {
+            Log.e(TAG,"decodePayload(): malformed base64url payload");
+        }
+        return json;
     }
 
+    /**
+     * Serializes claims to JSON, read back with IdTokenPayload(String).
+     */
     public String serializeToJson() throws JsonSyntaxException {
-        Gson gson = new GsonBuilder().create();
-        return gson.toJson(this);
+        StringWriter out = new StringWriter();
+        JsonWriter writer = new JsonWriter(out);
+        try {
+            writer.beginObject();
+            writer.name("iat").value(iat);
+            writer.name("exp").value(exp);
+            writer.name("auth_time").value(auth_time);
+            String[] values = { iss, aud, oxOpenIDConnectVersion, oxValidationURI, sub,
+                    name, family_name, given_name, inum, at_hash, acr };
+            for (int i = 0; i < values.length; i++) {
+                if (CLAIMS[i + 3].equals("aud") && audiences.size() > 1) {
+                    writer.name("aud").beginArray();
+                    for (String audience : audiences) {
+                        writer.value(audience);
+                    }
+                    writer.endArray();
+                } else if (values[i] != null) {
+                    writer.name(CLAIMS[i + 3]).value(values[i]);
+                }
+            }
+            writer.endObject();
+            writer.close();
+        } catch (IOException ex) {
+            // StringWriter does not throw
+            throw new JsonSyntaxException(ex);
+        }
+        return out.toString();
     }
 
 }
@@ -0,0 +1,93 @@
+package org.vaultit.mobilesso.mobilessosdk;
+
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+import android.util.Log;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Decoded payloads of the latest ID tokens of the process, so that a token is decoded once
+ * and reading its payload again is a hash lookup.  Entries are keyed by a fingerprint of the
+ * raw token computed from its length and last characters, which are signature bytes, and
+ * the token itself is compared on a hit, so a fingerprint collision is only a miss.
+ */
+class IdTokenPayloadCache {
+    private static final String TAG = "IdTokenPayloadCache";
+
+    private static final int MAX_ENTRIES = 4;
+    private static final int FINGERPRINT_CHARS = 32;
+    private static final long FNV_OFFSET_BASIS = 0xcbf29ce484222325L;
+    private static final long FNV_PRIME = 0x100000001b3L;
+
+    private static final Map<Long,Entry> sEntries =
+            new LinkedHashMap<Long,Entry>(MAX_ENTRIES, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<Long,Entry> eldest) {
+                    return size() > MAX_ENTRIES;
+                }
+            };
+    private static long sDecodeCount = 0;
+
+    private static class Entry {
+        final String idToken;
+        final IdTokenPayload payload;  // null if token could not be decoded
+
+        Entry(@NonNull String idToken, @Nullable IdTokenPayload payload) {
+            this.idToken = idToken;
+            this.payload = payload;
+        }
+    }
+
+    private IdTokenPayloadCache() {
+    }
+
+    /**
+     * Returns payload of token, decoding it if not cached.  Tokens which cannot be decoded are
+     * also cached, as null.
+     *
+     * @return valid payload, null if token is not a JWT or its claims are not valid
+     */
+    @Nullable
+    static synchronized IdTokenPayload get(@NonNull String idToken) {
+        Long fingerprint = fingerprint(idToken);
+        Entry entry = sEntries.get(fingerprint);
+        if (entry == null || !entry.idToken.equals(idToken)) {
+            sDecodeCount++;
+            IdTokenPayload payload = IdTokenPayload.fromIdToken(idToken);
+            if (payload != null && !payload.isValid()) {
+                payload = null;
+            }
+            if (payload == null) {
+                Log.e(TAG,"get(): cannot decode id token");
+            }
+            entry = new Entry(idToken, payload);
+            sEntries.put(fingerprint, entry);
+        }
+        return entry.payload;
+    }
+
+    /**
+     * @return number of tokens decoded in this process
+     */
+    static synchronized long getDecodeCount() {
+        return sDecodeCount;
+    }
+
+    static synchronized void clear() {
+        sEntries.clear();
+    }
+
+    // FNV-1a of the last characters, mixed with the length
+    static long fingerprint(@NonNull String idToken) {
+        long hash = FNV_OFFSET_BASIS ^ idToken.length();
+        for (int i = Math.max(0, idToken.length() - FINGERPRINT_CHARS); i < idToken.length();
+             i++) {
+            hash ^= idToken.charAt(i);
+            hash *= FNV_PRIME;
+        }
+        return hash;
+    }
+}
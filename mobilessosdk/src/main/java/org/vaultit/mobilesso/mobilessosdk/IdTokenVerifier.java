@@ -0,0 +1,245 @@
+package org.vaultit.mobilesso.mobilessosdk;
+
+
+import android.os.Handler;
+import android.os.Looper;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+import android.support.annotation.WorkerThread;
+import android.util.Base64;
+import android.util.Log;
+
+import net.openid.appauth.AuthorizationException;
+import net.openid.appauth.AuthorizationException.GeneralErrors;
+import net.openid.appauth.AuthorizationServiceConfiguration;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.security.GeneralSecurityException;
+import java.security.PublicKey;
+import java.security.Signature;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+import static net.openid.appauth.AuthorizationException.TYPE_GENERAL_ERROR;
+
+/**
+ * Verifies ID tokens locally: signature with the identity provider's keys (JwksCache), issuer
+ * against the discovery document and audience against the client id.  Results are memoized
+ * per token, so a token is verified with RSA once per process.  Failures to obtain the
+ * signing key, because of a network error or an unknown key id, are reported as network
+ * errors and are not memoized; only a signature, issuer or audience mismatch rejects a token.
+ *
+ * Tokens are verified when they are received, in code exchange and token refresh; Session
+ * validate() checks only the time stamps and claims of the stored token.
+ */
+class IdTokenVerifier {
+    private static final String TAG = "IdTokenVerifier";
+
+    // error reported when an ID token is rejected
+    static final int ID_TOKEN_REJECTED_CODE = 1001;
+    static final AuthorizationException ID_TOKEN_REJECTED_ERROR = new AuthorizationException(
+            TYPE_GENERAL_ERROR, ID_TOKEN_REJECTED_CODE, "id_token_rejected",
+            "ID token signature, issuer or audience is not valid", null, null);
+
+    private static final int MAX_MEMOIZED = 8;
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private static final ExecutorService EXECUTOR =
+            Executors.newSingleThreadExecutor(new ThreadFactory() {
+                @Override
+                public Thread newThread(@NonNull Runnable r) {
+                    Thread thread = new Thread(r, "MobileSsoVerify");
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+
+    /**
+     * Result of verifyAsync(), delivered in the main thread.
+     */
+    interface Callback {
+        /**
+         * @param ex  null if token is valid
+         */
+        void idTokenVerified(@Nullable AuthorizationException ex);
+    }
+
+    private final JwksCache mJwksCache;
+    // verification results by token, least recently used first
+    private final Map<String,Boolean> mResults =
+            new LinkedHashMap<String,Boolean>(MAX_MEMOIZED, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<String,Boolean> eldest) {
+                    return size() > MAX_MEMOIZED;
+                }
+            };
+
+    IdTokenVerifier(@NonNull JwksCache jwksCache) {
+        mJwksCache = jwksCache;
+    }
+
+    @NonNull
+    JwksCache getJwksCache() {
+        return mJwksCache;
+    }
+
+    /**
+     * Verifies token in the calling thread; may fetch the key set.
+     *
+     * @throws AuthorizationException  ID_TOKEN_REJECTED_ERROR if token is not valid,
+     *                                 NETWORK_ERROR if the signing key cannot be obtained
+     */
+    @WorkerThread
+    void verify(@NonNull IdpTransport transport, @NonNull AuthorizationServiceConfiguration config,
+                @NonNull String clientId, @Nullable String idToken)
+            throws AuthorizationException {
+        if (idToken == null) {
+            throw reject("no ID token");
+        }
+        Boolean memoized;
+        synchronized (mResults) {
+            memoized = mResults.get(idToken);
+        }
+        if (memoized == null) {
+            try {
+                memoized = check(transport, config, clientId, idToken);
+            } catch (IOException ex) {
+                Log.e(TAG,"verify(): cannot fetch key set", ex);
+                throw AuthorizationException.fromTemplate(GeneralErrors.NETWORK_ERROR, ex);
+            }
+            if (memoized == null) {
+                Log.e(TAG,"verify(): signing key not found");
+                throw AuthorizationException.fromTemplate(GeneralErrors.NETWORK_ERROR,
+                        new IOException("signing key not found"));
+            }
+            synchronized (mResults) {
+                mResults.put(idToken, memoized);
+            }
+        }
+        if (!memoized) {
+            throw reject("ID token rejected");
+        }
+    }
+
+    /**
+     * Verifies token in a background thread and delivers the result in the main thread.
+     */
+    void verifyAsync(@NonNull final IdpTransport transport,
+                     @NonNull final AuthorizationServiceConfiguration config,
+                     @NonNull final String clientId, @Nullable final String idToken,
+                     @NonNull final Callback callback) {
+        EXECUTOR.execute(new Runnable() {
+            @Override
+            public void run() {
+                AuthorizationException exception = null;
+                try {
+                    verify(transport, config, clientId, idToken);
+                } catch (AuthorizationException ex) {
+                    exception = ex;
+                }
+                final AuthorizationException result = exception;
+                new Handler(Looper.getMainLooper()).post(new Runnable() {
+                    @Override
+                    public void run() {
+                        callback.idTokenVerified(result);
+                    }
+                });
+            }
+        });
+    }
+
+    static boolean isIdTokenRejectedError(@NonNull AuthorizationException ex) {
+        return ex.type == ID_TOKEN_REJECTED_ERROR.type && ex.code == ID_TOKEN_REJECTED_CODE;
+    }
+
+    // true if valid, false if not, null if signing key is not known;
+    // IOException if key set is needed and cannot be fetched
+    @Nullable
+    private Boolean check(@NonNull IdpTransport transport,
+                          @NonNull AuthorizationServiceConfiguration config,
+                          @NonNull String clientId, @NonNull String idToken) throws IOException {
+        String[] parts = idToken.split("\\.", -1);
+        if (parts.length != 3 || config.discoveryDoc == null) {
+            Log.e(TAG,"check(): malformed token or no discovery document");
+            return false;
+        }
+        try {
+            JSONObject header = new JSONObject(new String(decode(parts[0]), UTF_8));
+            JSONObject claims = new JSONObject(new String(decode(parts[1]), UTF_8));
+            if (!config.discoveryDoc.getIssuer().equals(claims.optString("iss"))) {
+                Log.e(TAG,"check(): issuer mismatch, iss=" + claims.optString("iss"));
+                return false;
+            }
+            if (!hasAudience(claims, clientId)) {
+                Log.e(TAG,"check(): audience mismatch, aud=" + claims.opt("aud"));
+                return false;
+            }
+            String algorithm = signatureAlgorithm(header.optString("alg"));
+            if (algorithm == null) {
+                Log.e(TAG,"check(): unsupported alg=" + header.optString("alg"));
+                return false;
+            }
+            PublicKey key = mJwksCache.getKey(transport, config.discoveryDoc.getJwksUri(),
+                    header.has("kid") ? header.getString("kid") : null);
+            if (key == null) {
+                // not memoized, key may be published after the refetch interval
+                Log.e(TAG,"check(): no key for kid=" + header.optString("kid"));
+                return null;
+            }
+            Signature signature = Signature.getInstance(algorithm);
+            signature.initVerify(key);
+            signature.update((parts[0] + "." + parts[1]).getBytes(UTF_8));
+            boolean valid = signature.verify(decode(parts[2]));
+            Log.d(TAG,"check(): signature valid=" + valid);
+            return valid;
+        } catch (JSONException | IllegalArgumentException | GeneralSecurityException ex) {
+            Log.e(TAG,"check(): malformed token", ex);
+            return false;
+        }
+    }
+
+    private static boolean hasAudience(@NonNull JSONObject claims, @NonNull String clientId) {
+        JSONArray audiences = claims.optJSONArray("aud");
+        if (audiences == null) {
+            return clientId.equals(claims.optString("aud"));
+        }
+        for (int i = 0; i < audiences.length(); i++) {
+            if (clientId.equals(audiences.optString(i))) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    // JCA name of JWS algorithm, null if not accepted ("none" and HMAC never are)
+    @Nullable
+    private static String signatureAlgorithm(@NonNull String alg) {
+        switch (alg) {
+            case "RS256":
+                return "SHA256withRSA";
+            case "RS384":
+                return "SHA384withRSA";
+            case "RS512":
+                return "SHA512withRSA";
+            default:
+                return null;
+        }
+    }
+
+    private static byte[] decode(@NonNull String base64Url) {
+        return Base64.decode(base64Url, Base64.URL_SAFE | Base64.NO_WRAP | Base64.NO_PADDING);
+    }
+
+    private static AuthorizationException reject(@NonNull String message) {
+        Log.e(TAG,"verify(): " + message);
+        return AuthorizationException.fromTemplate(ID_TOKEN_REJECTED_ERROR, null);
+    }
+}
@@ -17,6 +17,8 @@ package org.vaultit.mobilesso.mobilessosdk;
 
 import android.net.Uri;
 import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+import android.support.annotation.RawRes;
 
 import com.google.gson.Gson;
 import com.google.gson.GsonBuilder;
@@ -24,6 +26,8 @@ import com.google.gson.JsonSyntaxException;
 
 import org.vaultit.mobilesso.mobilessosdk.Util.GsonUriAdapter;
 
+import java.util.concurrent.TimeUnit;
+
 
 /**
  * An identity provider
@@ -41,6 +45,12 @@ import org.vaultit.mobilesso.mobilessosdk.Util.GsonUriAdapter;
  *        "com.example.virtualcard.logout://oidc_callback"
  *  - scope (OpenID scopes for application), e.g.
  *         "openid profile email vcbe_virtual_cards_post vcbe_virtual_cards_delete gluu_fido_u2f_revoke"
+ *
+ *  Optional:
+ *  - refresh-ahead margin (setRefreshAhead()), how long before access token expiration the
+ *    tokens are considered to need a refresh, default 60 seconds
+ *  - discovery document snapshot (setDiscoverySnapshot()), raw resource used on first launch
+ *    instead of waiting for the discovery endpoint
  */
 public class IdentityProvider {
 
@@ -49,12 +59,20 @@ public class IdentityProvider {
      */
     private static final int NOT_SPECIFIED = -1;
 
+    /**
+     * Default refresh-ahead margin, same as AppAuth's expiry tolerance.
+     */
+    public static final long DEFAULT_REFRESH_AHEAD_MS = 60000L;
+
     private Uri mDiscoveryEndpoint;
     private String mClientId;
     private String mClientSecret;
     private Uri mRedirectUri;
     private Uri mLogoutRedirectUri;
     private String mScope;
+    private Long mRefreshAheadMs;  // null means default
+    private transient IdpTransport mTransport;  // not serialized
+    private transient int mDiscoverySnapshot;  // not serialized, resource ids change per build
 
     public IdentityProvider(
             String discoveryEndpoint,
@@ -120,6 +138,62 @@ public class IdentityProvider {
         return mScope;
     }
 
+    /**
+     * Returns refresh-ahead margin in milliseconds.
+     */
+    public long getRefreshAheadMs() {
+        return (mRefreshAheadMs != null ? mRefreshAheadMs : DEFAULT_REFRESH_AHEAD_MS);
+    }
+
+    /**
+     * Sets how long before access token expiration getFreshSession() refreshes tokens.  A larger
+     * margin avoids tokens expiring in flight on slow networks, a smaller one avoids needless
+     * refreshes on fast networks.  Also used as the minimum lead time of proactive refresh
+     * and for scoped tokens.
+     * @param time  margin, 0 or more
+     * @param unit  time unit of time
+     */
+    public void setRefreshAhead(long time, @NonNull TimeUnit unit) {
+        Preconditions.checkArgument(time >= 0, "refresh-ahead margin must not be negative");
+        mRefreshAheadMs = unit.toMillis(time);
+    }
+
+    /**
+     * Returns transport given with setTransport(), null when the default transport is used.
+     */
+    @Nullable
+    public IdpTransport getTransport() {
+        return mTransport;
+    }
+
+    /**
+     * Sets HTTP transport for calls to this identity provider.  Not serialized.
+     * @param transport  transport, or null for the default PooledIdpTransport
+     */
+    public void setTransport(@Nullable IdpTransport transport) {
+        mTransport = transport;
+    }
+
+    /**
+     * Returns raw resource id given with setDiscoverySnapshot(), 0 if none.
+     */
+    @RawRes
+    public int getDiscoverySnapshot() {
+        return mDiscoverySnapshot;
+    }
+
+    /**
+     * Sets discovery document bundled with the application, e.g. fetched at build time with
+     * the fetchDiscoverySnapshot Gradle task.  When nothing is cached yet, initialize() uses
+     * the snapshot right away and replaces it with the live document in background.  A
+     * snapshot of another issuer or with missing endpoints is rejected and the document is
+     * fetched before initialize() completes.  Not serialized.
+     * @param resId  raw resource id of the JSON document, or 0 for none
+     */
+    public void setDiscoverySnapshot(@RawRes int resId) {
+        mDiscoverySnapshot = resId;
+    }
+
     private static boolean isSpecified(int value) {
         return value != NOT_SPECIFIED;
     }
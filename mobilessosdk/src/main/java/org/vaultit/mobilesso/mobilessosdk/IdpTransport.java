@@ -0,0 +1,33 @@
+package org.vaultit.mobilesso.mobilessosdk;
+
+
+import android.net.Uri;
+import android.support.annotation.NonNull;
+
+import java.io.IOException;
+import java.net.HttpURLConnection;
+
+/**
+ * HTTP transport used for all calls to the identity provider: discovery, code exchange,
+ * token refresh and the token refresh done before logout.
+ *
+ * The default implementation is PooledIdpTransport.  A custom transport can be given with
+ * SessionManager.setTransport() or IdentityProvider.setTransport(), e.g. to share an
+ * OkHttp connection pool with the rest of the application.
+ *
+ * The SDK calls the transport only with https URIs; other schemes are refused before.
+ */
+public interface IdpTransport {
+
+    /**
+     * Opens a connection to the identity provider.  Connect and read timeouts should be set
+     * by the transport.  The SDK always reads responses fully and closes the response stream
+     * without disconnecting, so that the connection can be reused.
+     *
+     * @param uri  identity provider endpoint
+     * @return unconnected connection
+     * @throws IOException if connection cannot be opened
+     */
+    @NonNull
+    HttpURLConnection openConnection(@NonNull Uri uri) throws IOException;
+}
@@ -0,0 +1,168 @@
+package org.vaultit.mobilesso.mobilessosdk;
+
+
+import android.net.Uri;
+import android.os.SystemClock;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+import android.support.annotation.WorkerThread;
+import android.util.Base64;
+import android.util.Log;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.math.BigInteger;
+import java.net.HttpURLConnection;
+import java.security.GeneralSecurityException;
+import java.security.KeyFactory;
+import java.security.PublicKey;
+import java.security.spec.RSAPublicKeySpec;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Signing keys of the identity provider (JSON Web Key Set from the jwks_uri of the discovery
+ * document), indexed by key id.  The key set is persisted in a store of its own, so that
+ * tokens can be verified without network after a restart, and parsed into PublicKey objects
+ * once.  It is fetched again only when a token names an unknown key id, at most once per
+ * MIN_REFETCH_INTERVAL_MS, so that tokens with made up key ids do not cause request floods.
+ *
+ * Only RSA keys are used; the SDK accepts RS256, RS384 and RS512 signatures.
+ */
+class JwksCache {
+    private static final String TAG = "JwksCache";
+
+    static final String FILE_JWKS_CACHE = "mobileSsoSdk_jwks.bin";
+    static final long MIN_REFETCH_INTERVAL_MS = TimeUnit.MINUTES.toMillis(1);
+
+    private final SessionStore mStore;
+    // parsed keys by key id, and key set URI they were parsed from
+    private Map<String,PublicKey> mKeys = null;
+    private Uri mKeysUri = null;
+    // SystemClock.elapsedRealtime() of last fetch, 0 if none in this process
+    private long mLastFetch = 0;
+
+    /**
+     * @param store  store of its own, not the session store
+     */
+    JwksCache(@NonNull SessionStore store) {
+        mStore = store;
+    }
+
+    /**
+     * Returns signing key, fetching the key set if key id is not known and the key set has
+     * not been fetched within MIN_REFETCH_INTERVAL_MS.  Fetch is done in the calling thread.
+     *
+     * @param kid  key id from token header; null matches the only key of a single key set
+     * @return key, or null if the identity provider has no such key
+     * @throws IOException  if key set is needed but cannot be fetched
+     */
+    @WorkerThread
+    @Nullable
+    synchronized PublicKey getKey(@NonNull IdpTransport transport, @NonNull Uri jwksUri,
+                                  @Nullable String kid) throws IOException {
+        boolean storeChanged = mStore.reloadIfChanged();
+        if (storeChanged || !jwksUri.equals(mKeysUri)) {
+            mKeys = parse(mStore.getString(jwksUri.toString()));
+            mKeysUri = jwksUri;
+        }
+        PublicKey key = find(kid);
+        if (key != null) {
+            return key;
+        }
+        long now = SystemClock.elapsedRealtime();
+        if (mLastFetch != 0 && now - mLastFetch < MIN_REFETCH_INTERVAL_MS) {
+            Log.d(TAG,"getKey(): unknown kid=" + kid + ", key set fetched recently");
+            return null;
+        }
+        mLastFetch = now;
+        String json = fetch(transport, jwksUri);
+        mKeys = parse(json);
+        mStore.edit().putString(jwksUri.toString(), json).commit();
+        return find(kid);
+    }
+
+    synchronized void clear() {
+        mStore.edit().clear().commit();
+        mKeys = null;
+        mKeysUri = null;
+        mLastFetch = 0;
+    }
+
+    @Nullable
+    private PublicKey find(@Nullable String kid) {
+        if (kid == null) {
+            return (mKeys.size() == 1 ? mKeys.values().iterator().next() : null);
+        }
+        return mKeys.get(kid);
+    }
+
+    /**
+     * Parses RSA keys of a key set; other keys and malformed keys are skipped.
+     *
+     * @param json  key set, null for none
+     * @return keys by key id, keys without id under ""
+     */
+    @NonNull
+    static Map<String,PublicKey> parse(@Nullable String json) {
+        Map<String,PublicKey> keys = new HashMap<>();
+        if (json == null) {
+            return keys;
+        }
+        try {
+            JSONArray array = new JSONObject(json).getJSONArray("keys");
+            KeyFactory factory = KeyFactory.getInstance("RSA");
+            for (int i = 0; i < array.length(); i++) {
+                JSONObject jwk = array.getJSONObject(i);
+                String use = jwk.optString("use", "sig");
+                if (!"RSA".equals(jwk.optString("kty")) || !"sig".equals(use)) {
+                    continue;
+                }
+                try {
+                    keys.put(jwk.optString("kid", ""), factory.generatePublic(
+                            new RSAPublicKeySpec(decodeUnsigned(jwk.getString("n")),
+                                    decodeUnsigned(jwk.getString("e")))));
+                } catch (JSONException | IllegalArgumentException |
+                        GeneralSecurityException ex) {
+                    Log.e(TAG,"parse(): skipping malformed key " + jwk.optString("kid"), ex);
+                }
+            }
+        } catch (JSONException | GeneralSecurityException ex) {
+            Log.e(TAG,"parse(): malformed key set", ex);
+        }
+        return keys;
+    }
+
+    // base64url encoded big endian unsigned integer
+    private static BigInteger decodeUnsigned(@NonNull String value) {
+        return new BigInteger(1, Base64.decode(value, Base64.URL_SAFE | Base64.NO_WRAP));
+    }
+
+    @WorkerThread
+    @NonNull
+    private static String fetch(@NonNull IdpTransport transport, @NonNull Uri jwksUri)
+            throws IOException {
+        Log.d(TAG,"fetch(): " + jwksUri);
+        HttpURLConnection conn = TransportConnectionBuilder.openHttpsConnection(transport,
+                jwksUri);
+        InputStream is = null;
+        try {
+            conn.setRequestMethod("GET");
+            conn.setRequestProperty("Accept", "application/json");
+            int status = conn.getResponseCode();
+            if (status != HttpURLConnection.HTTP_OK) {
+                is = conn.getErrorStream();
+                throw new IOException("key set request failed, status=" + status);
+            }
+            is = conn.getInputStream();
+            return TokenEndpointClient.readStream(is);
+        } finally {
+            PooledIdpTransport.release(is);
+        }
+    }
+}
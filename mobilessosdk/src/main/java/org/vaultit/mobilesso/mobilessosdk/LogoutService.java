@@ -79,7 +79,7 @@ class LogoutService {
 
         mData.sessionReset();  // removes only tokens, full reset done later
         mData.setLogoutResponseIntent(postLogoutCallbackIntent);
-        mData.saveData();
+        mData.flush();  // logout response may arrive in a new process
 
 
         Intent newCustomTabsIntent = customTabsIntent.intent;
@@ -0,0 +1,97 @@
+package org.vaultit.mobilesso.mobilessosdk;
+
+
+/**
+ * Snapshot of session state persistence statistics, see
+ * SessionManager.getPersistenceStatistics().  Shows how much each save writes, and how
+ * often session state is loaded and decoded.
+ *
+ * Only changed fields are serialized, but the session file is rewritten as a whole, so bytes
+ * written are the size of the file after each save.
+ */
+public class PersistenceStatistics {
+    private final long saves;
+    private final long fieldsWritten;
+    private final long bytesWritten;
+    private final int lastFieldsWritten;
+    private final int lastBytesWritten;
+    private final long loads;
+    private final long decodes;
+
+    PersistenceStatistics(long saves, long fieldsWritten, long bytesWritten,
+                          int lastFieldsWritten, int lastBytesWritten, long loads, long decodes) {
+        this.saves = saves;
+        this.fieldsWritten = fieldsWritten;
+        this.bytesWritten = bytesWritten;
+        this.lastFieldsWritten = lastFieldsWritten;
+        this.lastBytesWritten = lastBytesWritten;
+        this.loads = loads;
+        this.decodes = decodes;
+    }
+
+    /**
+     * Number of saves which wrote at least one field.
+     */
+    public long getSaves() {
+        return saves;
+    }
+
+    /**
+     * Total number of fields serialized and written.
+     */
+    public long getFieldsWritten() {
+        return fieldsWritten;
+    }
+
+    /**
+     * Total number of bytes written to the session file.
+     */
+    public long getBytesWritten() {
+        return bytesWritten;
+    }
+
+    /**
+     * Number of fields written by the latest save.
+     */
+    public int getLastFieldsWritten() {
+        return lastFieldsWritten;
+    }
+
+    /**
+     * Number of bytes written to the session file by the latest save.
+     */
+    public int getLastBytesWritten() {
+        return lastBytesWritten;
+    }
+
+    /**
+     * Number of times session state has been loaded from disk in this process: once at start,
+     * and again when another process has saved newer state.
+     */
+    public long getLoads() {
+        return loads;
+    }
+
+    /**
+     * Number of session components (e.g. AuthState, ID token payload) decoded from their
+     * persisted form.  Grows when components are decoded again after memory has been trimmed.
+     */
+    public long getDecodes() {
+        return decodes;
+    }
+
+    /**
+     * Average number of bytes per save, 0 if nothing has been saved.
+     */
+    public double getAverageBytesPerSave() {
+        return saves > 0 ? (double) bytesWritten / saves : 0;
+    }
+
+    @Override
+    public String toString() {
+        return "saves=" + saves + " fieldsWritten=" + fieldsWritten + " bytesWritten=" +
+                bytesWritten + " lastFieldsWritten=" + lastFieldsWritten +
+                " lastBytesWritten=" + lastBytesWritten + " loads=" + loads +
+                " decodes=" + decodes;
+    }
+}
@@ -0,0 +1,95 @@
+package org.vaultit.mobilesso.mobilessosdk;
+
+
+import android.net.Uri;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+import android.util.Log;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+
+/**
+ * Default IdpTransport.  Keeps connections to the identity provider alive and pooled, so that
+ * DNS, TCP and TLS setup is paid once per process instead of once per request.
+ *
+ *  - uses the platform HttpURLConnection keep-alive pool; connections are returned to
+ *    the pool when the response has been read fully and its stream closed (see release())
+ *  - TLS sessions are resumed through the default SSLContext's client session cache
+ */
+public class PooledIdpTransport implements IdpTransport {
+    private static final String TAG = "PooledIdpTransport";
+
+    public static final int DEFAULT_CONNECT_TIMEOUT_MS = 15000;
+    public static final int DEFAULT_READ_TIMEOUT_MS = 10000;
+
+    private static final int DRAIN_BUFFER_SIZE = 512;
+
+    private final int mConnectTimeoutMs;
+    private final int mReadTimeoutMs;
+
+    /**
+     * Creates transport with default timeouts.
+     */
+    public PooledIdpTransport() {
+        this(DEFAULT_CONNECT_TIMEOUT_MS, DEFAULT_READ_TIMEOUT_MS);
+    }
+
+    /**
+     * @param connectTimeoutMs  connect timeout (including TLS handshake) in milliseconds
+     * @param readTimeoutMs     read timeout in milliseconds
+     */
+    public PooledIdpTransport(int connectTimeoutMs, int readTimeoutMs) {
+        Preconditions.checkArgument(connectTimeoutMs > 0 && readTimeoutMs > 0,
+                "timeouts must be positive");
+        mConnectTimeoutMs = connectTimeoutMs;
+        mReadTimeoutMs = readTimeoutMs;
+    }
+
+    public int getConnectTimeoutMs() {
+        return mConnectTimeoutMs;
+    }
+
+    public int getReadTimeoutMs() {
+        return mReadTimeoutMs;
+    }
+
+    @NonNull
+    @Override
+    public HttpURLConnection openConnection(@NonNull Uri uri) throws IOException {
+        HttpURLConnection conn = (HttpURLConnection) new URL(uri.toString()).openConnection();
+        conn.setConnectTimeout(mConnectTimeoutMs);
+        conn.setReadTimeout(mReadTimeoutMs);
+        conn.setInstanceFollowRedirects(false);
+        conn.setUseCaches(false);
+        conn.setRequestProperty("Connection", "keep-alive");
+        return conn;
+    }
+
+    /**
+     * Reads rest of the response and closes stream, which returns the connection to the
+     * keep-alive pool.  Never call HttpURLConnection.disconnect() for pooled connections.
+     *
+     * @param stream  response stream, may be null
+     */
+    public static void release(@Nullable InputStream stream) {
+        if (stream == null) {
+            return;
+        }
+        try {
+            byte[] buffer = new byte[DRAIN_BUFFER_SIZE];
+            //noinspection StatementWithEmptyBody
+            while (stream.read(buffer) != -1) {
+            }
+        } catch (IOException ex) {
+            Log.d(TAG,"release(): failed to drain response");
+        }
+        try {
+            stream.close();
+        } catch (IOException ex) {
+            Log.d(TAG,"release(): failed to close response");
+        }
+    }
+}
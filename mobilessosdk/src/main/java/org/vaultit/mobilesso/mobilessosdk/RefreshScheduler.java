@@ -0,0 +1,182 @@
+package org.vaultit.mobilesso.mobilessosdk;
+
+
+import android.content.Context;
+import android.provider.Settings;
+import android.support.annotation.NonNull;
+import android.util.Log;
+
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Refreshes tokens in the background shortly before the access token expires, so that
+ * getFreshSession() can return the session from memory in the common case.
+ *
+ *  - refresh is attempted at: access token expiration - lead time - per device jitter
+ *  - lead time is at least the identity provider's refresh-ahead margin, so that the proactive
+ *    refresh happens before getFreshSession() would need one
+ *  - the jitter is stable per device, so that a fleet of devices does not refresh in sync
+ *  - attempts are at least half of the access token lifetime apart, so that a lead time as
+ *    long as the lifetime does not make refreshes run back to back
+ *  - scheduler is paused while there are no session listeners (ie. no started activities,
+ *    the app is in background) and resumed when a listener is added
+ */
+class RefreshScheduler {
+    private static final String TAG = "RefreshScheduler";
+
+    // delay before next attempt if refresh did not extend the access token lifetime
+    private static final long RETRY_DELAY_MS = 30000L;
+
+    private final Data mData;
+    private final Runnable mRefreshAction;
+    private final long mLeadTimeMs;
+    private final long mJitterMs;
+    private final ScheduledExecutorService mExecutor;
+    private ScheduledFuture<?> mPending = null;
+    private boolean mRunning = false;
+    private Long mLastAttemptExpiration = null;
+    // System.currentTimeMillis() of the last refresh attempt, 0 if none
+    private long mLastAttemptTime = 0;
+
+    /**
+     * @param appContext     application context, used for computing per device jitter
+     * @param data           session data
+     * @param refreshAction  performs the refresh, called on the scheduler thread
+     * @param leadTimeMs     how long before access token expiration to refresh
+     * @param maxJitterMs    maximum per device jitter added to lead time
+     */
+    RefreshScheduler(@NonNull Context appContext, @NonNull Data data,
+                     @NonNull Runnable refreshAction, long leadTimeMs, long maxJitterMs) {
+        mData = data;
+        mRefreshAction = refreshAction;
+        mLeadTimeMs = Math.max(0, leadTimeMs);
+        mJitterMs = computeDeviceJitter(appContext, Math.max(0, maxJitterMs));
+        mExecutor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(@NonNull Runnable r) {
+                Thread thread = new Thread(r, "MobileSsoRefresh");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        Log.d(TAG,"constructor: leadTime=" + mLeadTimeMs + " jitter=" + mJitterMs);
+    }
+
+    // jitter is derived from the device id so that it stays the same for the device
+    private static long computeDeviceJitter(Context appContext, long maxJitterMs) {
+        if (maxJitterMs == 0) {
+            return 0;
+        }
+        String deviceId = Settings.Secure.getString(appContext.getContentResolver(),
+                Settings.Secure.ANDROID_ID);
+        long hash = (deviceId != null ? deviceId.hashCode() : System.identityHashCode(appContext));
+        return ((hash % (maxJitterMs + 1)) + (maxJitterMs + 1)) % (maxJitterMs + 1);
+    }
+
+    /**
+     * Starts (or resumes) scheduling.
+     */
+    synchronized void start() {
+        if (mExecutor.isShutdown()) {
+            return;
+        }
+        mRunning = true;
+        schedule();
+    }
+
+    /**
+     * Pauses scheduling, start() resumes.
+     */
+    synchronized void pause() {
+        Log.d(TAG,"pause()");
+        mRunning = false;
+        cancelPending();
+    }
+
+    /**
+     * Stops scheduler permanently.
+     */
+    synchronized void stop() {
+        Log.d(TAG,"stop()");
+        mRunning = false;
+        cancelPending();
+        mExecutor.shutdownNow();
+    }
+
+    /**
+     * Recomputes refresh time, e.g. after tokens have been refreshed.
+     */
+    synchronized void reschedule() {
+        if (mRunning) {
+            schedule();
+        }
+    }
+
+    // refresh-ahead margin may change when SessionManager is created with a new IdentityProvider
+    private long getLeadTimeMs() {
+        return Math.max(mLeadTimeMs, mData.getRefreshAheadMs());
+    }
+
+    private void cancelPending() {
+        if (mPending != null) {
+            mPending.cancel(false);
+            mPending = null;
+        }
+    }
+
+    private void schedule() {
+        cancelPending();
+        Long expiration = mData.getAuthState().getAccessTokenExpirationTime();
+        if (mData.getAuthState().getRefreshToken() == null || expiration == null) {
+            Log.d(TAG,"schedule(): no refreshable session, not scheduling");
+            return;
+        }
+        long now = System.currentTimeMillis();
+        long delay = expiration - getLeadTimeMs() - mJitterMs - now;
+        if (expiration.equals(mLastAttemptExpiration)) {
+            // previous attempt did not produce new tokens, don't retry in a tight loop
+            delay = Math.max(delay, RETRY_DELAY_MS);
+        } else if (mLastAttemptTime != 0) {
+            // lifetime of the tokens the last attempt produced
+            long minInterval = Math.max(RETRY_DELAY_MS, (expiration - mLastAttemptTime) / 2);
+            delay = Math.max(delay, mLastAttemptTime + minInterval - now);
+        }
+        delay = Math.max(delay, 0);
+        Log.d(TAG,"schedule(): refresh in " + delay + " ms");
+        mPending = mExecutor.schedule(new Runnable() {
+            @Override
+            public void run() {
+                onTimer();
+            }
+        }, delay, TimeUnit.MILLISECONDS);
+    }
+
+    private void onTimer() {
+        synchronized (this) {
+            mPending = null;
+            if (!mRunning) {
+                return;
+            }
+            if (mData.getListeners().isEmpty()) {
+                Log.d(TAG,"onTimer(): no listeners, pausing");
+                mRunning = false;
+                return;
+            }
+            Long expiration = mData.getAuthState().getAccessTokenExpirationTime();
+            if (expiration == null ||
+                    expiration - getLeadTimeMs() - mJitterMs > System.currentTimeMillis()) {
+                // tokens were refreshed meanwhile by someone else
+                schedule();
+                return;
+            }
+            mLastAttemptExpiration = expiration;
+            mLastAttemptTime = System.currentTimeMillis();
+        }
+        Log.d(TAG,"onTimer(): refreshing tokens ahead of expiration");
+        mRefreshAction.run();
+    }
+}
@@ -0,0 +1,101 @@
+package org.vaultit.mobilesso.mobilessosdk;
+
+
+import android.support.annotation.NonNull;
+
+import net.openid.appauth.AuthorizationException;
+
+import java.util.Random;
+
+import static org.vaultit.mobilesso.mobilessosdk.SessionError.ErrorCode.SESSION_REFRESH_NETWORK_ERROR;
+
+/**
+ * Retry policy for token refreshes.  Only network errors where the connection to the token
+ * endpoint could not be set up are retried, since the request cannot have reached the
+ * identity provider.  Read timeouts and server errors may come after the refresh token has
+ * already been rotated, and a retry would send the spent token.  The delay before each
+ * retry is capped exponential backoff with full jitter:
+ *
+ *      delay = random(0, min(maxDelay, baseDelay * 2^retry))
+ *
+ * Set with SessionManager.setRetryPolicy().
+ */
+public class RetryPolicy {
+    /**
+     * Policy that never retries.
+     */
+    public static final RetryPolicy NO_RETRIES = new RetryPolicy(1, 0, 0);
+
+    /**
+     * Default policy: 3 attempts, 500 ms base delay, at most 8 s between attempts.
+     */
+    public static final RetryPolicy DEFAULT = new RetryPolicy(3, 500, 8000);
+
+    private static final int MAX_SHIFT = 30;
+
+    private final int maxAttempts;
+    private final long baseDelayMs;
+    private final long maxDelayMs;
+    private final Random random = new Random();
+
+    /**
+     * @param maxAttempts  maximum number of attempts including the first one, at least 1
+     * @param baseDelayMs  delay cap for the first retry in milliseconds
+     * @param maxDelayMs   maximum delay between attempts in milliseconds
+     */
+    public RetryPolicy(int maxAttempts, long baseDelayMs, long maxDelayMs) {
+        Preconditions.checkArgument(maxAttempts >= 1, "maxAttempts must be at least 1");
+        Preconditions.checkArgument(baseDelayMs >= 0 && maxDelayMs >= 0,
+                "delays must not be negative");
+        this.maxAttempts = maxAttempts;
+        this.baseDelayMs = baseDelayMs;
+        this.maxDelayMs = maxDelayMs;
+    }
+
+    public int getMaxAttempts() {
+        return maxAttempts;
+    }
+
+    public long getBaseDelayMs() {
+        return baseDelayMs;
+    }
+
+    public long getMaxDelayMs() {
+        return maxDelayMs;
+    }
+
+    /**
+     * Is error transient and the request not sent, ie. safe to retry?
+     */
+    public boolean isRetryable(@NonNull AuthorizationException ex) {
+        return SessionError.getSessionRefreshErrorCode(ex) == SESSION_REFRESH_NETWORK_ERROR &&
+                ex.getCause() instanceof TokenEndpointClient.NotSentException;
+    }
+
+    /**
+     * Maximum delay before given retry, without jitter.
+     * @param retry  0 for the first retry
+     */
+    long getDelayCapMs(int retry) {
+        int shift = Math.min(Math.max(retry, 0), MAX_SHIFT);
+        long cap = baseDelayMs << shift;
+        if (cap < 0 || cap > maxDelayMs || (shift > 0 && (cap >> shift) != baseDelayMs)) {
+            cap = maxDelayMs;  // overflow or over max
+        }
+        return cap;
+    }
+
+    /**
+     * Delay before given retry with full jitter.
+     * @param retry  0 for the first retry
+     */
+    long getDelayMs(int retry) {
+        long cap = getDelayCapMs(retry);
+        if (cap == 0) {
+            return 0;
+        }
+        synchronized (random) {
+            return (long) (random.nextDouble() * cap);
+        }
+    }
+}
@@ -0,0 +1,120 @@
+package org.vaultit.mobilesso.mobilessosdk;
+
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+import android.text.TextUtils;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.Set;
+import java.util.TreeSet;
+
+/**
+ * Access token minted for a narrower scope set than the session's own scope, see
+ * SessionManager.getFreshSession(scopes, callback).
+ */
+public class ScopedToken {
+    private static final String KEY_SCOPE = "scope";
+    private static final String KEY_ACCESS_TOKEN = "accessToken";
+    private static final String KEY_TOKEN_TYPE = "tokenType";
+    private static final String KEY_EXPIRATION_TIME = "expirationTime";
+
+    private final String mScope;
+    private final String mAccessToken;
+    private final String mTokenType;
+    private final Long mExpirationTime;
+
+    ScopedToken(@NonNull String scope, @NonNull String accessToken, @Nullable String tokenType,
+                @Nullable Long expirationTime) {
+        mScope = scope;
+        mAccessToken = accessToken;
+        mTokenType = tokenType;
+        mExpirationTime = expirationTime;
+    }
+
+    /**
+     * Normalized scope string (sorted, space separated), used as the cache key.
+     */
+    @NonNull
+    public String getScope() {
+        return mScope;
+    }
+
+    @NonNull
+    public Set<String> getScopeSet() {
+        return Collections.unmodifiableSet(
+                new LinkedHashSet<>(Arrays.asList(TextUtils.split(mScope, " "))));
+    }
+
+    @NonNull
+    public String getAccessToken() {
+        return mAccessToken;
+    }
+
+    @Nullable
+    public String getTokenType() {
+        return mTokenType;
+    }
+
+    /**
+     * Expiration time in milliseconds since epoch, null if the token endpoint did not tell.
+     */
+    @Nullable
+    public Long getExpirationTime() {
+        return mExpirationTime;
+    }
+
+    public boolean isExpired() {
+        return !isFresh(0);
+    }
+
+    // true if token is valid for at least minValidityMs; tokens without expiration time
+    // are considered fresh
+    boolean isFresh(long minValidityMs) {
+        return mExpirationTime == null ||
+                mExpirationTime - minValidityMs > System.currentTimeMillis();
+    }
+
+    /**
+     * Returns cache key for scope set: scopes sorted and joined with space, so that the
+     * same set always maps to the same key.
+     */
+    @NonNull
+    static String scopeKey(@NonNull Iterable<String> scopes) {
+        Set<String> sorted = new TreeSet<>();
+        for (String scope : scopes) {
+            if (scope != null && !scope.trim().isEmpty()) {
+                sorted.add(scope.trim());
+            }
+        }
+        Preconditions.checkArgument(!sorted.isEmpty(), "scopes must not be empty");
+        return TextUtils.join(" ", sorted);
+    }
+
+    @NonNull
+    JSONObject toJson() throws JSONException {
+        JSONObject json = new JSONObject();
+        json.put(KEY_SCOPE, mScope);
+        json.put(KEY_ACCESS_TOKEN, mAccessToken);
+        if (mTokenType != null) {
+            json.put(KEY_TOKEN_TYPE, mTokenType);
+        }
+        if (mExpirationTime != null) {
+            json.put(KEY_EXPIRATION_TIME, mExpirationTime.longValue());
+        }
+        return json;
+    }
+
+    @NonNull
+    static ScopedToken fromJson(@NonNull JSONObject json) throws JSONException {
+        return new ScopedToken(json.getString(KEY_SCOPE),
+                json.getString(KEY_ACCESS_TOKEN),
+                json.has(KEY_TOKEN_TYPE) ? json.getString(KEY_TOKEN_TYPE) : null,
+                json.has(KEY_EXPIRATION_TIME) ? json.getLong(KEY_EXPIRATION_TIME) : null);
+    }
+}
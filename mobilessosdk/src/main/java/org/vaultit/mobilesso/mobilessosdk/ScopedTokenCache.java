@@ -0,0 +1,107 @@
+package org.vaultit.mobilesso.mobilessosdk;
+
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+import android.util.Log;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Bounded LRU cache of down-scoped access tokens, keyed by normalized scope set.  Persisted
+ * by Data as JSON, least recently used entry first, so that the order survives a restart.
+ */
+class ScopedTokenCache {
+    private static final String TAG = "ScopedTokenCache";
+
+    static final int DEFAULT_MAX_ENTRIES = 8;
+
+    private final int mMaxEntries;
+    private final LinkedHashMap<String, ScopedToken> mTokens;
+
+    ScopedTokenCache() {
+        this(DEFAULT_MAX_ENTRIES);
+    }
+
+    ScopedTokenCache(int maxEntries) {
+        Preconditions.checkArgument(maxEntries > 0, "maxEntries must be positive");
+        mMaxEntries = maxEntries;
+        mTokens = new LinkedHashMap<String, ScopedToken>(maxEntries + 1, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, ScopedToken> eldest) {
+                return size() > mMaxEntries;
+            }
+        };
+    }
+
+    /**
+     * Returns cached token for scope key, if valid for at least minValidityMs.  Expired
+     * tokens are dropped.
+     */
+    @Nullable
+    synchronized ScopedToken get(@NonNull String scopeKey, long minValidityMs) {
+        ScopedToken token = mTokens.get(scopeKey);
+        if (token == null) {
+            return null;
+        }
+        if (token.isExpired()) {
+            mTokens.remove(scopeKey);
+            return null;
+        }
+        return token.isFresh(minValidityMs) ? token : null;
+    }
+
+    synchronized void put(@NonNull ScopedToken token) {
+        mTokens.put(token.getScope(), token);
+    }
+
+    synchronized void clear() {
+        mTokens.clear();
+    }
+
+    synchronized int size() {
+        return mTokens.size();
+    }
+
+    synchronized boolean isEmpty() {
+        return mTokens.isEmpty();
+    }
+
+    @NonNull
+    synchronized String serializeToJson() {
+        JSONArray array = new JSONArray();
+        Iterator<ScopedToken> it = mTokens.values().iterator();
+        while (it.hasNext()) {
+            ScopedToken token = it.next();
+            if (token.isExpired()) {
+                it.remove();
+                continue;
+            }
+            try {
+                array.put(token.toJson());
+            } catch (JSONException ex) {
+                Log.e(TAG,"serializeToJson(): failed to serialize token", ex);
+            }
+        }
+        return array.toString();
+    }
+
+    /**
+     * Replaces contents with tokens serialized with serializeToJson().
+     */
+    synchronized void deserializeFromJson(@NonNull String json) throws JSONException {
+        JSONArray array = new JSONArray(json);
+        mTokens.clear();
+        for (int i = 0; i < array.length(); i++) {
+            ScopedToken token = ScopedToken.fromJson(array.getJSONObject(i));
+            if (!token.isExpired()) {
+                mTokens.put(token.getScope(), token);
+            }
+        }
+    }
+}
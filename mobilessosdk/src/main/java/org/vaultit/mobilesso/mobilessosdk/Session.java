@@ -6,21 +6,22 @@ import android.support.annotation.NonNull;
 import android.util.Log;
 
 import net.openid.appauth.AuthState;
+import net.openid.appauth.AuthorizationServiceConfiguration;
 
 import org.json.JSONException;
 import org.json.JSONObject;
 
-import java.util.Date;
-import java.util.Objects;
-
 import static org.vaultit.mobilesso.mobilessosdk.Preconditions.checkNotEmpty;
 
-// Session class reflects ongoing state of session, not just a snapshot
+// Session class reflects ongoing state of session, not just a snapshot; getters read the
+// latest SessionSnapshot without locking, getSnapshot() pins one
 public class Session {
     private static final String TAG = "Session";
-    private static final Long clockSkewTolerance_ms = 120000L;
+    private static final long clockSkewTolerance_ms = SessionSnapshot.CLOCK_SKEW_TOLERANCE_MS;
     private Data mData = null;
     private Context mContext = null;
+    // snapshot at creation, for equals() and hashCode() which must not follow the session
+    private SessionSnapshot mCreatedSnapshot = null;
 
     public enum SessionStatus {
         NO_SESSION,       // no tokens
@@ -35,32 +36,44 @@ public class Session {
     public Session(@NonNull Context context) {
         this.mData = Data.getInstance(context.getApplicationContext());
         this.mContext = context;
+        this.mCreatedSnapshot = mData.getSnapshot();
+    }
+
+    /**
+     * Returns current state of the session as an immutable snapshot, e.g. for reading tokens
+     * and status which belong together during a request.  Takes no lock.
+     */
+    @NonNull
+    public SessionSnapshot getSnapshot() {
+        return mData.getSnapshot();
     }
+
     /**
      * Returns true if successfully authorized.  This means that
      * at least either an access token or an ID token have been retrieved.
      */
     public boolean isAuthorized() {
-        return mData.getAuthState().isAuthorized();
+        return mData.getSnapshot().isAuthorized();
     }
 
     public boolean isOnline() {
         return mData.getNetworkAvailable();
     }
 
+    /**
+     * Returns access token of the last token response.  Cheap: takes no lock and allocates
+     * nothing unless the session has changed.
+     */
     public String getAccessToken() {
-        return (mData.getAuthState().getLastTokenResponse() != null ?
-        mData.getAuthState().getLastTokenResponse().accessToken : null);
+        return mData.getSnapshot().getAccessToken();
     }
 
     public String getRefreshToken() {
-        return (mData.getAuthState().getLastTokenResponse() != null ?
-                mData.getAuthState().getLastTokenResponse().refreshToken : null);
+        return mData.getSnapshot().getRefreshToken();
     }
 
     public String getIdToken() {
-        return (mData.getAuthState().getLastTokenResponse() != null ?
-                mData.getAuthState().getLastTokenResponse().idToken : null);
+        return mData.getSnapshot().getIdToken();
     }
 
     /**
@@ -68,15 +81,17 @@ public class Session {
      * @return
      */
     public IdTokenPayload getIdTokenPayload() {
-
-        return mData.getIdTokenPayload();
+        return mData.getSnapshot().getIdTokenPayload();
     }
 
     public String getScope() {
-        return (mData.getAuthState().getLastTokenResponse() != null ?
-                mData.getAuthState().getLastTokenResponse().scope : null);
+        return mData.getSnapshot().getScope();
     }
 
+    /**
+     * Returns live AuthState, which must not be modified; unlike the other getters, this takes
+     * the session lock.
+     */
     public AuthState getAuthState() {
         return mData.getAuthState();
     }
@@ -86,24 +101,13 @@ public class Session {
      * EXPIRED, then refresh token is expired, but browser's SSO session might still be valid,
      * in which case a new authentication is not needed, ie. perform session check.
      *
+     * Cheap enough to call before every request: takes no lock and allocates nothing unless
+     * the session has changed.
+     *
      * @return  returns one of: VALID | EXPIRED | NO_SESSION
      */
     public SessionStatus getStatus() {
-        if (!mData.getAuthState().isAuthorized() || getIdTokenPayload() == null
-                || mData.getAuthState().getAccessToken() == null) {
-            return SessionStatus.NO_SESSION;
-        }
-        Date expiration = getIdTokenPayload().getExpirationTime();
-        if (expiration != null) {
-            Date now = new Date();
-            if (now.getTime() > (expiration.getTime() + clockSkewTolerance_ms)) {
-                return SessionStatus.EXPIRED;
-            } else {
-                return SessionStatus.VALID;
-            }
-        } else {
-            return SessionStatus.NO_SESSION;
-        }
+        return mData.getSnapshot().getStatus();
     }
 
     boolean validate() {
@@ -113,13 +117,23 @@ public class Session {
                     (idTokenPayload != null ? idTokenPayload.isValid() : "null"));
             return false;
         }
-        // TODO:  add checks for issuerURL ("iss") and clientID ("aud")
-        Date now = new Date();
-        boolean validToken = now.getTime() < (idTokenPayload.getExpirationTime().getTime() +
-                clockSkewTolerance_ms) &&
-                now.getTime() > ((idTokenPayload.getIssuedAtTime().getTime()) -
-                clockSkewTolerance_ms);
-        Log.d(TAG,"validate(): exp=" + idTokenPayload.getExpirationTime());
+        // signature is verified when the token is received, see IdTokenVerifier
+        AuthorizationServiceConfiguration config =
+                mData.getAuthState().getAuthorizationServiceConfiguration();
+        if (config != null && config.discoveryDoc != null &&
+                !config.discoveryDoc.getIssuer().equals(idTokenPayload.iss)) {
+            Log.e(TAG,"validate(): failed, iss=" + idTokenPayload.iss);
+            return false;
+        }
+        if (mData.getIdp() != null &&
+                !idTokenPayload.hasAudience(mData.getIdp().getClientId())) {
+            Log.e(TAG,"validate(): failed, aud=" + idTokenPayload.getAudiences());
+            return false;
+        }
+        long now = System.currentTimeMillis();
+        boolean validToken = now < idTokenPayload.exp * 1000 + clockSkewTolerance_ms &&
+                now > idTokenPayload.iat * 1000 - clockSkewTolerance_ms;
+        Log.d(TAG,"validate(): exp=" + idTokenPayload.exp);
         return validToken;
     }
 
@@ -134,6 +148,12 @@ public class Session {
         return mData.getAuthState().jsonSerialize().toString();
     }
 
+    /**
+     * Sessions are equal if they had the same tokens when they were created.  Compares the
+     * token fingerprints of the snapshots taken by the constructors, so the hash code of a
+     * session does not change when the session is refreshed.  To compare the current state,
+     * compare getSnapshot() results.
+     */
     @Override
     public boolean equals(Object obj) {
         if (obj == this) {
@@ -143,12 +163,11 @@ public class Session {
             return false;
         }
         Session other = (Session) obj;
-        return Objects.equals(this.getAccessToken(),other.getAccessToken()) &&
-               Objects.equals(this.getIdToken(),other.getIdToken()) &&
-               Objects.equals(this.getRefreshToken(),other.getRefreshToken()) &&
-               Objects.equals(this.jsonSerializeString(),other.jsonSerializeString());
+        return mCreatedSnapshot.equals(other.mCreatedSnapshot);
     }
 
-    // TODO : add hash()
+    @Override
+    public int hashCode() {
+        return mCreatedSnapshot.hashCode();
+    }
 }
-
@@ -17,9 +17,12 @@ import java.util.Objects;
 import static net.openid.appauth.AuthorizationException.TYPE_OAUTH_AUTHORIZATION_ERROR;
 import static net.openid.appauth.AuthorizationException.TYPE_OAUTH_TOKEN_ERROR;
 import static org.vaultit.mobilesso.mobilessosdk.Preconditions.checkNotEmpty;
+import static org.vaultit.mobilesso.mobilessosdk.SessionError.ErrorCode.AUTHORIZATION_ID_TOKEN_VALIDATE_ERROR;
 import static org.vaultit.mobilesso.mobilessosdk.SessionError.ErrorCode.AUTHORIZATION_NETWORK_ERROR;
 import static org.vaultit.mobilesso.mobilessosdk.SessionError.ErrorCode.AUTHORIZATION_OATH_ERROR;
 import static org.vaultit.mobilesso.mobilessosdk.SessionError.ErrorCode.AUTHORIZATION_SERVER_ERROR;
+import static org.vaultit.mobilesso.mobilessosdk.SessionError.ErrorCode.SESSION_REFRESH_CIRCUIT_OPEN_ERROR;
+import static org.vaultit.mobilesso.mobilessosdk.SessionError.ErrorCode.SESSION_REFRESH_ID_TOKEN_VALIDATE_ERROR;
 import static org.vaultit.mobilesso.mobilessosdk.SessionError.ErrorCode.SESSION_REFRESH_NETWORK_ERROR;
 import static org.vaultit.mobilesso.mobilessosdk.SessionError.ErrorCode.SESSION_REFRESH_OAUTH_ERROR;
 import static org.vaultit.mobilesso.mobilessosdk.SessionError.ErrorCode.SESSION_REFRESH_SERVER_ERROR;
@@ -92,6 +95,16 @@ public class SessionError {
         // Server returned an error while refreshing the session. This might indicate a server issue.
         SESSION_REFRESH_SERVER_ERROR,
 
+        // Session was not available within the given timeout (blocking and future based calls).
+        SESSION_REFRESH_TIMEOUT_ERROR,
+
+        // Token endpoint has failed repeatedly, refresh not attempted until cool-down has passed.
+        // See SessionManager.getCircuitBreaker().
+        SESSION_REFRESH_CIRCUIT_OPEN_ERROR,
+
+        // The ID token received in refresh did not validate (signature, issuer or audience).
+        SESSION_REFRESH_ID_TOKEN_VALIDATE_ERROR,
+
         // The service configuration did not contain an URL for ending the session.
         LOGOUT_ERROR_NO_END_SESSION_URL_ERROR,
 
@@ -127,7 +140,14 @@ public class SessionError {
 
     // prioritizes code over type
     static ErrorCode getErrorCode(AuthorizationException ex, String type) {
-        if (ex.code == GeneralErrors.SERVER_ERROR.code ||
+        if (CircuitBreaker.isCircuitOpenError(ex) && type.equals("refresh")) {
+            return SESSION_REFRESH_CIRCUIT_OPEN_ERROR;
+        } else if (SessionManager.isRefreshTimeoutError(ex) && type.equals("refresh")) {
+            return SESSION_REFRESH_TIMEOUT_ERROR;
+        } else if (IdTokenVerifier.isIdTokenRejectedError(ex)) {
+            return (type.equals("refresh") ? SESSION_REFRESH_ID_TOKEN_VALIDATE_ERROR :
+                    AUTHORIZATION_ID_TOKEN_VALIDATE_ERROR);
+        } else if (ex.code == GeneralErrors.SERVER_ERROR.code ||
                 ex.code == AuthorizationRequestErrors.SERVER_ERROR.code ||
                 ex.code == AuthorizationRequestErrors.TEMPORARILY_UNAVAILABLE.code) {
             return (type.equals("refresh") ? SESSION_REFRESH_SERVER_ERROR :
@@ -217,6 +237,12 @@ public class SessionError {
             return "SESSION_REFRESH_NETWORK_ERROR";
         case SESSION_REFRESH_SERVER_ERROR:
             return "SESSION_REFRESH_SERVER_ERROR";
+        case SESSION_REFRESH_TIMEOUT_ERROR:
+            return "SESSION_REFRESH_TIMEOUT_ERROR";
+        case SESSION_REFRESH_CIRCUIT_OPEN_ERROR:
+            return "SESSION_REFRESH_CIRCUIT_OPEN_ERROR";
+        case SESSION_REFRESH_ID_TOKEN_VALIDATE_ERROR:
+            return "SESSION_REFRESH_ID_TOKEN_VALIDATE_ERROR";
         case LOGOUT_ERROR_NO_END_SESSION_URL_ERROR:
             return "LOGOUT_ERROR_NO_END_SESSION_URL_ERROR";
         case LOGOUT_ERROR_NETWORK_ERROR:
@@ -0,0 +1,26 @@
+package org.vaultit.mobilesso.mobilessosdk;
+
+
+import android.support.annotation.NonNull;
+
+/**
+ * Thrown by the blocking SessionManager calls, e.g. getFreshSessionBlocking().  Carries the
+ * same SessionError that the callback based calls would return.
+ */
+public class SessionException extends Exception {
+    private final SessionError sessionError;
+
+    public SessionException(@NonNull SessionError sessionError) {
+        super(sessionError.getErrorMessage(), sessionError.authException);
+        this.sessionError = sessionError;
+    }
+
+    @NonNull
+    public SessionError getSessionError() {
+        return sessionError;
+    }
+
+    public SessionError.ErrorCode getErrorCode() {
+        return sessionError.getErrorCode();
+    }
+}
@@ -0,0 +1,303 @@
+package org.vaultit.mobilesso.mobilessosdk;
+
+
+import android.os.Build;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+import android.support.annotation.VisibleForTesting;
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Result of SessionManager.getFreshSessionAsync() and refreshSessionAsync().
+ *
+ *  - get() returns the session, or throws ExecutionException with SessionException as cause
+ *  - callbacks and continuations are run on the executor given to SessionManager
+ *  - cancel() detaches the caller from the refresh; a refresh shared with other callers
+ *    is not interrupted.  After cancellation get() throws CancellationException, callbacks
+ *    are not called and continuations are cancelled
+ *  - withTimeout() fails the future with SESSION_REFRESH_TIMEOUT_ERROR after a timeout
+ *  - awaitAll() waits for several futures at once
+ */
+public class SessionFuture implements Future<Session> {
+    private static final String TAG = "SessionFuture";
+
+    // runs timeouts given with withTimeout(); timeouts of completed futures are cancelled
+    private static final ScheduledThreadPoolExecutor TIMEOUT_EXECUTOR = createTimeoutExecutor();
+
+    private static ScheduledThreadPoolExecutor createTimeoutExecutor() {
+        ScheduledThreadPoolExecutor executor = new ScheduledThreadPoolExecutor(1,
+                new ThreadFactory() {
+                    @Override
+                    public Thread newThread(@NonNull Runnable r) {
+                        Thread thread = new Thread(r, "MobileSsoFutureTimeout");
+                        thread.setDaemon(true);
+                        return thread;
+                    }
+                });
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.LOLLIPOP) {
+            // long timeouts do not pile up in the queue; before API 21 a cancelled timeout
+            // is dropped when it is due
+            executor.setRemoveOnCancelPolicy(true);
+        }
+        return executor;
+    }
+
+    /**
+     * Executor that runs tasks in the thread that completes the future.
+     */
+    static final Executor DIRECT_EXECUTOR = new Executor() {
+        @Override
+        public void execute(@NonNull Runnable command) {
+            command.run();
+        }
+    };
+
+    /**
+     * Continuation for then(), e.g. for building an API request once the session is available.
+     */
+    public interface Continuation<T> {
+        T apply(@NonNull Session session) throws Exception;
+    }
+
+    private final Executor mExecutor;
+    private final CountDownLatch mDone = new CountDownLatch(1);
+    private final List<Runnable> mCompletionTasks = new ArrayList<>();
+    private final List<ScheduledFuture<?>> mTimeouts = new ArrayList<>();
+    private Session mSession = null;
+    private SessionError mError = null;
+    private boolean mCompleted = false;
+    private boolean mCancelled = false;
+
+    SessionFuture(@NonNull Executor executor) {
+        mExecutor = executor;
+    }
+
+    /**
+     * Completes the future, only the first call has an effect.
+     * @return true if this call completed the future
+     */
+    boolean complete(@Nullable Session session, @Nullable SessionError error) {
+        return complete(session, error, false);
+    }
+
+    private boolean complete(@Nullable Session session, @Nullable SessionError error,
+                             boolean cancelled) {
+        List<Runnable> tasks;
+        List<ScheduledFuture<?>> timeouts;
+        synchronized (this) {
+            if (mCompleted) {
+                return false;
+            }
+            mCompleted = true;
+            mCancelled = cancelled;
+            mSession = session;
+            mError = error;
+            tasks = new ArrayList<>(mCompletionTasks);
+            mCompletionTasks.clear();
+            timeouts = new ArrayList<>(mTimeouts);
+            mTimeouts.clear();
+        }
+        mDone.countDown();
+        for (ScheduledFuture<?> timeout : timeouts) {
+            timeout.cancel(false);
+        }
+        for (Runnable task : tasks) {
+            runOnExecutor(task);
+        }
+        return true;
+    }
+
+    private void runOnExecutor(Runnable task) {
+        try {
+            mExecutor.execute(task);
+        } catch (RuntimeException ex) {
+            // e.g. executor has been shut down
+            Log.e(TAG,"runOnExecutor(): executor rejected completion task", ex);
+        }
+    }
+
+    // runs task on the executor after completion, immediately if already completed
+    private void whenDone(@NonNull Runnable task) {
+        synchronized (this) {
+            if (!mCompleted) {
+                mCompletionTasks.add(task);
+                return;
+            }
+        }
+        runOnExecutor(task);
+    }
+
+    /**
+     * Calls callback on completion: with session on success, with error on failure or timeout.
+     * Not called if the future is cancelled.
+     * @param callback callback run on the future's executor
+     * @return this future for chaining
+     */
+    public SessionFuture addCallback(@NonNull final SessionManager.TokenRefreshCallback callback) {
+        whenDone(new Runnable() {
+            @Override
+            public void run() {
+                Session session;
+                SessionError error;
+                synchronized (SessionFuture.this) {
+                    if (mCancelled) {
+                        return;
+                    }
+                    session = mSession;
+                    error = mError;
+                }
+                callback.tokenRefreshCallback(session, error);
+            }
+        });
+        return this;
+    }
+
+    /**
+     * Runs continuation with the session once it is available.  If the session cannot be
+     * obtained, the returned future fails with SessionException as cause.  If this future is
+     * cancelled, so is the returned one.
+     *
+     * @param continuation  e.g. builds the request that needs the access token
+     * @return future for the result of the continuation
+     */
+    public <T> Future<T> then(@NonNull final Continuation<T> continuation) {
+        final FutureTask<T> task = new FutureTask<>(new Callable<T>() {
+            @Override
+            public T call() throws Exception {
+                return continuation.apply(getCompleted());
+            }
+        });
+        whenDone(new Runnable() {
+            @Override
+            public void run() {
+                if (isCancelled()) {
+                    task.cancel(false);
+                } else {
+                    task.run();
+                }
+            }
+        });
+        return task;
+    }
+
+    /**
+     * Fails this future with SESSION_REFRESH_TIMEOUT_ERROR if it has not completed within
+     * the timeout.
+     * @return this future for chaining
+     */
+    public SessionFuture withTimeout(long timeout, @NonNull TimeUnit unit) {
+        ScheduledFuture<?> scheduled = TIMEOUT_EXECUTOR.schedule(new Runnable() {
+            @Override
+            public void run() {
+                if (complete(null, new SessionError(SessionError.ErrorCode.SESSION_REFRESH_TIMEOUT_ERROR,
+                        "Session refresh did not complete in time"))) {
+                    Log.d(TAG,"withTimeout(): timed out");
+                }
+            }
+        }, timeout, unit);
+        synchronized (this) {
+            if (!mCompleted) {
+                mTimeouts.add(scheduled);
+                return this;
+            }
+        }
+        scheduled.cancel(false);  // completed meanwhile
+        return this;
+    }
+
+    // number of timeouts waiting in the timeout thread
+    @VisibleForTesting
+    static int getPendingTimeoutCount() {
+        return TIMEOUT_EXECUTOR.getQueue().size();
+    }
+
+    /**
+     * Cancels waiting for the session.  The token refresh itself is not interrupted, since
+     * it may be shared with other callers.
+     */
+    @Override
+    public boolean cancel(boolean mayInterruptIfRunning) {
+        return complete(null, null, true);
+    }
+
+    @Override
+    public synchronized boolean isCancelled() {
+        return mCancelled;
+    }
+
+    @Override
+    public synchronized boolean isDone() {
+        return mCompleted;
+    }
+
+    @Override
+    public Session get() throws InterruptedException, ExecutionException {
+        mDone.await();
+        return getCompletedOrThrow();
+    }
+
+    @Override
+    public Session get(long timeout, @NonNull TimeUnit unit)
+            throws InterruptedException, ExecutionException, TimeoutException {
+        if (!mDone.await(timeout, unit)) {
+            throw new TimeoutException("Session not available in time");
+        }
+        return getCompletedOrThrow();
+    }
+
+    private Session getCompletedOrThrow() throws ExecutionException {
+        try {
+            return getCompleted();
+        } catch (SessionException ex) {
+            throw new ExecutionException(ex);
+        }
+    }
+
+    // must only be called after completion
+    private synchronized Session getCompleted() throws SessionException {
+        if (mCancelled) {
+            throw new CancellationException();
+        }
+        if (mError != null) {
+            throw new SessionException(mError);
+        }
+        return mSession;
+    }
+
+    /**
+     * Waits until all futures have completed (successfully or not), or the timeout expires.
+     *
+     * @param futures  e.g. session futures and futures returned by then()
+     * @param timeout  maximum time to wait for all of the futures
+     * @param unit     time unit of timeout
+     * @throws TimeoutException  if some future did not complete in time
+     */
+    public static void awaitAll(@NonNull Collection<? extends Future<?>> futures,
+                                long timeout, @NonNull TimeUnit unit)
+            throws InterruptedException, TimeoutException {
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+        for (Future<?> future : futures) {
+            try {
+                future.get(Math.max(0, deadline - System.nanoTime()), TimeUnit.NANOSECONDS);
+            } catch (ExecutionException | CancellationException ex) {
+                // completed, caller inspects each future for the result
+            }
+        }
+    }
+}
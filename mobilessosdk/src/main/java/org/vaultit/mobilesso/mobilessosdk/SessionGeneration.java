@@ -0,0 +1,188 @@
+package org.vaultit.mobilesso.mobilessosdk;
+
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+import android.util.Log;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Generation counter of a session store, shared by all processes of the application.  The
+ * counter is a long in a small memory mapped file, so checking whether another process has
+ * committed is a memory read.  Commits increment it while holding a file lock on the counter.
+ * Another lock region of the same file serializes token refreshes across processes.
+ *
+ * File locks are held per process, so threads within a process are serialized with
+ * in-process locks, and there is one instance per file in a process.  If the file cannot be
+ * opened, the counter stays 0 and locks cover this process only.
+ */
+class SessionGeneration {
+    private static final String TAG = "SessionGeneration";
+
+    private static final int COUNTER_SIZE = 8;
+    private static final long REFRESH_LOCK_POSITION = COUNTER_SIZE;
+    // FileChannel has no timed lock, tryLockRefresh() polls the file lock
+    private static final long FILE_LOCK_POLL_MS = 10;
+    private static final Map<String,SessionGeneration> sInstances = new HashMap<>();
+
+    private final File mFile;
+    private FileChannel mChannel = null;
+    private MappedByteBuffer mCounter = null;
+    private final ReentrantLock mCounterLock = new ReentrantLock();
+    private final ReentrantLock mRefreshLock = new ReentrantLock();
+
+    /**
+     * @param file  counter file, created if missing
+     * @return instance shared within the process
+     */
+    @NonNull
+    static synchronized SessionGeneration forFile(@NonNull File file) {
+        String path = file.getAbsolutePath();
+        SessionGeneration generation = sInstances.get(path);
+        if (generation == null) {
+            generation = new SessionGeneration(file);
+            sInstances.put(path, generation);
+        }
+        return generation;
+    }
+
+    private SessionGeneration(@NonNull File file) {
+        mFile = file;
+        try {
+            // mapping stays valid even if the channel is closed later
+            mCounter = channel().map(FileChannel.MapMode.READ_WRITE, 0, COUNTER_SIZE);
+        } catch (IOException ex) {
+            Log.e(TAG,"cannot map " + file + ", session is not shared across processes", ex);
+        }
+    }
+
+    /**
+     * @return generation of the last commit by any process
+     */
+    long get() {
+        return (mCounter != null ? mCounter.getLong(0) : 0);
+    }
+
+    /**
+     * Increments generation.  Caller must hold lockCounter().
+     *
+     * @return new generation
+     */
+    long increment() {
+        if (mCounter == null) {
+            return 0;
+        }
+        long generation = mCounter.getLong(0) + 1;
+        mCounter.putLong(0, generation);
+        return generation;
+    }
+
+    /**
+     * Locks the counter for reading or committing the store.
+     */
+    @NonNull
+    SessionStore.ProcessLock lockCounter() {
+        return lock(mCounterLock, 0, COUNTER_SIZE);
+    }
+
+    /**
+     * Locks the refresh region, see SessionStore.lockAcrossProcesses().
+     */
+    @NonNull
+    SessionStore.ProcessLock lockRefresh() {
+        return lock(mRefreshLock, REFRESH_LOCK_POSITION, 1);
+    }
+
+    /**
+     * Locks the refresh region, waiting at most timeoutMs.
+     *
+     * @return lock, or null if not acquired in time or interrupted
+     */
+    @Nullable
+    SessionStore.ProcessLock tryLockRefresh(long timeoutMs) {
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMs);
+        try {
+            if (!mRefreshLock.tryLock(timeoutMs, TimeUnit.MILLISECONDS)) {
+                return null;
+            }
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            return null;
+        }
+        FileLock fileLock = null;
+        if (mRefreshLock.getHoldCount() == 1) {
+            try {
+                while ((fileLock = channel().tryLock(REFRESH_LOCK_POSITION, 1, false)) == null) {
+                    if (System.nanoTime() - deadline >= 0) {
+                        mRefreshLock.unlock();
+                        return null;
+                    }
+                    Thread.sleep(FILE_LOCK_POLL_MS);
+                }
+            } catch (IOException ex) {
+                Log.e(TAG,"tryLockRefresh(): file lock failed, locking this process only", ex);
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                mRefreshLock.unlock();
+                return null;
+            }
+        }
+        return createLock(mRefreshLock, fileLock);
+    }
+
+    private SessionStore.ProcessLock lock(@NonNull ReentrantLock threadLock,
+                                          long position, long size) {
+        threadLock.lock();
+        FileLock fileLock = null;
+        // reentrant acquire already holds the file lock, which cannot be taken twice
+        if (threadLock.getHoldCount() == 1) {
+            try {
+                fileLock = channel().lock(position, size, false);
+            } catch (IOException ex) {
+                Log.e(TAG,"lock(): file lock failed, locking this process only", ex);
+            }
+        }
+        return createLock(threadLock, fileLock);
+    }
+
+    @NonNull
+    private static SessionStore.ProcessLock createLock(@NonNull final ReentrantLock threadLock,
+                                                       @Nullable final FileLock acquired) {
+        return new SessionStore.ProcessLock() {
+            @Override
+            public void release() {
+                try {
+                    if (acquired != null && acquired.isValid()) {
+                        acquired.release();
+                    }
+                } catch (IOException ex) {
+                    Log.e(TAG,"release(): failed to release file lock", ex);
+                } finally {
+                    threadLock.unlock();
+                }
+            }
+        };
+    }
+
+    // channel is reopened if closed, e.g. by an interrupt while waiting for a lock
+    private synchronized FileChannel channel() throws IOException {
+        if (mChannel == null || !mChannel.isOpen()) {
+            File dir = mFile.getParentFile();
+            if (dir != null && !dir.exists() && !dir.mkdirs()) {
+                throw new IOException("cannot create " + dir);
+            }
+            mChannel = new RandomAccessFile(mFile, "rw").getChannel();
+        }
+        return mChannel;
+    }
+}
@@ -5,10 +5,13 @@ import android.content.Context;
 import android.content.Intent;
 import android.content.IntentFilter;
 import android.net.ConnectivityManager;
+import android.net.Uri;
 import android.os.Handler;
 import android.os.Looper;
+import android.os.SystemClock;
 import android.support.annotation.NonNull;
 import android.support.annotation.Nullable;
+import android.support.annotation.WorkerThread;
 import android.util.Log;
 
 import net.openid.appauth.AuthState;
@@ -16,17 +19,25 @@ import net.openid.appauth.AuthorizationException;
 import net.openid.appauth.AuthorizationRequest;
 import net.openid.appauth.AuthorizationService;
 import net.openid.appauth.AuthorizationServiceConfiguration;
+import net.openid.appauth.AuthorizationServiceDiscovery;
 import net.openid.appauth.ClientSecretBasic;
+import net.openid.appauth.GrantTypeValues;
 import net.openid.appauth.ResponseTypeValues;
+import net.openid.appauth.TokenRequest;
 import net.openid.appauth.TokenResponse;
 
 import org.vaultit.mobilesso.mobilessosdk.SessionError.ErrorCode;
 import org.vaultit.mobilesso.mobilessosdk.Util.ConnectionUtilities;
 
+import java.util.Collection;
 import java.util.EnumSet;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
 
 /**
  * Main class for Mobile SSO SDK
@@ -51,6 +62,12 @@ public class SessionManager {
 
     private static final String TAG = "SessionManager";
 
+    // error of a refresh whose deadline passed, e.g. while waiting for the refresh lock
+    static final int REFRESH_TIMEOUT_CODE = 1002;
+    static final AuthorizationException REFRESH_TIMEOUT_ERROR = new AuthorizationException(
+            AuthorizationException.TYPE_GENERAL_ERROR, REFRESH_TIMEOUT_CODE, "refresh_timeout",
+            "Session refresh did not complete in time", null, null);
+
     // Members
     private final long id = NEXT_ID.getAndIncrement();
     private static Long mNextClientId = 0L;
@@ -65,6 +82,7 @@ public class SessionManager {
     private Data mData = null;
     private Context mContext = null; // Activity context
     private Long mHandle;  // this identifies SessionManager uniquely and ties it to context
+    private RefreshScheduler mRefreshScheduler = null;  // opt-in proactive refresh
 
     /**
      * Constructs new SessionManager object, which includes idp in data part.
@@ -75,12 +93,17 @@ public class SessionManager {
             " handle=" + mHandle);
         mData = Data.getInstance(context.getApplicationContext());
         mData.init(idp);
+        if (idp.getTransport() != null) {
+            mData.setTransport(idp.getTransport());
+        }
+        mData.setDiscoverySnapshot(idp.getDiscoverySnapshot());
         mContext = context;
 /*        AppAuthConfiguration appAuthConfig = new AppAuthConfiguration.Builder()
                 .setBrowserMatcher(new BrowserWhitelist(
                         VersionedBrowserMatcher.CHROME_CUSTOM_TAB))
                 .build();*/
-        mAuthService = new AuthorizationService(context/*, appAuthConfig*/);
+        mAuthService = new AuthorizationService(context,
+                TransportConnectionBuilder.createAppAuthConfiguration(mData));
         mLogoutService = new LogoutService(context);
     }
 
@@ -92,7 +115,8 @@ public class SessionManager {
         if (mData.getIdp() == null) {
             Log.e(TAG,"Internal error: data not initialized properly");
         }
-        mAuthService = new AuthorizationService(context);
+        mAuthService = new AuthorizationService(context,
+                TransportConnectionBuilder.createAppAuthConfiguration(mData));
         mLogoutService = new LogoutService(context);
     }
 
@@ -117,6 +141,7 @@ public class SessionManager {
      * Should be called prior to deleting the object (e.g. in Activity's onDestroy()).
      */
     public void dispose() {
+        disableProactiveRefresh();
         mData = null;
         mAuthService.dispose();
         mAuthService = null;
@@ -291,7 +316,7 @@ public class SessionManager {
             Log.e(TAG,"Client App Error: no listeners for SessionManager initialize!");
         }
 
-        mData.readData();
+        mData.reloadIfChanged();  // picks up commits of other processes
         mData.setInitOngoing(true);
         mData.saveData();
 
@@ -319,6 +344,9 @@ public class SessionManager {
         if (mData.getAuthState().getAuthorizationServiceConfiguration() == null) {
             fetchDiscoveryDoc();
         } else {
+            mData.getDiscoveryCache().revalidateIfStale(mData.getTransport(),
+                    mData.getIdp().getDiscoveryEndpoint(), createRevalidateCallback());
+            prewarmConnection();
             postDiscDocFetchLogic();
         }
     }
@@ -328,7 +356,7 @@ public class SessionManager {
         if (mData.getAuthState().isAuthorized() &&
                 mData.getAuthState().getAccessToken() != null) {
             if (session.getStatus() == Session.SessionStatus.VALID) {
-                if (mData.getAuthState().getNeedsTokenRefresh()) {
+                if (mData.getNeedsTokenRefresh()) {
                     refreshTokens(null);
                 } else {
                     callListenerOnInitializeResult(session, null);
@@ -353,79 +381,771 @@ public class SessionManager {
         callListenerOnInitializeResult(null, error);
     }
 
+    // uses cached discovery document if any, stale or not, or the bundled snapshot, and
+    // revalidates it in background; waits for the network only if neither is usable
     private void fetchDiscoveryDoc() {
         Log.d(TAG,"fetchDiscoveryDoc()");
-        AuthorizationServiceConfiguration.fetchFromUrl(
-            mData.getIdp().getDiscoveryEndpoint(),
-            new AuthorizationServiceConfiguration.RetrieveConfigurationCallback() {
+        final Uri endpoint = mData.getIdp().getDiscoveryEndpoint();
+        DiscoveryCache cache = mData.getDiscoveryCache();
+        DiscoveryCache.Entry cached = cache.get(endpoint);
+        boolean snapshot = false;
+        if (cached == null && mData.getDiscoverySnapshot() != 0) {
+            cached = DiscoveryCache.readSnapshot(mContext, mData.getDiscoverySnapshot(), endpoint);
+            snapshot = (cached != null);
+        }
+        if (cached != null) {
+            try {
+                AuthorizationServiceConfiguration config = cached.toConfiguration();
+                Log.d(TAG,"fetchDiscoveryDoc()  cached, snapshot=" + snapshot);
+                if (snapshot) {
+                    // stored in background, not to wait for the disk here
+                    cache.seed(mData.getTransport(), endpoint, cached,
+                            createRevalidateCallback());
+                } else {
+                    cache.revalidateIfStale(mData.getTransport(), endpoint,
+                            createRevalidateCallback());
+                }
+                discoveryDocLoaded(config);
+                return;
+            } catch (AuthorizationServiceDiscovery.MissingArgumentException ex) {
+                Log.e(TAG,"fetchDiscoveryDoc(): invalid cached document, fetching", ex);
+            }
+        }
+        cache.fetch(mData.getTransport(), endpoint, new DiscoveryCache.FetchCallback() {
+            @Override
+            public void discoveryDocFetched(@Nullable AuthorizationServiceConfiguration config,
+                                            @Nullable AuthorizationException ex) {
+                if (ex != null) {
+                    Log.e(TAG,"Failed to retrieve discovery document: " + ex.getMessage());
+                    callListenerOnInitializeResult(null,
+                        new SessionError(ErrorCode.INIT_SERVICE_CONFIG_LOAD_ERROR,
+                                "Could not load service configuration", ex));
+                    return;
+                }
+                Log.d(TAG,"fetchDiscoveryDoc()  success");
+                //noinspection ConstantConditions
+                discoveryDocLoaded(config);
+            }
+        });
+    }
+
+    private void discoveryDocLoaded(@NonNull AuthorizationServiceConfiguration config) {
+        mData.setAuthState(new AuthState(config));
+        //noinspection ConstantConditions
+        mData.setLogoutEndPoint(Data.getLogoutEndPointFromDoc(config.discoveryDoc));
+        mData.saveData();
+        prewarmConnection();
+        postDiscDocFetchLogic();
+    }
+
+    @NonNull
+    private DiscoveryCache.RevalidateCallback createRevalidateCallback() {
+        return new DiscoveryCache.RevalidateCallback() {
+            @Override
+            public void discoveryDocRevalidated(
+                    @NonNull AuthorizationServiceConfiguration config) {
+                applyDiscoveryDoc(config);
+            }
+        };
+    }
+
+    // takes a changed discovery document into use; while authorized the tokens belong to the
+    // current configuration, and the document is taken into use by sessionReset()
+    private void applyDiscoveryDoc(@NonNull AuthorizationServiceConfiguration config) {
+        synchronized (mData) {
+            AuthState authState = mData.getAuthState();
+            AuthorizationServiceConfiguration current =
+                    authState.getAuthorizationServiceConfiguration();
+            if (current != null && current.toJsonString().equals(config.toJsonString())) {
+                return;
+            }
+            if (authState.isAuthorized()) {
+                Log.w(TAG,"applyDiscoveryDoc(): document changed, used after logout");
+                return;
+            }
+            Log.d(TAG,"applyDiscoveryDoc(): document changed, updating configuration");
+            mData.setAuthState(new AuthState(config));
+            //noinspection ConstantConditions
+            mData.setLogoutEndPoint(Data.getLogoutEndPointFromDoc(config.discoveryDoc));
+        }
+        mData.saveData();
+    }
 
+    // opens a connection to the token endpoint in the pre-warm thread, if enabled and no
+    // connection to it is recent; a refresh does not wait for it
+    private void prewarmConnection() {
+        final Data data = mData;
+        if (!data.isPrewarmEnabled()) {
+            return;
+        }
+        final Uri tokenEndpoint =
+                data.getAuthState().getAuthorizationServiceConfiguration().tokenEndpoint;
+        if (ConnectionPrewarmer.isWarm(tokenEndpoint)) {
+            Log.d(TAG,"prewarmConnection(): connection is recent, skipping");
+            return;
+        }
+        final TokenRefreshCoordinator coordinator = data.getRefreshCoordinator();
+        ConnectionPrewarmer.execute(new Runnable() {
+            @Override
+            public void run() {
+                if (coordinator.isInFlight() || ConnectionPrewarmer.isWarm(tokenEndpoint)) {
+                    Log.d(TAG,"prewarmConnection(): refresh in flight or done, skipping");
+                    return;
+                }
+                final ConnectionPrewarmMetrics metrics =
+                        ConnectionPrewarmer.prewarm(data.getTransport(), tokenEndpoint);
+                final ConnectionPrewarmCallback callback = data.getPrewarmCallback();
+                if (callback != null) {
+                    new Handler(Looper.getMainLooper()).post(new Runnable() {
+                        @Override
+                        public void run() {
+                            callback.connectionPrewarmed(metrics);
+                        }
+                    });
+                }
+            }
+        });
+    }
+
+    // refreshes tokens; concurrent callers (also from other SessionManager instances) share
+    // a single round trip to the token endpoint, see TokenRefreshCoordinator
+    private void refreshTokens(@Nullable final TokenRefreshCallback callback) {
+        refreshTokens(callback, false);
+    }
+
+    // forLogout: a refresh started here is not reported to listeners, and a failure leaves
+    // the session to logout(), which resets it
+    private void refreshTokens(@Nullable final TokenRefreshCallback callback,
+                               boolean forLogout) {
+        TokenRefreshCoordinator.Waiter waiter = null;
+        if (callback != null) {
+            waiter = new TokenRefreshCoordinator.Waiter() {
                 @Override
-                public void onFetchConfigurationCompleted(
-                        @Nullable AuthorizationServiceConfiguration serviceConfiguration,
-                        @Nullable AuthorizationException ex) {
-                    if (ex != null) {
-                        Log.e(TAG,"Failed to retrieve discovery document: " + ex.getMessage());
-                        callListenerOnInitializeResult(null,
-                            new SessionError(ErrorCode.INIT_SERVICE_CONFIG_LOAD_ERROR,
-                                    "Could not load service configuration", ex));
-                        return;
-                    }
-                    Log.d(TAG,"fetchDiscoveryDoc()  success");
-                    //noinspection ConstantConditions
-                    mData.setAuthState(new AuthState(serviceConfiguration));
-                    //noinspection ConstantConditions
-                    mData.setLogoutEndPoint(Data.getLogoutEndPointFromDoc(
-                            serviceConfiguration.discoveryDoc));
-                    mData.saveData();
-                    postDiscDocFetchLogic();
+                public void onRefreshCompleted(@Nullable final AuthorizationException ex) {
+                    new Handler(Looper.getMainLooper()).post(new Runnable() {
+                        public void run() {
+                            Session session = null;
+                            SessionError error = null;
+
+                            if (ex == null) {
+                                session = new Session(mContext);
+                            }
+                            else {
+                                error = new SessionError(
+                                        SessionError.getSessionRefreshErrorCode(ex),
+                                        "failed to refresh tokens", ex);
+                            }
+
+                            callback.tokenRefreshCallback(session, error);
+                        }
+                    });
+                }
+            };
+        }
+        joinRefresh(waiter, forLogout);
+    }
+
+    private void joinRefresh(@Nullable TokenRefreshCoordinator.Waiter waiter) {
+        joinRefresh(waiter, false);
+    }
+
+    // joins the refresh in flight or starts one; the waiter is notified in the refresh thread
+    private void joinRefresh(@Nullable TokenRefreshCoordinator.Waiter waiter,
+                             final boolean forLogout) {
+        Log.d(TAG,"joinRefresh() forLogout=" + forLogout);
+        final TokenRefreshCoordinator coordinator = mData.getRefreshCoordinator();
+        if (coordinator.join(waiter)) {
+            coordinator.execute(new Runnable() {
+                @Override
+                public void run() {
+                    performRefresh(coordinator, Long.MAX_VALUE, forLogout);
                 }
             });
+        }
+        // otherwise result will be delivered when the refresh in flight completes
     }
 
-    private void refreshTokens(@Nullable final TokenRefreshCallback callback) {
-        Log.d(TAG,"refreshTokens()");
-        mAuthService.performTokenRequest(
-            mData.getAuthState().createTokenRefreshRequest(),
-            new ClientSecretBasic(mData.getIdp().getClientSecret()),
-            new AuthorizationService.TokenResponseCallback() {
+    /**
+     * Performs refresh, retrying transient errors according to the retry policy, and completes
+     * the coordinator.  Performed in the calling (worker) thread; must only be called by the
+     * caller for which TokenRefreshCoordinator.join() returned true.
+     *
+     * @param deadline   SystemClock.elapsedRealtime() by which the refresh completes, also
+     *                   waiting for the locks; Long.MAX_VALUE for no limit
+     * @param forLogout  if true, listeners are not notified and a failure is not stored
+     *                   in the AuthState, since logout resets the session
+     */
+    @WorkerThread
+    private void performRefresh(@NonNull TokenRefreshCoordinator coordinator,
+                                final long deadline, boolean forLogout) {
+        final Data data = mData;  // dispose() may clear mData while refresh is ongoing
+        AuthorizationException exception = null;
+        try {
+            performWithRetries(data, deadline, new RefreshAttempt() {
                 @Override
-                public void onTokenRequestCompleted(
-                        @Nullable TokenResponse response,
-                        @Nullable final AuthorizationException ex) {
-                    mData.getAuthState().update(response, ex);
-                    mData.saveData();
-
-                    if (ex != null) {
-                        Log.d(TAG,"refreshTokens(): failed to refresh tokens");
-                        callListenerOnInitializeResult(null,
-                                new SessionError(SessionError.getSessionRefreshErrorCode(ex),
-                                        "failed to refresh tokens",ex));
-                    } else {
-                        Session session = new Session(mContext);
-                        Log.d(TAG,"refreshTokens(): success, accessToken=" + session.getAccessToken());
-                        callListenerOnInitializeResult(session, null);
+                public void run() throws AuthorizationException {
+                    refreshOnce(data, deadline);
+                }
+            });
+        } catch (AuthorizationException ex) {
+            exception = ex;
+            if (!forLogout) {
+                data.updateAuthState((TokenResponse) null, ex);
+            }
+        } catch (RuntimeException ex) {
+            // e.g. no refresh token; never leave the coordinator in flight
+            Log.e(TAG,"performRefresh(): failed to perform token request", ex);
+            exception = AuthorizationException.fromTemplate(
+                    AuthorizationException.GeneralErrors.PROGRAM_CANCELED_AUTH_FLOW, ex);
+        }
+        data.saveData();
+
+        if (forLogout) {
+            Log.d(TAG,"performRefresh(): for logout, ok=" + (exception == null));
+        } else if (exception != null) {
+            Log.d(TAG,"performRefresh(): failed to refresh tokens");
+            callListenerOnInitializeResult(data, null,
+                    new SessionError(SessionError.getSessionRefreshErrorCode(exception),
+                            "failed to refresh tokens", exception));
+        } else {
+            Session session = new Session(mContext);
+            Log.d(TAG,"performRefresh(): success, accessToken=" + session.getAccessToken());
+            callListenerOnInitializeResult(data, session, null);
+        }
+        coordinator.complete(exception);
+    }
+
+    // one attempt of performRefresh(), holding the refresh token locks
+    @WorkerThread
+    private static void refreshOnce(@NonNull Data data, long deadline)
+            throws AuthorizationException {
+        ReentrantLock refreshTokenLock = data.getRefreshTokenLock();
+        if (!lockBefore(refreshTokenLock, deadline)) {
+            throw AuthorizationException.fromTemplate(REFRESH_TIMEOUT_ERROR, null);
+        }
+        try {
+            SessionStore.ProcessLock processLock = data.lockRefreshAcrossProcesses(deadline);
+            if (processLock == null) {
+                throw AuthorizationException.fromTemplate(REFRESH_TIMEOUT_ERROR, null);
+            }
+            try {
+                if (data.reloadIfChanged() && !data.getNeedsTokenRefresh()) {
+                    // refreshed by another process while waiting for the lock
+                    Log.d(TAG,"performRefresh(): refreshed by another process");
+                } else {
+                    TokenRequest request;
+                    synchronized (data) {
+                        request = data.getAuthState().createTokenRefreshRequest();
                     }
-                    if (callback != null) {
-                        new Handler(Looper.getMainLooper()).post(new Runnable() {
-                            public void run() {
-                                Session session = null;
-                                SessionError error = null;
-
-                                if (ex == null) {
-                                    session = new Session(mContext);
-                                }
-                                else {
-                                    error = new SessionError(
-                                            SessionError.getSessionRefreshErrorCode(ex),
-                                            "failed to refresh tokens", ex);
-                                }
-
-                                callback.tokenRefreshCallback(session, error);
-                            }
-                        });
+                    TokenResponse response = performTokenRequest(data, request, deadline);
+                    // the old refresh token is spent: the rotated one is on disk before
+                    // the ID token is verified, whatever the verification says
+                    if (response.refreshToken != null) {
+                        synchronized (data) {
+                            updateRefreshToken(data.getAuthState(), response.refreshToken);
+                            data.markAuthStateDirty();
+                        }
+                        data.flush();
                     }
+                    try {
+                        verifyIdToken(data, request, response);
+                    } catch (AuthorizationException ex) {
+                        if (IdTokenVerifier.isIdTokenRejectedError(ex)) {
+                            throw ex;
+                        }
+                        // signing key could not be obtained: the tokens are used, but
+                        // not the unverified ID token, which is verified next time
+                        Log.e(TAG,"performRefresh(): ID token not verified, keeping " +
+                                "previous one");
+                        response = withPreviousIdToken(data, response);
+                    }
+                    data.updateAuthState(response, null);
+                }
+            } finally {
+                // rotated refresh token is on disk before other processes refresh
+                data.flush();
+                processLock.release();
+            }
+        } finally {
+            refreshTokenLock.unlock();
+        }
+    }
+
+    // token response with the ID token of the last token response in place of its own
+    @NonNull
+    private static TokenResponse withPreviousIdToken(@NonNull Data data,
+                                                     @NonNull TokenResponse response) {
+        String idToken;
+        synchronized (data) {
+            TokenResponse last = data.getAuthState().getLastTokenResponse();
+            idToken = (last != null ? last.idToken : null);
+        }
+        return new TokenResponse.Builder(response.request)
+                .setTokenType(response.tokenType)
+                .setAccessToken(response.accessToken)
+                .setAccessTokenExpirationTime(response.accessTokenExpirationTime)
+                .setIdToken(idToken)
+                .setRefreshToken(response.refreshToken)
+                .setScope(response.scope)
+                .setAdditionalParameters(response.additionalParameters)
+                .build();
+    }
+
+    // verifies ID token of refresh response, if any; the previous ID token is kept otherwise
+    @WorkerThread
+    private static void verifyIdToken(@NonNull Data data, @NonNull TokenRequest request,
+                                      @NonNull TokenResponse response)
+            throws AuthorizationException {
+        if (response.idToken == null) {
+            return;
+        }
+        String clientId;
+        synchronized (data) {
+            clientId = data.getIdp().getClientId();
+        }
+        data.getIdTokenVerifier().verify(data.getTransport(), request.configuration, clientId,
+                response.idToken);
+    }
+
+    // one attempt of a refresh, which takes the refresh token locks itself
+    private interface RefreshAttempt {
+        void run() throws AuthorizationException;
+    }
+
+    /**
+     * Runs attempt, retrying transient errors according to the retry policy.  The backoff
+     * is waited without holding the refresh token locks, so other refreshes are not blocked,
+     * and each retry builds its request again from the current refresh token.
+     *
+     * @param deadline  SystemClock.elapsedRealtime() after which no more retries are made;
+     *                  Long.MAX_VALUE for no limit
+     */
+    @WorkerThread
+    private static void performWithRetries(@NonNull Data data, long deadline,
+                                           @NonNull RefreshAttempt attempt)
+            throws AuthorizationException {
+        RetryPolicy retryPolicy = data.getRetryPolicy();
+        for (int retry = 0; ; retry++) {
+            try {
+                attempt.run();
+                return;
+            } catch (AuthorizationException ex) {
+                if (!retryPolicy.isRetryable(ex) || retry + 1 >= retryPolicy.getMaxAttempts()) {
+                    throw ex;
+                }
+                long delay = retryPolicy.getDelayMs(retry);
+                if (SystemClock.elapsedRealtime() + delay >= deadline) {
+                    throw ex;
+                }
+                Log.d(TAG,"performWithRetries(): transient error, retry in " + delay + " ms");
+                try {
+                    Thread.sleep(delay);
+                } catch (InterruptedException ie) {
+                    Thread.currentThread().interrupt();
+                    throw ex;
+                }
+            }
+        }
+    }
+
+    /**
+     * Performs a single token request, failing fast while the circuit breaker is open.
+     * Requests which use the refresh token must hold Data.getRefreshTokenLock().
+     *
+     * @param deadline  SystemClock.elapsedRealtime() by which the request completes: the time
+     *                  left is the connect and read timeout; Long.MAX_VALUE for no limit
+     */
+    @WorkerThread
+    @NonNull
+    private static TokenResponse performTokenRequest(@NonNull Data data,
+                                                     @NonNull TokenRequest request,
+                                                     long deadline)
+            throws AuthorizationException {
+        String clientSecret;
+        CircuitBreaker breaker;
+        synchronized (data) {
+            clientSecret = data.getIdp().getClientSecret();
+            breaker = CircuitBreaker.forIdp(data.getIdp());
+        }
+        if (!breaker.allowRequest()) {
+            Log.d(TAG,"performTokenRequest(): circuit breaker open, failing fast");
+            throw AuthorizationException.fromTemplate(CircuitBreaker.CIRCUIT_OPEN_ERROR, null);
+        }
+        int maxTimeoutMs = 0;
+        if (deadline != Long.MAX_VALUE) {
+            long remaining = deadline - SystemClock.elapsedRealtime();
+            if (remaining <= 0) {
+                throw AuthorizationException.fromTemplate(REFRESH_TIMEOUT_ERROR, null);
+            }
+            maxTimeoutMs = (int) Math.min(remaining, Integer.MAX_VALUE);
+        }
+        try {
+            TokenResponse response = new TokenEndpointClient(data).performTokenRequest(request,
+                    new ClientSecretBasic(clientSecret), maxTimeoutMs);
+            breaker.recordResult(null);
+            return response;
+        } catch (AuthorizationException ex) {
+            breaker.recordResult(ex);
+            throw ex;
+        }
+    }
+
+    /**
+     * Performs down-scoped refresh for scope set, stores the token in the scoped token cache
+     * and completes the coordinator.  A rotated refresh token is merged into AuthState.
+     */
+    @WorkerThread
+    private void performScopedRefresh(@NonNull TokenRefreshCoordinator coordinator,
+                                      @NonNull final String scopeKey) {
+        final Data data = mData;  // dispose() may clear mData while refresh is ongoing
+        AuthorizationException exception = null;
+        try {
+            performWithRetries(data, Long.MAX_VALUE, new RefreshAttempt() {
+                @Override
+                public void run() throws AuthorizationException {
+                    scopedRefreshOnce(data, scopeKey);
                 }
             });
+        } catch (AuthorizationException ex) {
+            exception = ex;
+        } catch (RuntimeException ex) {
+            // e.g. no refresh token; never leave the coordinator in flight
+            Log.e(TAG,"performScopedRefresh(): failed to perform token request", ex);
+            exception = AuthorizationException.fromTemplate(
+                    AuthorizationException.GeneralErrors.PROGRAM_CANCELED_AUTH_FLOW, ex);
+        }
+        data.saveData();
+        Log.d(TAG,"performScopedRefresh(): scope=" + scopeKey + " ok=" + (exception == null));
+        coordinator.complete(exception);
+    }
+
+    // one attempt of performScopedRefresh(), holding the refresh token locks
+    @WorkerThread
+    private static void scopedRefreshOnce(@NonNull Data data, @NonNull String scopeKey)
+            throws AuthorizationException {
+        ReentrantLock refreshTokenLock = data.getRefreshTokenLock();
+        refreshTokenLock.lock();
+        try {
+            SessionStore.ProcessLock processLock = data.lockRefreshAcrossProcesses();
+            try {
+                data.reloadIfChanged();  // refresh token may be rotated by another process
+                TokenRequest request;
+                synchronized (data) {
+                    AuthState authState = data.getAuthState();
+                    request = new TokenRequest.Builder(
+                            authState.getAuthorizationServiceConfiguration(),
+                            data.getIdp().getClientId())
+                            .setGrantType(GrantTypeValues.REFRESH_TOKEN)
+                            .setRefreshToken(authState.getRefreshToken())
+                            .setScope(scopeKey)
+                            .build();
+                }
+                TokenResponse response = performTokenRequest(data, request,
+                        Long.MAX_VALUE);
+                if (response.accessToken == null) {
+                    throw AuthorizationException.fromTemplate(
+                            AuthorizationException.GeneralErrors.JSON_DESERIALIZATION_ERROR,
+                            null);
+                }
+                synchronized (data) {
+                    data.putScopedToken(new ScopedToken(scopeKey, response.accessToken,
+                            response.tokenType, response.accessTokenExpirationTime));
+                    if (response.refreshToken != null) {
+                        updateRefreshToken(data.getAuthState(), response.refreshToken);
+                        data.markAuthStateDirty();
+                    }
+                }
+            } finally {
+                data.flush();
+                processLock.release();
+            }
+        } finally {
+            refreshTokenLock.unlock();
+        }
+    }
+
+    static boolean isRefreshTimeoutError(@NonNull AuthorizationException ex) {
+        return ex.type == REFRESH_TIMEOUT_ERROR.type && ex.code == REFRESH_TIMEOUT_CODE;
+    }
+
+    // acquires lock, waiting at most until deadline; Long.MAX_VALUE for no limit
+    private static boolean lockBefore(@NonNull ReentrantLock lock, long deadline) {
+        if (deadline == Long.MAX_VALUE) {
+            lock.lock();
+            return true;
+        }
+        try {
+            return lock.tryLock(Math.max(0, deadline - SystemClock.elapsedRealtime()),
+                    TimeUnit.MILLISECONDS);
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+
+    // AuthState has no setter for the refresh token; the last token response is rebuilt
+    // with the rotated refresh token, so that the session keeps its own access token
+    private static void updateRefreshToken(@NonNull AuthState authState,
+                                           @NonNull String refreshToken) {
+        TokenResponse last = authState.getLastTokenResponse();
+        if (last == null) {
+            return;
+        }
+        TokenResponse merged = new TokenResponse.Builder(last.request)
+                .setTokenType(last.tokenType)
+                .setAccessToken(last.accessToken)
+                .setAccessTokenExpirationTime(last.accessTokenExpirationTime)
+                .setIdToken(last.idToken)
+                .setRefreshToken(refreshToken)
+                .setScope(last.scope)
+                .setAdditionalParameters(last.additionalParameters)
+                .build();
+        authState.update(merged, null);
+    }
+
+    /**
+     * Blocking variant of getFreshSession() for worker threads.  Returns the session from
+     * memory if tokens are fresh, otherwise refreshes tokens in the calling thread or waits
+     * for a refresh that is already in flight.  The main looper is not used, so this adds
+     * no thread hops to API calls made from a worker thread.
+     *
+     * Unlike getFreshSession(), network status changes are not reported to listeners.
+     *
+     * @param timeout  maximum time to wait for the session
+     * @param unit     time unit of timeout
+     * @return fresh session
+     * @throws SessionException  if session could not be refreshed, error code is the same as
+     *                           with getFreshSession(), or SESSION_REFRESH_TIMEOUT_ERROR
+     * @throws IllegalStateException  if called from main thread
+     */
+    @WorkerThread
+    @NonNull
+    public Session getFreshSessionBlocking(long timeout, @NonNull TimeUnit unit)
+            throws SessionException {
+        Log.d(TAG,"getFreshSessionBlocking()");
+        checkBlockingCall("getFreshSessionBlocking()");
+        if (!mData.getNeedsTokenRefresh()) {
+            return new Session(mContext);
+        }
+        return awaitRefresh(timeout, unit);
+    }
+
+    /**
+     * Blocking refresh for recovering from an access token the server rejected (HTTP 401).
+     * If the access token has changed since staleAccessToken was sent, e.g. another thread
+     * already recovered, the current session is returned without a round trip.  Otherwise
+     * the refresh is performed or joined, so concurrent 401s share a single refresh.
+     *
+     * @param staleAccessToken  access token which was rejected
+     * @param timeout           maximum time to wait for the session
+     * @param unit              time unit of timeout
+     * @return session with a new access token
+     * @throws SessionException  as with getFreshSessionBlocking()
+     * @throws IllegalStateException  if called from main thread
+     */
+    @WorkerThread
+    @NonNull
+    public Session refreshSessionBlocking(@Nullable String staleAccessToken, long timeout,
+                                          @NonNull TimeUnit unit) throws SessionException {
+        Log.d(TAG,"refreshSessionBlocking()");
+        checkBlockingCall("refreshSessionBlocking()");
+        Session session = new Session(mContext);
+        String accessToken = session.getAccessToken();
+        if (accessToken != null && !accessToken.equals(staleAccessToken)) {
+            Log.d(TAG,"refreshSessionBlocking(): access token already refreshed");
+            return session;
+        }
+        return awaitRefresh(timeout, unit);
+    }
+
+    private void checkBlockingCall(@NonNull String method) throws SessionException {
+        if (Looper.myLooper() == Looper.getMainLooper()) {
+            throw new IllegalStateException(method + " called from main thread");
+        }
+        if (!ConnectionUtilities.isNetworkAvailable(mContext)) {
+            throw new SessionException(new SessionError(ErrorCode.SESSION_REFRESH_NETWORK_ERROR,
+                    "Cannot perform action because network was lost"));
+        }
+        if (!isInitialized()) {
+            throw new SessionException(new SessionError(ErrorCode.SESSION_REFRESH_NO_SESSION_ERROR,
+                    "Cannot refresh session because no previous session"));
+        }
+    }
+
+    // joins (or performs in calling thread) a token refresh and waits for its result
+    @WorkerThread
+    @NonNull
+    private Session awaitRefresh(long timeout, @NonNull TimeUnit unit) throws SessionException {
+        final CountDownLatch latch = new CountDownLatch(1);
+        final AuthorizationException[] result = new AuthorizationException[1];
+        TokenRefreshCoordinator coordinator = mData.getRefreshCoordinator();
+        boolean leader = coordinator.join(new TokenRefreshCoordinator.Waiter() {
+            @Override
+            public void onRefreshCompleted(@Nullable AuthorizationException ex) {
+                result[0] = ex;
+                latch.countDown();
+            }
+        });
+        if (leader) {
+            // bound lock waits and each attempt by the time left of the caller's timeout
+            performRefresh(coordinator, SystemClock.elapsedRealtime() + unit.toMillis(timeout),
+                    false);
+        }
+        try {
+            if (!latch.await(timeout, unit)) {
+                throw new SessionException(new SessionError(ErrorCode.SESSION_REFRESH_TIMEOUT_ERROR,
+                        "Session refresh did not complete in time"));
+            }
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new SessionException(new SessionError(ErrorCode.SESSION_REFRESH_TIMEOUT_ERROR,
+                    "Interrupted while waiting for session refresh"));
+        }
+        if (result[0] != null) {
+            throw new SessionException(new SessionError(
+                    SessionError.getSessionRefreshErrorCode(result[0]),
+                    "failed to refresh tokens", result[0]));
+        }
+        return new Session(mContext);
+    }
+
+    /**
+     * Enables proactive refreshing of tokens in a background thread shortly before the access
+     * token expires.  With this, getFreshSession() can usually return the session from memory
+     * without a round trip to the token endpoint.
+     *
+     * Refresh is done only while session listeners exist, ie. between addSessionListener() and
+     * removeSessionListener() calls (Activity's onStart()/onStop()), so refreshing stops when
+     * the application is in background.  Results are reported through the SessionListener
+     * callbacks just like with refreshSession().
+     *
+     * @param leadTime   how long before access token expiration the refresh is done; at least
+     *                   the identity provider's refresh-ahead margin is used
+     * @param maxJitter  maximum additional lead time; the actual value is fixed per device,
+     *                   which spreads the refreshes of different devices over time
+     * @param unit       time unit of leadTime and maxJitter
+     */
+    public synchronized void enableProactiveRefresh(long leadTime, long maxJitter,
+                                                    @NonNull TimeUnit unit) {
+        Log.d(TAG,"enableProactiveRefresh() id=" + getId());
+        disableProactiveRefresh();
+        mRefreshScheduler = new RefreshScheduler(mContext.getApplicationContext(), mData,
+                new Runnable() {
+                    @Override
+                    public void run() {
+                        scheduledRefresh();
+                    }
+                },
+                unit.toMillis(leadTime), unit.toMillis(maxJitter));
+        if (!mData.getListeners().isEmpty()) {
+            mRefreshScheduler.start();
+        }
+    }
+
+    /**
+     * Disables proactive refreshing enabled with enableProactiveRefresh().
+     */
+    public synchronized void disableProactiveRefresh() {
+        if (mRefreshScheduler != null) {
+            mRefreshScheduler.stop();
+            mRefreshScheduler = null;
+        }
+    }
+
+    // called by RefreshScheduler in its background thread
+    private void scheduledRefresh() {
+        if (mData == null || !isInitialized() ||
+                !ConnectionUtilities.isNetworkAvailable(mContext)) {
+            Log.d(TAG,"scheduledRefresh(): skipped");
+            rescheduleRefresh();
+            return;
+        }
+        refreshTokens(new TokenRefreshCallback() {
+            @Override
+            public void tokenRefreshCallback(@Nullable Session session,
+                                             @Nullable SessionError error) {
+                rescheduleRefresh();
+            }
+        });
+    }
+
+    private synchronized void rescheduleRefresh() {
+        if (mRefreshScheduler != null) {
+            mRefreshScheduler.reschedule();
+        }
+    }
+
+    /**
+     * Sets retry policy for token refreshes.  Only transient errors (server and network
+     * errors) are retried.  Applies to all SessionManager instances of the process.
+     * @param retryPolicy  e.g. RetryPolicy.DEFAULT (default) or RetryPolicy.NO_RETRIES
+     */
+    public void setRetryPolicy(@NonNull RetryPolicy retryPolicy) {
+        mData.setRetryPolicy(retryPolicy);
+    }
+
+    /**
+     * Sets HTTP transport for all calls to the identity provider: discovery, code exchange,
+     * token refresh and the refresh done before logout.  Applies to all SessionManager
+     * instances of the process.  The default is PooledIdpTransport, which reuses connections.
+     * @param transport  transport, e.g. one that shares the application's connection pool
+     */
+    public void setTransport(@NonNull IdpTransport transport) {
+        mData.setTransport(Preconditions.checkNotNull(transport));
+    }
+
+    /**
+     * Enables pre-warming of the token endpoint connection.  When initialize() knows the
+     * discovery document, DNS lookup and TCP and TLS handshakes to the token endpoint are done
+     * in a background thread, so that the first token refresh does not pay for them.  Applies
+     * to all SessionManager instances of the process.
+     * @param callback  receives setup times in the main thread, can be null
+     */
+    public void enableConnectionPrewarm(@Nullable ConnectionPrewarmCallback callback) {
+        mData.setPrewarm(true, callback);
+    }
+
+    /**
+     * Disables pre-warming enabled with enableConnectionPrewarm().
+     */
+    public void disableConnectionPrewarm() {
+        mData.setPrewarm(false, null);
+    }
+
+    /**
+     * Writes pending session state changes to permanent storage synchronously.  Changes are
+     * otherwise written in a background thread shortly after they are made.  Done
+     * automatically on logout, session reset and when the last session listener is removed.
+     */
+    public void flush() {
+        mData.flush();
+    }
+
+    /**
+     * Returns statistics of writes of session state to permanent storage.  Only fields
+     * changed since the previous write are serialized and written.
+     * @return snapshot of statistics
+     */
+    public PersistenceStatistics getPersistenceStatistics() {
+        return mData.getPersistenceStatistics();
+    }
+
+    /**
+     * Returns the circuit breaker of the identity provider's token endpoint.  While the
+     * breaker is open, refreshes fail fast with SESSION_REFRESH_CIRCUIT_OPEN_ERROR.
+     * @return circuit breaker, e.g. for querying state or configuring thresholds
+     */
+    public CircuitBreaker getCircuitBreaker() {
+        return CircuitBreaker.forIdp(mData.getIdp());
+    }
+
+    /**
+     * Returns statistics on token refreshes made by this process, e.g. how many callers each
+     * round trip to the token endpoint has served.
+     * @return statistics snapshot
+     */
+    public TokenRefreshStatistics getTokenRefreshStatistics() {
+        return mData.getRefreshCoordinator().getStatistics();
     }
 
     /**
@@ -448,7 +1168,7 @@ public class SessionManager {
             return;
         }
 
-        if (mData.getAuthState().getNeedsTokenRefresh()) {
+        if (mData.getNeedsTokenRefresh()) {
             refreshTokens(callback);
         } else {
             new Handler(Looper.getMainLooper()).post(new Runnable() {
@@ -460,6 +1180,75 @@ public class SessionManager {
         }
     }
 
+    /**
+     * Returns an access token for the given scopes, which should be a subset of the scope
+     * given in IdentityProvider.  Tokens are minted with the refresh token and cached per
+     * scope set (bounded LRU, also persisted), so the network is used only when the cached
+     * token is within the refresh-ahead margin (IdentityProvider.setRefreshAhead()) of
+     * expiring.  Concurrent requests for the same scope set share a single
+     * round trip.
+     *
+     * @param scopes    scopes for the token, e.g. "vcbe_virtual_cards_post"
+     * @param callback  will return token or error in the main thread; errors are the same
+     *                  as with getFreshSession()
+     */
+    public void getFreshSession(@NonNull Collection<String> scopes,
+                                @NonNull final ScopedTokenCallback callback) {
+        Log.d(TAG,"getFreshSession(): scopes=" + scopes);
+        final String scopeKey = ScopedToken.scopeKey(scopes);
+        if (!checkNetwork(null)) {
+            postScopedTokenResult(callback, null,
+                    new SessionError(ErrorCode.SESSION_REFRESH_NETWORK_ERROR,
+                            "Cannot perform action because network was lost"));
+            return;
+        }
+        if (!checkInitialized(null)) {
+            postScopedTokenResult(callback, null,
+                    new SessionError(ErrorCode.SESSION_REFRESH_NO_SESSION_ERROR,
+                            "Cannot refresh session because no previous session"));
+            return;
+        }
+
+        final ScopedTokenCache cache = mData.getScopedTokens();
+        ScopedToken token = cache.get(scopeKey, mData.getRefreshAheadMs());
+        if (token != null) {
+            postScopedTokenResult(callback, token, null);
+            return;
+        }
+
+        final TokenRefreshCoordinator coordinator = mData.getScopedRefreshCoordinator(scopeKey);
+        boolean leader = coordinator.join(new TokenRefreshCoordinator.Waiter() {
+            @Override
+            public void onRefreshCompleted(@Nullable AuthorizationException ex) {
+                if (ex == null) {
+                    postScopedTokenResult(callback, cache.get(scopeKey, 0), null);
+                } else {
+                    postScopedTokenResult(callback, null, new SessionError(
+                            SessionError.getSessionRefreshErrorCode(ex),
+                            "failed to refresh scoped token", ex));
+                }
+            }
+        });
+        if (leader) {
+            coordinator.execute(new Runnable() {
+                @Override
+                public void run() {
+                    performScopedRefresh(coordinator, scopeKey);
+                }
+            });
+        }
+    }
+
+    private static void postScopedTokenResult(@NonNull final ScopedTokenCallback callback,
+                                              @Nullable final ScopedToken token,
+                                              @Nullable final SessionError error) {
+        new Handler(Looper.getMainLooper()).post(new Runnable() {
+            public void run() {
+                callback.scopedTokenCallback(token, error);
+            }
+        });
+    }
+
     /**
      * Will always try to refresh tokens.  Similar to getFreshSession().
      *
@@ -484,6 +1273,82 @@ public class SessionManager {
         refreshTokens(callback);
     }
 
+    /**
+     * Future based variant of getFreshSession().  The returned future completes in the thread
+     * that finishes the refresh (or in the calling thread if no refresh is needed).
+     * @return future for the session
+     */
+    public SessionFuture getFreshSessionAsync() {
+        return getFreshSessionAsync(SessionFuture.DIRECT_EXECUTOR);
+    }
+
+    /**
+     * Future based variant of getFreshSession().  Futures can be chained with then(), given a
+     * timeout with withTimeout() and waited for in bulk with SessionFuture.awaitAll().
+     *
+     * @param executor  executor on which the future's callbacks and continuations are run
+     * @return future for the session; on failure fails with the same SessionError as
+     *         getFreshSession()
+     */
+    public SessionFuture getFreshSessionAsync(@NonNull Executor executor) {
+        Log.d(TAG,"getFreshSessionAsync()");
+        SessionFuture future = new SessionFuture(executor);
+        if (!checkFutureReady(future)) {
+            return future;
+        }
+        if (mData.getNeedsTokenRefresh()) {
+            joinRefresh(createFutureWaiter(future));
+        } else {
+            future.complete(new Session(mContext), null);
+        }
+        return future;
+    }
+
+    /**
+     * Future based variant of refreshSession(), will always try to refresh tokens.
+     *
+     * @param executor  executor on which the future's callbacks and continuations are run
+     * @return future for the session
+     */
+    public SessionFuture refreshSessionAsync(@NonNull Executor executor) {
+        Log.d(TAG,"refreshSessionAsync()");
+        SessionFuture future = new SessionFuture(executor);
+        if (checkFutureReady(future)) {
+            joinRefresh(createFutureWaiter(future));
+        }
+        return future;
+    }
+
+    // same checks as with getFreshSession(), but errors are delivered through the future
+    private boolean checkFutureReady(@NonNull SessionFuture future) {
+        if (!checkNetwork(null)) {
+            future.complete(null, new SessionError(ErrorCode.SESSION_REFRESH_NETWORK_ERROR,
+                    "Cannot perform action because network was lost"));
+            return false;
+        }
+        if (!checkInitialized(null)) {
+            future.complete(null, new SessionError(ErrorCode.SESSION_REFRESH_NO_SESSION_ERROR,
+                    "Cannot refresh session because no previous session"));
+            return false;
+        }
+        return true;
+    }
+
+    private TokenRefreshCoordinator.Waiter createFutureWaiter(final SessionFuture future) {
+        return new TokenRefreshCoordinator.Waiter() {
+            @Override
+            public void onRefreshCompleted(@Nullable AuthorizationException ex) {
+                if (ex == null) {
+                    future.complete(new Session(mContext), null);
+                } else {
+                    future.complete(null, new SessionError(
+                            SessionError.getSessionRefreshErrorCode(ex),
+                            "failed to refresh tokens", ex));
+                }
+            }
+        };
+    }
+
     /**
      *  Will reset session and other state (e.g. tokens, discovery doc)
      */
@@ -492,6 +1357,19 @@ public class SessionManager {
         mData.sessionReset();
     }
 
+    /**
+     * Starts loading the saved session in a background thread.  Call from
+     * Application.onCreate(), so that creating the first SessionManager or Session on the main
+     * thread does not read and parse session state from disk.  If loading has not completed
+     * by then, they wait for it.  Optional; calling more than once has no effect.
+     *
+     * @param context  any context, application context is used
+     */
+    public static void preload(@NonNull Context context) {
+        Log.d(TAG,"preload()");
+        Data.preload(context.getApplicationContext());
+    }
+
     /**
      *  Will reset all data.  This can be used when no activities exist.
      */
@@ -553,32 +1431,27 @@ public class SessionManager {
             return;
         }
 
-        mAuthService.performTokenRequest(
-            mData.getAuthState().createTokenRefreshRequest(),
-            new ClientSecretBasic(mData.getIdp().getClientSecret()),
-            new AuthorizationService.TokenResponseCallback() {
-                @Override
-                public void onTokenRequestCompleted(
-                        @Nullable TokenResponse response,
-                        @Nullable AuthorizationException ex) {
-                    if (ex != null) {
-                        Log.e(TAG, "logout refreshSession failed err=" + ex.getMessage());
-                        mData.sessionReset();
-                    } else {
-                        Log.d(TAG, "logout refreshSession ok");
-                        //noinspection ConstantConditions
-                        mData.getAuthState().update(response, ex);
-
-                        //noinspection ConstantConditions
-                        mLogoutService.performLogoutRequest(mData.getAuthState().getIdToken(),
-                                mData.getIdp(),
-                                mData.getLogoutEndPoint(),
-                                intent,
-                                mAuthService.createCustomTabsIntentBuilder()
-                                        .build());
-                    }
+        // shares the refresh with any other refresh in flight, since refresh token may rotate;
+        // a refresh started here is not reported to listeners
+        refreshTokens(new TokenRefreshCallback() {
+            @Override
+            public void tokenRefreshCallback(@Nullable Session session,
+                                             @Nullable SessionError error) {
+                if (error != null) {
+                    Log.e(TAG, "logout refreshSession failed err=" + error.getErrorMessage());
+                    mData.sessionReset();
+                } else {
+                    Log.d(TAG, "logout refreshSession ok");
+                    //noinspection ConstantConditions
+                    mLogoutService.performLogoutRequest(mData.getAuthState().getIdToken(),
+                            mData.getIdp(),
+                            mData.getLogoutEndPoint(),
+                            intent,
+                            mAuthService.createCustomTabsIntentBuilder()
+                                    .build());
                 }
-            });
+            }
+        }, true);
 
     }
     // checks network status and returns didLoseNetwork or didGainNetwork callback if status has
@@ -654,27 +1527,35 @@ public class SessionManager {
         return true;
     }
     private void callListenerOnInitializeResult(final Session session, final SessionError error) {
+        callListenerOnInitializeResult(mData, session, error);
+    }
+
+    private void callListenerOnInitializeResult(final Data data, final Session session,
+                                                final SessionError error) {
+        if (session != null) {
+            rescheduleRefresh();  // token expiration may have changed
+        }
 
         new Handler(Looper.getMainLooper()).post(new Runnable() {
             public void run() {
-                if (mData.getInitOngoing()) {
-                    mData.setInitOngoing(false);
-                    mData.saveData();
-                    for (SessionListener listener : mData.getListeners()) {
+                if (data.getInitOngoing()) {
+                    data.setInitOngoing(false);
+                    data.saveData();
+                    for (SessionListener listener : data.getListeners()) {
                         Log.d(TAG,"callListenerOnInitializeResult(): calling initialized");
                         listener.initialized(session, error);
                     }
                 } else {
-                    if (mData.getListeners().isEmpty()) {
+                    if (data.getListeners().isEmpty()) {
                         Log.e(TAG,"callListenerOnInitializeResult()  no listeners!");
                     }
                     if (session != null) {
-                        for (SessionListener listener : mData.getListeners()) {
+                        for (SessionListener listener : data.getListeners()) {
                             Log.d(TAG,"callListenerOnInitializeResult(): calling didRefreshSession");
                             listener.didRefreshSession(session);
                         }
                     } else {
-                        for (SessionListener listener : mData.getListeners()) {
+                        for (SessionListener listener : data.getListeners()) {
                             Log.d(TAG,"callListenerOnInitializeResult(): calling didLoseSession");
                             listener.didLoseSession(error);
                         }
@@ -705,6 +1586,9 @@ public class SessionManager {
         } catch (Exception ex) {
             Log.e(TAG,"addSessionListener(): exception when adding receiver" , ex);
         }
+        if (mRefreshScheduler != null) {
+            mRefreshScheduler.start();
+        }
     }
 
     /**
@@ -730,6 +1614,13 @@ public class SessionManager {
         } else {
             Log.w(TAG,"removeSessionListener():  called with unknown handle!");
         }
+        // no listeners means no started activities, ie. app is in background
+        if (mData.getListeners().isEmpty()) {
+            mData.flush();
+            if (mRefreshScheduler != null) {
+                mRefreshScheduler.pause();
+            }
+        }
     }
 
     /**
@@ -834,4 +1725,19 @@ public class SessionManager {
     public interface TokenRefreshCallback {
         void tokenRefreshCallback(@Nullable Session session, @Nullable SessionError error);
     }
+
+    /**
+     * Callback for getFreshSession(scopes, callback).
+     * If successful token returned, otherwise SessionError
+     */
+    public interface ScopedTokenCallback {
+        void scopedTokenCallback(@Nullable ScopedToken token, @Nullable SessionError error);
+    }
+
+    /**
+     * Callback for enableConnectionPrewarm(), called once per pre-warm.
+     */
+    public interface ConnectionPrewarmCallback {
+        void connectionPrewarmed(@NonNull ConnectionPrewarmMetrics metrics);
+    }
 }
@@ -0,0 +1,157 @@
+package org.vaultit.mobilesso.mobilessosdk;
+
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import net.openid.appauth.AuthState;
+import net.openid.appauth.TokenResponse;
+
+import java.util.Objects;
+
+/**
+ * Immutable view of the session tokens at one point in time, see Session.getSnapshot().
+ * A new snapshot is published after each change of the session, so a caller can pin one for
+ * a whole request and get tokens, expiry and status which belong together.  Reading a
+ * snapshot takes no locks.
+ *
+ * The version increases with each change of the session within the process; snapshots with
+ * the same version have the same state.  The ID token payload is shared and must not be
+ * modified.
+ *
+ * Snapshots are equal if they have the same access, refresh and ID tokens.  Equality and
+ * hashing use a fingerprint of the tokens computed when the snapshot is created, so they are
+ * cheap, and a snapshot can be used as a cache key.
+ */
+public final class SessionSnapshot {
+    // tolerance for clock difference between device and identity provider
+    static final long CLOCK_SKEW_TOLERANCE_MS = 120000L;
+    // getIdTokenExpirationMs() when there are no tokens
+    static final long NO_SESSION = Long.MIN_VALUE;
+
+    private final long mVersion;
+    private final boolean mAuthorized;
+    private final String mAccessToken;
+    private final Long mAccessTokenExpirationTime;
+    private final String mRefreshToken;
+    private final String mIdToken;
+    private final String mScope;
+    private final IdTokenPayload mIdTokenPayload;
+    private final long mIdTokenExpirationMs;
+    private final long mFingerprint;
+
+    // created by Data while holding its lock
+    SessionSnapshot(long version, @NonNull AuthState authState,
+                    @Nullable IdTokenPayload idTokenPayload) {
+        TokenResponse last = authState.getLastTokenResponse();
+        mVersion = version;
+        mAuthorized = authState.isAuthorized();
+        mAccessToken = (last != null ? last.accessToken : null);
+        mAccessTokenExpirationTime = authState.getAccessTokenExpirationTime();
+        mRefreshToken = (last != null ? last.refreshToken : null);
+        mIdToken = (last != null ? last.idToken : null);
+        mScope = (last != null ? last.scope : null);
+        mIdTokenPayload = idTokenPayload;
+        mIdTokenExpirationMs = (mAuthorized && idTokenPayload != null &&
+                authState.getAccessToken() != null ? idTokenPayload.exp * 1000 : NO_SESSION);
+        mFingerprint = fingerprint(mAccessToken) * 31 * 31 + fingerprint(mRefreshToken) * 31 +
+                fingerprint(mIdToken);
+    }
+
+    /**
+     * Increases with each change of the session within the process.
+     */
+    public long getVersion() {
+        return mVersion;
+    }
+
+    /**
+     * True if at least either an access token or an ID token had been retrieved.
+     */
+    public boolean isAuthorized() {
+        return mAuthorized;
+    }
+
+    /**
+     * Access token of the last token response.
+     */
+    @Nullable
+    public String getAccessToken() {
+        return mAccessToken;
+    }
+
+    /**
+     * Access token expiration time in epoch milliseconds, null if not known.
+     */
+    @Nullable
+    public Long getAccessTokenExpirationTime() {
+        return mAccessTokenExpirationTime;
+    }
+
+    @Nullable
+    public String getRefreshToken() {
+        return mRefreshToken;
+    }
+
+    @Nullable
+    public String getIdToken() {
+        return mIdToken;
+    }
+
+    @Nullable
+    public String getScope() {
+        return mScope;
+    }
+
+    @Nullable
+    public IdTokenPayload getIdTokenPayload() {
+        return mIdTokenPayload;
+    }
+
+    /**
+     * ID token expiration time in epoch milliseconds, NO_SESSION if there is no session.
+     */
+    long getIdTokenExpirationMs() {
+        return mIdTokenExpirationMs;
+    }
+
+    /**
+     * Session status at the current time, see Session.getStatus().  Allocates nothing.
+     */
+    @NonNull
+    public Session.SessionStatus getStatus() {
+        if (mIdTokenExpirationMs == NO_SESSION) {
+            return Session.SessionStatus.NO_SESSION;
+        }
+        if (System.currentTimeMillis() > mIdTokenExpirationMs + CLOCK_SKEW_TOLERANCE_MS) {
+            return Session.SessionStatus.EXPIRED;
+        } else {
+            return Session.SessionStatus.VALID;
+        }
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if (obj == this) {
+            return true;
+        }
+        if (!(obj instanceof SessionSnapshot)) {
+            return false;
+        }
+        SessionSnapshot other = (SessionSnapshot) obj;
+        // tokens are compared only if fingerprints match; usually the same string instances
+        return mFingerprint == other.mFingerprint &&
+                Objects.equals(mAccessToken, other.mAccessToken) &&
+                Objects.equals(mRefreshToken, other.mRefreshToken) &&
+                Objects.equals(mIdToken, other.mIdToken);
+    }
+
+    @Override
+    public int hashCode() {
+        return (int) (mFingerprint ^ (mFingerprint >>> 32));
+    }
+
+    private static long fingerprint(@Nullable String token) {
+        return (token != null ? IdTokenPayloadCache.fingerprint(token) : 0);
+    }
+}
@@ -0,0 +1,101 @@
+package org.vaultit.mobilesso.mobilessosdk;
+
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+/**
+ * Permanent storage of session state, used by Data.  Key-value records of String and
+ * boolean type, with changes committed atomically through an Editor: after a crash the
+ * store has either all or none of the changes of a commit.
+ *
+ * The store may be shared by several processes of the application.  A commit is merged with
+ * records committed by other processes, and reloadIfChanged() picks up their commits.
+ */
+interface SessionStore {
+
+    @Nullable
+    String getString(@NonNull String key);
+
+    boolean getBoolean(@NonNull String key, boolean defValue);
+
+    boolean contains(@NonNull String key);
+
+    @NonNull
+    Editor edit();
+
+    /**
+     * Checks whether another process has committed since records were read, and if so,
+     * reads them again on next access.  Cheap when nothing has changed.
+     *
+     * @return true if records changed
+     */
+    boolean reloadIfChanged();
+
+    /**
+     * Acquires lock which is exclusive across all processes of the application, e.g. for
+     * token refresh.  Blocks until acquired.
+     */
+    @NonNull
+    ProcessLock lockAcrossProcesses();
+
+    /**
+     * Like lockAcrossProcesses(), but waits at most timeoutMs.
+     *
+     * @return lock, or null if not acquired in time
+     */
+    @Nullable
+    ProcessLock tryLockAcrossProcesses(long timeoutMs);
+
+    /**
+     * Lock returned by lockAcrossProcesses(), released in the thread which acquired it.
+     */
+    interface ProcessLock {
+        void release();
+    }
+
+    /**
+     * Collects changes, which are written by commit().  As with SharedPreferences, clear()
+     * is done first regardless of the order of the calls.
+     */
+    interface Editor {
+        /**
+         * @param value  value, null removes the record
+         */
+        @NonNull
+        Editor putString(@NonNull String key, @Nullable String value);
+
+        @NonNull
+        Editor putBoolean(@NonNull String key, boolean value);
+
+        @NonNull
+        Editor remove(@NonNull String key);
+
+        @NonNull
+        Editor clear();
+
+        /**
+         * Makes commit() fail with nothing written if the record does not have the expected
+         * value, ie. another process has changed it since it was read.  Not checked if
+         * clear() is called.
+         *
+         * @param expected  expected value, null if the record is expected to be absent
+         */
+        @NonNull
+        Editor expectString(@NonNull String key, @Nullable String expected);
+
+        /**
+         * Writes changes synchronously.
+         *
+         * @return true if changes are on disk, false if write failed or a record did not have
+         *         the value given to expectString(), and nothing changed
+         */
+        boolean commit();
+
+        /**
+         * Number of bytes the last successful commit() wrote to disk, 0 if none.  A commit
+         * rewrites the whole store, not only the changed records.
+         */
+        int getBytesWritten();
+    }
+}
@@ -0,0 +1,201 @@
+package org.vaultit.mobilesso.mobilessosdk;
+
+
+import android.net.Uri;
+import android.support.annotation.NonNull;
+import android.support.annotation.WorkerThread;
+import android.util.Log;
+
+import net.openid.appauth.AuthorizationException;
+import net.openid.appauth.AuthorizationException.GeneralErrors;
+import net.openid.appauth.AuthorizationException.TokenRequestErrors;
+import net.openid.appauth.ClientAuthentication;
+import net.openid.appauth.TokenRequest;
+import net.openid.appauth.TokenResponse;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.net.HttpURLConnection;
+import java.net.URLEncoder;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Performs token requests synchronously in the calling thread.  AppAuth's
+ * AuthorizationService.performTokenRequest() always delivers its result through the main
+ * looper, which is not usable from worker threads that block waiting for a session.
+ *
+ * Errors are reported with the same AuthorizationException values AppAuth uses, so that
+ * they map to the same SessionError codes.
+ */
+class TokenEndpointClient {
+    private static final String TAG = "TokenEndpointClient";
+
+    private static final int READ_BUFFER_SIZE = 1024;
+    private static final int HTTP_SERVER_ERROR = 500;
+    private static final String KEY_ERROR = "error";
+    private static final String KEY_ERROR_DESCRIPTION = "error_description";
+    private static final String KEY_ERROR_URI = "error_uri";
+
+    private final Data mData;
+
+    /**
+     * Connection to the token endpoint could not be set up, so the request was not sent.
+     * Cause of the NETWORK_ERROR AuthorizationException; only these are safe to retry, as
+     * a refresh token is spent once the identity provider has received the request.
+     */
+    static class NotSentException extends IOException {
+        NotSentException(@NonNull IOException cause) {
+            super(cause.getMessage(), cause);
+        }
+    }
+
+    /**
+     * @param data  session data, provides the transport
+     */
+    TokenEndpointClient(@NonNull Data data) {
+        mData = data;
+    }
+
+    /**
+     * Performs token request with the transport's timeouts.
+     */
+    @WorkerThread
+    @NonNull
+    TokenResponse performTokenRequest(@NonNull TokenRequest request,
+                                      @NonNull ClientAuthentication clientAuth)
+            throws AuthorizationException {
+        return performTokenRequest(request, clientAuth, 0);
+    }
+
+    /**
+     * Performs token request.
+     *
+     * @param request       token request, e.g. AuthState.createTokenRefreshRequest()
+     * @param clientAuth    client authentication
+     * @param maxTimeoutMs  if positive, caps the transport's connect and read timeouts
+     * @return token response
+     * @throws AuthorizationException  on network, server or OAuth error
+     */
+    @WorkerThread
+    @NonNull
+    TokenResponse performTokenRequest(@NonNull TokenRequest request,
+                                      @NonNull ClientAuthentication clientAuth,
+                                      int maxTimeoutMs)
+            throws AuthorizationException {
+        Uri tokenEndpoint = request.configuration.tokenEndpoint;
+        Log.d(TAG,"performTokenRequest(): " + tokenEndpoint);
+        HttpURLConnection conn;
+        InputStream is = null;
+        try {
+            conn = TransportConnectionBuilder.openHttpsConnection(mData.getTransport(),
+                    tokenEndpoint);
+            if (maxTimeoutMs > 0) {
+                conn.setConnectTimeout(capTimeout(conn.getConnectTimeout(), maxTimeoutMs));
+                conn.setReadTimeout(capTimeout(conn.getReadTimeout(), maxTimeoutMs));
+            }
+            conn.setRequestMethod("POST");
+            conn.setRequestProperty("Content-Type", "application/x-www-form-urlencoded");
+            conn.setRequestProperty("Accept", "application/json");
+            conn.setDoOutput(true);
+
+            Map<String, String> headers = clientAuth.getRequestHeaders(request.clientId);
+            if (headers != null) {
+                for (Map.Entry<String, String> header : headers.entrySet()) {
+                    conn.setRequestProperty(header.getKey(), header.getValue());
+                }
+            }
+
+            Map<String, String> params = new HashMap<>(request.getRequestParameters());
+            Map<String, String> clientAuthParams = clientAuth.getRequestParameters(request.clientId);
+            if (clientAuthParams != null) {
+                params.putAll(clientAuthParams);
+            }
+            byte[] body = formUrlEncode(params).getBytes("UTF-8");
+            conn.setFixedLengthStreamingMode(body.length);
+            try {
+                conn.connect();
+            } catch (IOException ex) {
+                throw new NotSentException(ex);
+            }
+            OutputStream os = conn.getOutputStream();
+            try {
+                os.write(body);
+            } finally {
+                os.close();
+            }
+
+            int status = conn.getResponseCode();
+            ConnectionPrewarmer.markWarm(tokenEndpoint);
+            is = (status < HttpURLConnection.HTTP_BAD_REQUEST ?
+                    conn.getInputStream() : conn.getErrorStream());
+            String response = (is != null ? readStream(is) : "");
+
+            if (status >= HTTP_SERVER_ERROR) {
+                Log.e(TAG,"performTokenRequest(): server error, status=" + status);
+                throw AuthorizationException.fromTemplate(GeneralErrors.SERVER_ERROR, null);
+            }
+
+            JSONObject json = new JSONObject(response);
+            if (json.has(KEY_ERROR)) {
+                String error = json.getString(KEY_ERROR);
+                Log.d(TAG,"performTokenRequest(): OAuth error=" + error);
+                throw AuthorizationException.fromOAuthTemplate(
+                        TokenRequestErrors.byString(error),
+                        error,
+                        json.optString(KEY_ERROR_DESCRIPTION, null),
+                        json.has(KEY_ERROR_URI) ? Uri.parse(json.getString(KEY_ERROR_URI)) : null);
+            }
+            return new TokenResponse.Builder(request).fromResponseJson(json).build();
+        } catch (IOException ex) {
+            Log.d(TAG,"performTokenRequest(): network error", ex);
+            throw AuthorizationException.fromTemplate(GeneralErrors.NETWORK_ERROR, ex);
+        } catch (JSONException ex) {
+            Log.d(TAG,"performTokenRequest(): malformed response", ex);
+            throw AuthorizationException.fromTemplate(GeneralErrors.JSON_DESERIALIZATION_ERROR, ex);
+        } finally {
+            // keeps connection alive for the next request
+            PooledIdpTransport.release(is);
+        }
+    }
+
+    // 0 means infinite timeout
+    static int capTimeout(int timeoutMs, int maxTimeoutMs) {
+        return (timeoutMs <= 0 ? maxTimeoutMs : Math.min(timeoutMs, maxTimeoutMs));
+    }
+
+    private static String formUrlEncode(Map<String, String> params)
+            throws UnsupportedEncodingException {
+        StringBuilder sb = new StringBuilder();
+        for (Map.Entry<String, String> param : params.entrySet()) {
+            if (param.getValue() == null) {
+                continue;
+            }
+            if (sb.length() > 0) {
+                sb.append('&');
+            }
+            sb.append(URLEncoder.encode(param.getKey(), "UTF-8"))
+                    .append('=')
+                    .append(URLEncoder.encode(param.getValue(), "UTF-8"));
+        }
+        return sb.toString();
+    }
+
+    static String readStream(InputStream stream) throws IOException {
+        BufferedReader br = new BufferedReader(new InputStreamReader(stream, "UTF-8"));
+        char[] buffer = new char[READ_BUFFER_SIZE];
+        StringBuilder sb = new StringBuilder();
+        int readCount;
+        while ((readCount = br.read(buffer)) != -1) {
+            sb.append(buffer, 0, readCount);
+        }
+        return sb.toString();
+    }
+}
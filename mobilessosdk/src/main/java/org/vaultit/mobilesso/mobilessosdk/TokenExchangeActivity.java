@@ -42,7 +42,8 @@ public class TokenExchangeActivity extends AppCompatActivity {
                 .setBrowserMatcher(new BrowserWhitelist(
                         VersionedBrowserMatcher.CHROME_CUSTOM_TAB))
                 .build();*/
-        mAuthService = new AuthorizationService(mContext/*, appAuthConfig*/);
+        mAuthService = new AuthorizationService(mContext,
+                TransportConnectionBuilder.createAppAuthConfiguration(mData));
     }
     @Override
     protected void onStart() {
@@ -54,7 +55,7 @@ public class TokenExchangeActivity extends AppCompatActivity {
 
         if (response != null && response.authorizationCode != null) {
             Log.d(TAG, "onStart(): Received AuthorizationResponse (ie. code value)");
-            mData.getAuthState().update(response, ex);
+            mData.updateAuthState(response, ex);
             mData.saveData();
             exchangeAuthorizationCode(response,
                     new ClientSecretBasic(mData.getIdp().getClientSecret()));
@@ -127,36 +128,59 @@ public class TokenExchangeActivity extends AppCompatActivity {
             @Nullable TokenResponse tokenResponse,
             @Nullable AuthorizationException authException) {
 
-        mData.getAuthState().update(tokenResponse, authException);
+        mData.updateAuthState(tokenResponse, authException);
         // read and reset tokenResponseIntent
-        Intent intent = mData.getTokenResponseIntent();
+        final Intent intent = mData.getTokenResponseIntent();
         mData.setTokenResponseIntent(null);
-        // reset & renew idTokenPayload
-        mData.setIdTokenPayload(null);
-        IdTokenPayload idTokenPayload = mData.getIdTokenPayload();
+        // payload follows the new id token, decoded once
+        mData.getIdTokenPayload();
         mData.saveData();
 
         if (authException != null) {
             Log.d(TAG,"Authorization Code exchange failed " + authException.error);
             sendErrorIntent(intent, AUTHORIZATION_TOKEN_REQUEST_ERROR, "Authorization code exchange failed ",
                     authException);
-        } else {
-            Session session = new Session(mContext);
-            Log.d(TAG,"Authorization Code exchange successful; accessToken=" + session.getAccessToken());
-            if (session.validate()) {
-                // send any login notifications that have been registered for
-                Map<Long,NotificationReceiver> receivers = mData.getNotificationReceivers();
-                for (Map.Entry<Long, NotificationReceiver> entry : receivers.entrySet()) {
-                    entry.getValue().sendEvent(NotificationReceiver.EventType.LOGIN_COMPLETE);
-                }
-                // session object not included in intent; the recipient must call
-                // SessionManager.getSession() for it
-                startActivity(intent);
-            } else {
-                Log.e(TAG,"Error: Session cannot be validated");
-                sendErrorIntent(intent, AUTHORIZATION_ID_TOKEN_VALIDATE_ERROR, "The ID token was rejected",
-                        authException);
+            finish();
+            return;
+        }
+        // signature check may fetch the signing keys, so it is done in a background thread
+        //noinspection ConstantConditions
+        mData.getIdTokenVerifier().verifyAsync(mData.getTransport(),
+                mData.getAuthState().getAuthorizationServiceConfiguration(),
+                mData.getIdp().getClientId(), tokenResponse.idToken,
+                new IdTokenVerifier.Callback() {
+                    @Override
+                    public void idTokenVerified(@Nullable AuthorizationException ex) {
+                        handleIdTokenVerified(intent, ex);
+                    }
+                });
+    }
+
+    @MainThread
+    private void handleIdTokenVerified(Intent intent, @Nullable AuthorizationException ex) {
+        Session session = new Session(mContext);
+        Log.d(TAG,"Authorization Code exchange successful; accessToken=" + session.getAccessToken());
+        if (ex == null && session.validate()) {
+            // send any login notifications that have been registered for
+            Map<Long,NotificationReceiver> receivers = mData.getNotificationReceivers();
+            for (Map.Entry<Long, NotificationReceiver> entry : receivers.entrySet()) {
+                entry.getValue().sendEvent(NotificationReceiver.EventType.LOGIN_COMPLETE);
             }
+            // session object not included in intent; the recipient must call
+            // SessionManager.getSession() for it
+            startActivity(intent);
+        } else if (ex != null && !IdTokenVerifier.isIdTokenRejectedError(ex)) {
+            Log.e(TAG,"Error: ID token cannot be verified");
+            // login failed, so unverified tokens are not resumed by the next initialize()
+            mData.sessionReset();
+            sendErrorIntent(intent, SessionError.getAuthorizationErrorCode(ex),
+                    "The ID token could not be verified", ex);
+        } else {
+            Log.e(TAG,"Error: Session cannot be validated");
+            // tokens which did not validate are not kept
+            mData.sessionReset();
+            sendErrorIntent(intent, AUTHORIZATION_ID_TOKEN_VALIDATE_ERROR, "The ID token was rejected",
+                    ex);
         }
         finish();
     }
@@ -0,0 +1,118 @@
+package org.vaultit.mobilesso.mobilessosdk;
+
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+import android.util.Log;
+
+import net.openid.appauth.AuthorizationException;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Makes sure that at most one token refresh is in flight per process.  The first caller
+ * performs the network round trip, callers arriving while it is ongoing are queued and
+ * receive the result of that same round trip.
+ *
+ * With rotating refresh tokens this is required, since every refresh after the first one
+ * would otherwise use an already spent refresh token.
+ */
+class TokenRefreshCoordinator {
+    private static final String TAG = "TokenRefreshCoord";
+
+    // background threads for round trips started by asynchronous callers; the session and
+    // scoped refreshes have their own coordinators and serialize on the refresh token lock,
+    // so one waiting for a retry does not hold back the others
+    private static final Executor REFRESH_EXECUTOR = Executors.newCachedThreadPool(
+            new ThreadFactory() {
+                @Override
+                public Thread newThread(@NonNull Runnable r) {
+                    Thread thread = new Thread(r, "MobileSsoTokenRefresh");
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+
+    /**
+     * Receives the result of the round trip the caller joined.
+     */
+    interface Waiter {
+        void onRefreshCompleted(@Nullable AuthorizationException ex);
+    }
+
+    private final List<Waiter> mWaiters = new ArrayList<>();
+    private boolean mInFlight = false;
+    private int mCallerCount = 0;
+
+    // statistics
+    private long mRoundTrips = 0;
+    private long mCallersServed = 0;
+    private int mLastCallerCount = 0;
+    private int mMaxCallerCount = 0;
+
+    /**
+     * Joins the current refresh, or starts a new one if none is in flight.
+     *
+     * @param waiter  notified when the round trip completes, can be null if the caller is
+     *                only interested in the side effects (ie. updated AuthState)
+     * @return true if the caller must perform the round trip and call complete() afterwards,
+     *         false if the caller joined a round trip that is already in flight
+     */
+    synchronized boolean join(@Nullable Waiter waiter) {
+        mCallerCount++;
+        if (waiter != null) {
+            mWaiters.add(waiter);
+        }
+        if (mInFlight) {
+            Log.d(TAG,"join(): joined refresh in flight, callers=" + mCallerCount);
+            return false;
+        }
+        mInFlight = true;
+        return true;
+    }
+
+    /**
+     * Ends the round trip and notifies every waiter that joined it.  Must be called exactly
+     * once by the caller for which join() returned true.
+     *
+     * @param ex  null if refresh succeeded
+     */
+    void complete(@Nullable AuthorizationException ex) {
+        List<Waiter> waiters;
+        synchronized (this) {
+            waiters = new ArrayList<>(mWaiters);
+            mWaiters.clear();
+            mRoundTrips++;
+            mCallersServed += mCallerCount;
+            mLastCallerCount = mCallerCount;
+            mMaxCallerCount = Math.max(mMaxCallerCount, mCallerCount);
+            mCallerCount = 0;
+            mInFlight = false;
+        }
+        Log.d(TAG,"complete(): round trip served " + mLastCallerCount + " callers, ok=" +
+                (ex == null));
+        for (Waiter waiter : waiters) {
+            waiter.onRefreshCompleted(ex);
+        }
+    }
+
+    /**
+     * Runs round trip in the background refresh thread.
+     */
+    void execute(@NonNull Runnable roundTrip) {
+        REFRESH_EXECUTOR.execute(roundTrip);
+    }
+
+    synchronized boolean isInFlight() {
+        return mInFlight;
+    }
+
+    synchronized TokenRefreshStatistics getStatistics() {
+        return new TokenRefreshStatistics(mRoundTrips, mCallersServed, mLastCallerCount,
+                mMaxCallerCount);
+    }
+}
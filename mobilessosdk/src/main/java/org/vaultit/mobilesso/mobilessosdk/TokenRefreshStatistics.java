@@ -0,0 +1,62 @@
+package org.vaultit.mobilesso.mobilessosdk;
+
+
+/**
+ * Snapshot of token refresh statistics, see SessionManager.getTokenRefreshStatistics().
+ * Shows how many callers each token endpoint round trip has served.
+ */
+public class TokenRefreshStatistics {
+    private final long roundTrips;
+    private final long callersServed;
+    private final int lastCallerCount;
+    private final int maxCallerCount;
+
+    TokenRefreshStatistics(long roundTrips, long callersServed, int lastCallerCount,
+                           int maxCallerCount) {
+        this.roundTrips = roundTrips;
+        this.callersServed = callersServed;
+        this.lastCallerCount = lastCallerCount;
+        this.maxCallerCount = maxCallerCount;
+    }
+
+    /**
+     * Number of token refresh round trips made to the token endpoint.
+     */
+    public long getRoundTrips() {
+        return roundTrips;
+    }
+
+    /**
+     * Total number of refresh callers served by all round trips.
+     */
+    public long getCallersServed() {
+        return callersServed;
+    }
+
+    /**
+     * Number of callers served by the latest round trip.
+     */
+    public int getLastCallerCount() {
+        return lastCallerCount;
+    }
+
+    /**
+     * Largest number of callers served by a single round trip.
+     */
+    public int getMaxCallerCount() {
+        return maxCallerCount;
+    }
+
+    /**
+     * Average number of callers per round trip, 0 if no refreshes have been made.
+     */
+    public double getAverageCallersPerRoundTrip() {
+        return roundTrips > 0 ? (double) callersServed / roundTrips : 0;
+    }
+
+    @Override
+    public String toString() {
+        return "roundTrips=" + roundTrips + " callersServed=" + callersServed +
+                " lastCallerCount=" + lastCallerCount + " maxCallerCount=" + maxCallerCount;
+    }
+}
@@ -0,0 +1,63 @@
+package org.vaultit.mobilesso.mobilessosdk;
+
+
+import android.net.Uri;
+import android.support.annotation.NonNull;
+
+import net.openid.appauth.AppAuthConfiguration;
+import net.openid.appauth.connectivity.ConnectionBuilder;
+
+import java.io.IOException;
+import java.net.HttpURLConnection;
+import java.net.ProtocolException;
+
+/**
+ * Adapts the current IdpTransport for AppAuth calls (code exchange).  The
+ * transport is looked up for each connection, so that SessionManager.setTransport() also
+ * applies to already created AuthorizationService instances.
+ *
+ * All SDK calls open connections with openHttpsConnection(), which permits only https, as
+ * AppAuth's default connection builder does, also with a custom transport.
+ */
+class TransportConnectionBuilder implements ConnectionBuilder {
+    private static final String HTTPS_SCHEME = "https";
+
+    private final Data mData;
+
+    TransportConnectionBuilder(@NonNull Data data) {
+        mData = data;
+    }
+
+    /**
+     * Creates AppAuth configuration which routes AuthorizationService calls through
+     * the transport.
+     */
+    @NonNull
+    static AppAuthConfiguration createAppAuthConfiguration(@NonNull Data data) {
+        return new AppAuthConfiguration.Builder()
+                .setConnectionBuilder(new TransportConnectionBuilder(data))
+                .build();
+    }
+
+    @NonNull
+    @Override
+    public HttpURLConnection openConnection(@NonNull Uri uri) throws IOException {
+        return openHttpsConnection(mData.getTransport(), uri);
+    }
+
+    /**
+     * Opens connection with the transport.  Endpoints come from the discovery document or
+     * the configuration, and requests carry credentials and tokens, so plain http is refused
+     * before the transport is called.
+     *
+     * @throws ProtocolException if uri is not https
+     */
+    @NonNull
+    static HttpURLConnection openHttpsConnection(@NonNull IdpTransport transport,
+                                                 @NonNull Uri uri) throws IOException {
+        if (!HTTPS_SCHEME.equals(uri.getScheme())) {
+            throw new ProtocolException("only https connections are permitted: " + uri);
+        }
+        return transport.openConnection(uri);
+    }
+}
@@ -0,0 +1,112 @@
+package org.vaultit.mobilesso.mobilessosdk;
+
+import android.net.Uri;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.net.HttpURLConnection;
+import java.nio.charset.Charset;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyLong;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+@RunWith(RobolectricTestRunner.class)
+@Config(manifest=Config.NONE)
+public class AuthenticatedHttpClientTest {
+    private static final Uri API = Uri.parse("https://api.example.com/resource");
+
+    private SessionManager mSessionManager;
+    private IdpTransport mTransport;
+    private AuthenticatedHttpClient mClient;
+
+    @Before
+    public void setUp() throws Exception {
+        mSessionManager = mock(SessionManager.class);
+        mTransport = mock(IdpTransport.class);
+        mClient = new AuthenticatedHttpClient(mSessionManager, mTransport, 1000);
+        Session stale = session("stale");
+        when(mSessionManager.getFreshSessionBlocking(anyLong(), any(TimeUnit.class)))
+                .thenReturn(stale);
+        Session fresh = session("fresh");
+        when(mSessionManager.refreshSessionBlocking(eq("stale"), anyLong(),
+                any(TimeUnit.class))).thenReturn(fresh);
+    }
+
+    @Test
+    public void requestIsRetriedOnceAfter401() throws Exception {
+        HttpURLConnection first = connection(401, "denied");
+        HttpURLConnection second = connection(200, "ok");
+        when(mTransport.openConnection(API)).thenReturn(first, second);
+
+        AuthenticatedHttpClient.Response response = mClient.get(API);
+
+        assertEquals(200, response.getStatusCode());
+        assertEquals("ok", response.getBodyAsString());
+        verify(first).setRequestProperty("Authorization", "Bearer stale");
+        verify(second).setRequestProperty("Authorization", "Bearer fresh");
+        verify(mSessionManager, times(1)).refreshSessionBlocking(eq("stale"), anyLong(),
+                any(TimeUnit.class));
+    }
+
+    @Test
+    public void second401IsReturned() throws Exception {
+        HttpURLConnection first = connection(401, "denied");
+        HttpURLConnection second = connection(401, "denied again");
+        when(mTransport.openConnection(API)).thenReturn(first, second);
+
+        AuthenticatedHttpClient.Response response = mClient.get(API);
+
+        assertEquals(401, response.getStatusCode());
+        assertEquals("denied again", response.getBodyAsString());
+        verify(mTransport, times(2)).openConnection(API);
+        verify(mSessionManager, times(1)).refreshSessionBlocking(anyString(), anyLong(),
+                any(TimeUnit.class));
+    }
+
+    @Test
+    public void tokenIsNotSentOverHttp() throws Exception {
+        Uri http = Uri.parse("http://api.example.com/resource");
+        try {
+            mClient.get(http);
+            fail("request made over http");
+        } catch (IOException ex) {
+            // expected
+        }
+        verify(mTransport, never()).openConnection(any(Uri.class));
+    }
+
+    private static Session session(String accessToken) {
+        Session session = mock(Session.class);
+        when(session.getAccessToken()).thenReturn(accessToken);
+        return session;
+    }
+
+    private static HttpURLConnection connection(int status, String body) throws IOException {
+        HttpURLConnection conn = mock(HttpURLConnection.class);
+        when(conn.getResponseCode()).thenReturn(status);
+        ByteArrayInputStream stream =
+                new ByteArrayInputStream(body.getBytes(Charset.forName("UTF-8")));
+        if (status < HttpURLConnection.HTTP_BAD_REQUEST) {
+            when(conn.getInputStream()).thenReturn(stream);
+        } else {
+            when(conn.getErrorStream()).thenReturn(stream);
+        }
+        return conn;
+    }
+}
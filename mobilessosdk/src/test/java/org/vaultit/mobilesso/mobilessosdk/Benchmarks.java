@@ -0,0 +1,43 @@
+package org.vaultit.mobilesso.mobilessosdk;
+
+import android.util.Log;
+
+import org.junit.Assume;
+
+import java.lang.management.ManagementFactory;
+
+/**
+ * Support for the microbenchmarks among the unit tests.  They are slow and depend on the
+ * JVM, so they are skipped unless enabled with the benchmark property, and results are
+ * logged with tag Benchmarks:
+ *
+ *     ./gradlew :mobilessosdk:testDebugUnitTest -Pbenchmark --tests '*BenchmarkTest' -i
+ */
+final class Benchmarks {
+    private static final String TAG = "Benchmarks";
+
+    private Benchmarks() {
+    }
+
+    static void assumeEnabled() {
+        Assume.assumeTrue("benchmarks run with -Pbenchmark",
+                Boolean.getBoolean("mobilesso.benchmark"));
+    }
+
+    /**
+     * @return HotSpot thread bean with allocation counting enabled; the test is skipped if
+     *         the JVM does not support it
+     */
+    static com.sun.management.ThreadMXBean allocationCounter() {
+        java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        Assume.assumeTrue(bean instanceof com.sun.management.ThreadMXBean);
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) bean;
+        Assume.assumeTrue(threads.isThreadAllocatedMemorySupported());
+        threads.setThreadAllocatedMemoryEnabled(true);
+        return threads;
+    }
+
+    static void report(String result) {
+        Log.i(TAG, result);
+    }
+}
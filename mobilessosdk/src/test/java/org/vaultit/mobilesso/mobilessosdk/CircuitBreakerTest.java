@@ -0,0 +1,141 @@
+package org.vaultit.mobilesso.mobilessosdk;
+
+import net.openid.appauth.AuthorizationException;
+import net.openid.appauth.AuthorizationException.GeneralErrors;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.net.ConnectException;
+import java.net.SocketTimeoutException;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.vaultit.mobilesso.mobilessosdk.SessionError.ErrorCode.SESSION_REFRESH_CIRCUIT_OPEN_ERROR;
+
+@RunWith(RobolectricTestRunner.class)
+@Config(manifest=Config.NONE)
+public class CircuitBreakerTest {
+
+    private static class TestBreaker extends CircuitBreaker {
+        long time = 1000;
+
+        @Override
+        long now() {
+            return time;
+        }
+    }
+
+    private static final AuthorizationException SERVER_ERROR =
+            AuthorizationException.fromTemplate(GeneralErrors.SERVER_ERROR, null);
+    private static final AuthorizationException TIMEOUT_ERROR =
+            AuthorizationException.fromTemplate(GeneralErrors.NETWORK_ERROR,
+                    new SocketTimeoutException());
+    private static final AuthorizationException NO_CONNECTION_ERROR =
+            AuthorizationException.fromTemplate(GeneralErrors.NETWORK_ERROR,
+                    new ConnectException());
+
+    @Test
+    public void opensAfterRepeatedFailuresAndFailsFast() throws Exception {
+        TestBreaker breaker = new TestBreaker();
+        breaker.configure(3, 10000);
+
+        for (int i = 0; i < 3; i++) {
+            assertTrue(breaker.allowRequest());
+            breaker.recordResult(i % 2 == 0 ? SERVER_ERROR : TIMEOUT_ERROR);
+        }
+        assertEquals(CircuitBreaker.State.OPEN, breaker.getState());
+        assertFalse(breaker.allowRequest());
+        assertEquals(10000, breaker.getRemainingCoolDownMs());
+    }
+
+    @Test
+    public void halfOpenAllowsSingleTrial() throws Exception {
+        TestBreaker breaker = new TestBreaker();
+        breaker.configure(1, 10000);
+        assertTrue(breaker.allowRequest());
+        breaker.recordResult(SERVER_ERROR);
+
+        breaker.time += 10000;
+        assertEquals(CircuitBreaker.State.HALF_OPEN, breaker.getState());
+        assertTrue(breaker.allowRequest());
+        assertFalse(breaker.allowRequest());
+
+        // failed trial opens breaker again
+        breaker.recordResult(SERVER_ERROR);
+        assertEquals(CircuitBreaker.State.OPEN, breaker.getState());
+
+        breaker.time += 10000;
+        assertTrue(breaker.allowRequest());
+        breaker.recordResult(null);
+        assertEquals(CircuitBreaker.State.CLOSED, breaker.getState());
+    }
+
+    @Test
+    public void connectivityAndOAuthErrorsDoNotOpenBreaker() throws Exception {
+        TestBreaker breaker = new TestBreaker();
+        breaker.configure(1, 10000);
+        breaker.allowRequest();
+        breaker.recordResult(NO_CONNECTION_ERROR);
+        breaker.allowRequest();
+        breaker.recordResult(AuthorizationException.TokenRequestErrors.INVALID_GRANT);
+        assertEquals(CircuitBreaker.State.CLOSED, breaker.getState());
+    }
+
+    @Test
+    public void connectivityErrorsDoNotCloseBreaker() throws Exception {
+        TestBreaker breaker = new TestBreaker();
+        breaker.configure(2, 10000);
+        breaker.allowRequest();
+        breaker.recordResult(SERVER_ERROR);
+        breaker.allowRequest();
+        breaker.recordResult(NO_CONNECTION_ERROR);  // count is kept
+        breaker.allowRequest();
+        breaker.recordResult(SERVER_ERROR);
+        assertEquals(CircuitBreaker.State.OPEN, breaker.getState());
+
+        // trial which did not reach the endpoint leaves breaker half open
+        breaker.time += 10000;
+        assertTrue(breaker.allowRequest());
+        breaker.recordResult(NO_CONNECTION_ERROR);
+        assertEquals(CircuitBreaker.State.HALF_OPEN, breaker.getState());
+        assertTrue(breaker.allowRequest());
+        breaker.recordResult(AuthorizationException.TokenRequestErrors.INVALID_GRANT);
+        assertEquals(CircuitBreaker.State.CLOSED, breaker.getState());
+    }
+
+    @Test
+    public void circuitOpenErrorMapsToErrorCode() throws Exception {
+        assertEquals(SESSION_REFRESH_CIRCUIT_OPEN_ERROR, SessionError.getSessionRefreshErrorCode(
+                AuthorizationException.fromTemplate(CircuitBreaker.CIRCUIT_OPEN_ERROR, null)));
+        assertFalse(RetryPolicy.DEFAULT.isRetryable(CircuitBreaker.CIRCUIT_OPEN_ERROR));
+    }
+
+    @Test
+    public void onlyUnsentRequestsAreRetried() throws Exception {
+        // may come after the refresh token was rotated
+        assertFalse(RetryPolicy.DEFAULT.isRetryable(SERVER_ERROR));
+        assertFalse(RetryPolicy.DEFAULT.isRetryable(TIMEOUT_ERROR));
+        assertFalse(RetryPolicy.DEFAULT.isRetryable(NO_CONNECTION_ERROR));
+        assertTrue(RetryPolicy.DEFAULT.isRetryable(AuthorizationException.fromTemplate(
+                GeneralErrors.NETWORK_ERROR,
+                new TokenEndpointClient.NotSentException(new ConnectException()))));
+    }
+
+    @Test
+    public void retryDelayIsCappedExponential() throws Exception {
+        RetryPolicy policy = new RetryPolicy(5, 500, 3000);
+        assertEquals(500, policy.getDelayCapMs(0));
+        assertEquals(1000, policy.getDelayCapMs(1));
+        assertEquals(2000, policy.getDelayCapMs(2));
+        assertEquals(3000, policy.getDelayCapMs(3));
+        assertEquals(3000, policy.getDelayCapMs(100));
+        for (int i = 0; i < 100; i++) {
+            long delay = policy.getDelayMs(2);
+            assertTrue(delay >= 0 && delay <= 2000);
+        }
+    }
+}
@@ -0,0 +1,174 @@
+package org.vaultit.mobilesso.mobilessosdk;
+
+import android.content.ComponentCallbacks2;
+import android.content.Intent;
+import android.net.Uri;
+
+import net.openid.appauth.AuthState;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+
+import java.io.File;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertTrue;
+
+@RunWith(RobolectricTestRunner.class)
+@Config(manifest=Config.NONE)
+public class DataPersistenceTest {
+
+    @Test
+    public void saveWritesOnlyChangedFields() throws Exception {
+        Data data = Data.create(RuntimeEnvironment.application);
+        data.flush();  // writes initial state
+        long saves = data.getPersistenceStatistics().getSaves();
+
+        data.flush();
+        assertEquals(saves, data.getPersistenceStatistics().getSaves());
+
+        data.setLogoutEndPoint(Uri.parse("https://idp.example.com/logout"));
+        data.flush();
+        PersistenceStatistics stats = data.getPersistenceStatistics();
+        assertEquals(saves + 1, stats.getSaves());
+        assertEquals(1, stats.getLastFieldsWritten());
+        // the whole file is rewritten
+        assertEquals(new File(RuntimeEnvironment.application.getFilesDir(),
+                Data.FILE_SESSION_STORE).length(), stats.getLastBytesWritten());
+    }
+
+    @Test
+    public void nullFieldIsRemoved() throws Exception {
+        Data data = Data.create(RuntimeEnvironment.application);
+        data.setLogoutEndPoint(Uri.parse("https://idp.example.com/logout"));
+        data.flush();
+        data.setLogoutEndPoint(null);
+        data.flush();
+
+        // read back from disk by a new store instance
+        SessionStore store = Data.openStore(RuntimeEnvironment.application);
+        assertFalse(store.contains("logoutEndpoint"));
+    }
+
+    @Test
+    public void savesInRowAreCoalesced() throws Exception {
+        Data data = Data.create(RuntimeEnvironment.application);
+        data.flush();
+        long saves = data.getPersistenceStatistics().getSaves();
+
+        data.setLogoutEndPoint(Uri.parse("https://idp.example.com/logout"));
+        data.saveData();
+        data.setInitOngoing(!data.getInitOngoing());
+        data.saveData();
+        assertEquals(saves, data.getPersistenceStatistics().getSaves());  // not yet written
+
+        data.flush();
+        PersistenceStatistics stats = data.getPersistenceStatistics();
+        assertEquals(saves + 1, stats.getSaves());
+        assertEquals(2, stats.getLastFieldsWritten());
+    }
+
+    @Test
+    public void lazilyDecodedFieldsSurviveSaves() throws Exception {
+        Data data = Data.create(RuntimeEnvironment.application);
+        data.setLogoutResponseIntent(new Intent(Intent.ACTION_VIEW, Uri.parse("app://logout")));
+        data.flush();
+
+        // not decoded by the new instance, but written back unchanged with other fields
+        Data loaded = Data.create(RuntimeEnvironment.application);
+        loaded.markDirty(Data.DIRTY_ALL);
+        loaded.flush();
+
+        Intent intent = Data.create(RuntimeEnvironment.application).getLogoutResponseIntent();
+        assertEquals(Uri.parse("app://logout"), intent.getData());
+        assertNotSame(data.getLogoutResponseIntent(), intent);
+    }
+
+    @Test
+    public void trimMemoryReleasesOnlySavedComponents() throws Exception {
+        Data data = Data.create(RuntimeEnvironment.application);
+        data.setLogoutResponseIntent(new Intent(Intent.ACTION_VIEW, Uri.parse("app://logout")));
+        data.flush();
+        data.setTokenResponseIntent(new Intent(Intent.ACTION_VIEW, Uri.parse("app://token")));
+
+        long decodes = data.getPersistenceStatistics().getDecodes();
+        data.trimMemory(ComponentCallbacks2.TRIM_MEMORY_UI_HIDDEN);
+        data.getLogoutResponseIntent();
+        assertEquals(decodes, data.getPersistenceStatistics().getDecodes());
+
+        data.trimMemory(ComponentCallbacks2.TRIM_MEMORY_BACKGROUND);
+        assertEquals(Uri.parse("app://logout"), data.getLogoutResponseIntent().getData());
+        assertEquals(decodes + 1, data.getPersistenceStatistics().getDecodes());
+        // unsaved change is kept
+        assertEquals(Uri.parse("app://token"), data.getTokenResponseIntent().getData());
+        assertEquals(decodes + 1, data.getPersistenceStatistics().getDecodes());
+    }
+
+    @Test
+    public void authStateOfOtherProcessWinsOverPendingChange() throws Exception {
+        // two instances of the same store stand for two processes
+        Data ui = Data.create(RuntimeEnvironment.application);
+        ui.setAuthState(createAuthState("r1"));
+        ui.flush();
+        Data sync = Data.create(RuntimeEnvironment.application);
+        sync.setAuthState(createAuthState("r2"));  // rotated refresh token
+        sync.flush();
+
+        ui.markAuthStateDirty();  // pending change made to the older state
+        ui.flush();
+        assertEquals("r2", ui.getAuthState().getRefreshToken());
+        assertEquals("r2", Data.create(RuntimeEnvironment.application).getAuthState()
+                .getRefreshToken());
+
+        sync.setAuthState(createAuthState("r3"));
+        sync.flush();
+        ui.markAuthStateDirty();
+        assertTrue(ui.reloadIfChanged());
+        assertEquals("r3", ui.getAuthState().getRefreshToken());
+    }
+
+    @Test
+    public void sessionResetTakesRevalidatedDiscoveryDocumentIntoUse() throws Exception {
+        Data data = Data.create(RuntimeEnvironment.application);
+        IdentityProvider idp = new IdentityProvider(
+                "https://idp.example.com/.well-known/openid-configuration", "client",
+                "secret", "app:/callback", "app:/logout", "openid");
+        data.init(idp);
+        data.setAuthState(new AuthState(TestValues.getTestServiceConfig()));
+        data.getDiscoveryCache().put(idp.getDiscoveryEndpoint(), new DiscoveryCache.Entry(
+                createDocument("https://idp.example.com"), null, null, 0L, 0L));
+
+        data.sessionReset();
+        assertEquals(Uri.parse("https://idp.example.com/token"),
+                data.getAuthState().getAuthorizationServiceConfiguration().tokenEndpoint);
+        assertEquals(Uri.parse("https://idp.example.com/logout"), data.getLogoutEndPoint());
+    }
+
+    private static JSONObject createDocument(String issuer) throws Exception {
+        return new JSONObject()
+                .put("issuer", issuer)
+                .put("authorization_endpoint", issuer + "/authorize")
+                .put("token_endpoint", issuer + "/token")
+                .put("end_session_endpoint", issuer + "/logout")
+                .put("jwks_uri", issuer + "/jwks")
+                .put("response_types_supported", new JSONArray().put("code"))
+                .put("subject_types_supported", new JSONArray().put("public"))
+                .put("id_token_signing_alg_values_supported", new JSONArray().put("RS256"));
+    }
+
+    private static AuthState createAuthState(String refreshToken) {
+        AuthState authState = new AuthState();
+        authState.update(TestValues.getTestAuthCodeExchangeResponseBuilder()
+                .setAccessToken("access")
+                .setRefreshToken(refreshToken)
+                .build(), null);
+        return authState;
+    }
+}
@@ -0,0 +1,162 @@
+package org.vaultit.mobilesso.mobilessosdk;
+
+import android.content.Context;
+import android.content.res.Resources;
+import android.net.Uri;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.net.HttpURLConnection;
+import java.nio.charset.Charset;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.mockito.Matchers.anyInt;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+@RunWith(RobolectricTestRunner.class)
+@Config(manifest=Config.NONE)
+public class DiscoveryCacheTest {
+    private static final Uri ENDPOINT =
+            Uri.parse("https://idp.example.com/.well-known/openid-configuration");
+
+    @Rule
+    public TemporaryFolder mDir = new TemporaryFolder();
+
+    @Test
+    public void maxAgeIsParsedFromCacheControl() {
+        assertEquals(DiscoveryCache.DEFAULT_MAX_AGE_MS, DiscoveryCache.parseMaxAge(null));
+        assertEquals(3600000L, DiscoveryCache.parseMaxAge("public, max-age=3600"));
+        assertEquals(0L, DiscoveryCache.parseMaxAge("no-cache, max-age=3600"));
+        assertEquals(0L, DiscoveryCache.parseMaxAge("No-Store"));
+        assertEquals(DiscoveryCache.DEFAULT_MAX_AGE_MS, DiscoveryCache.parseMaxAge("max-age=x"));
+    }
+
+    @Test
+    public void entryIsReadBackAfterReopen() throws Exception {
+        File file = new File(mDir.getRoot(), "discovery.bin");
+        JSONObject document = createDocument("https://idp.example.com");
+        new DiscoveryCache(new FileSessionStore(file)).put(ENDPOINT,
+                new DiscoveryCache.Entry(document, "\"v1\"", null, 1000L, 60000L));
+
+        DiscoveryCache.Entry entry = new DiscoveryCache(new FileSessionStore(file)).get(ENDPOINT);
+        assertEquals("\"v1\"", entry.etag);
+        assertNull(entry.lastModified);
+        assertFalse(entry.isStale(60999L));
+        assertTrue(entry.isStale(61000L));
+        assertTrue(entry.isStale(999L));  // clock moved back
+        assertEquals(Uri.parse("https://idp.example.com/token"),
+                entry.toConfiguration().tokenEndpoint);
+    }
+
+    @Test
+    public void snapshotOfSameIssuerIsUsedAndStale() throws Exception {
+        Context context = mockContextWithRaw(1, createDocument("https://idp.example.com"));
+        DiscoveryCache.Entry entry = DiscoveryCache.readSnapshot(context, 1, ENDPOINT);
+        assertNotNull(entry);
+        assertTrue(entry.isStale(System.currentTimeMillis()));
+    }
+
+    @Test
+    public void snapshotOfOtherIssuerIsRejected() throws Exception {
+        Context context = mockContextWithRaw(1, createDocument("https://test.example.com"));
+        assertNull(DiscoveryCache.readSnapshot(context, 1, ENDPOINT));
+        assertNull(DiscoveryCache.readSnapshot(context, 2, ENDPOINT));  // missing resource
+    }
+
+    @Test
+    public void clearRemovesEntries() throws Exception {
+        DiscoveryCache cache =
+                new DiscoveryCache(new FileSessionStore(new File(mDir.getRoot(), "d.bin")));
+        cache.put(ENDPOINT, new DiscoveryCache.Entry(new JSONObject(), null, null, 0L, 0L));
+        cache.clear();
+        assertNull(cache.get(ENDPOINT));
+    }
+
+    @Test
+    public void notModifiedRenewsCachedEntry() throws Exception {
+        JSONObject document = createDocument("https://idp.example.com");
+        DiscoveryCache.Entry cached = new DiscoveryCache.Entry(document, "\"v1\"",
+                "Mon, 01 Oct 2018 10:00:00 GMT", 1000L, 60000L);
+        HttpURLConnection conn = mock(HttpURLConnection.class);
+        when(conn.getResponseCode()).thenReturn(HttpURLConnection.HTTP_NOT_MODIFIED);
+        when(conn.getHeaderField("ETag")).thenReturn("\"v2\"");
+        when(conn.getHeaderField("Cache-Control")).thenReturn("max-age=600");
+        IdpTransport transport = mock(IdpTransport.class);
+        when(transport.openConnection(ENDPOINT)).thenReturn(conn);
+
+        long before = System.currentTimeMillis();
+        DiscoveryCache.Entry entry = DiscoveryCache.fetch(transport, ENDPOINT, cached);
+
+        verify(conn).setRequestProperty("If-None-Match", "\"v1\"");
+        verify(conn).setRequestProperty("If-Modified-Since", "Mon, 01 Oct 2018 10:00:00 GMT");
+        verify(conn, never()).getInputStream();
+        assertSame(document, entry.document);
+        assertEquals("\"v2\"", entry.etag);
+        assertEquals("Mon, 01 Oct 2018 10:00:00 GMT", entry.lastModified);
+        assertEquals(600000L, entry.maxAgeMs);
+        assertTrue(entry.fetchedAt >= before);
+        assertFalse(entry.isStale(System.currentTimeMillis()));
+    }
+
+    @Test
+    public void failedRequestThrows() throws Exception {
+        HttpURLConnection conn = mock(HttpURLConnection.class);
+        when(conn.getResponseCode()).thenReturn(HttpURLConnection.HTTP_INTERNAL_ERROR);
+        when(conn.getErrorStream()).thenReturn(
+                new ByteArrayInputStream("error".getBytes(Charset.forName("UTF-8"))));
+        IdpTransport transport = mock(IdpTransport.class);
+        when(transport.openConnection(ENDPOINT)).thenReturn(conn);
+
+        try {
+            DiscoveryCache.fetch(transport, ENDPOINT, null);
+            fail("failed discovery request returned an entry");
+        } catch (IOException ex) {
+            // expected
+        }
+        verify(conn, never()).setRequestProperty(eq("If-None-Match"), anyString());
+        verify(conn, never()).getInputStream();
+    }
+
+    private static JSONObject createDocument(String issuer) throws Exception {
+        return new JSONObject()
+                .put("issuer", issuer)
+                .put("authorization_endpoint", issuer + "/authorize")
+                .put("token_endpoint", issuer + "/token")
+                .put("jwks_uri", issuer + "/jwks")
+                .put("response_types_supported", new JSONArray().put("code"))
+                .put("subject_types_supported", new JSONArray().put("public"))
+                .put("id_token_signing_alg_values_supported", new JSONArray().put("RS256"));
+    }
+
+    private static Context mockContextWithRaw(int resId, JSONObject document) {
+        Resources resources = mock(Resources.class);
+        when(resources.openRawResource(anyInt())).thenThrow(new Resources.NotFoundException());
+        doReturn(new ByteArrayInputStream(document.toString().getBytes(Charset.forName("UTF-8"))))
+                .when(resources).openRawResource(resId);
+        Context context = mock(Context.class);
+        when(context.getResources()).thenReturn(resources);
+        return context;
+    }
+}
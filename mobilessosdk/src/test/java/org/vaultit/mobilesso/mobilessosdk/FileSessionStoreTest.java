@@ -0,0 +1,164 @@
+package org.vaultit.mobilesso.mobilessosdk;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.util.concurrent.CountDownLatch;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+@RunWith(RobolectricTestRunner.class)
+@Config(manifest=Config.NONE)
+public class FileSessionStoreTest {
+
+    @Rule
+    public TemporaryFolder mDir = new TemporaryFolder();
+
+    @Test
+    public void committedRecordsAreReadBack() throws Exception {
+        File file = new File(mDir.getRoot(), "session.bin");
+        FileSessionStore store = new FileSessionStore(file);
+        assertFalse(store.exists());
+        assertTrue(store.edit()
+                .putString("token", "\u00e4bc.def")
+                .putBoolean("flag", true)
+                .putString("removed", "x")
+                .commit());
+        assertTrue(store.edit().remove("removed").commit());
+
+        FileSessionStore reopened = new FileSessionStore(file);
+        assertEquals("\u00e4bc.def", reopened.getString("token"));
+        assertTrue(reopened.getBoolean("flag", false));
+        assertFalse(reopened.contains("removed"));
+        assertFalse(new File(file.getPath() + ".tmp").exists());
+    }
+
+    @Test
+    public void clearIsDoneBeforePuts() throws Exception {
+        FileSessionStore store = new FileSessionStore(new File(mDir.getRoot(), "session.bin"));
+        store.edit().putString("a", "1").putString("b", "2").commit();
+        store.edit().putString("a", "3").clear().commit();
+        assertEquals("3", store.getString("a"));
+        assertNull(store.getString("b"));
+    }
+
+    @Test
+    public void corruptedFileIsDiscarded() throws Exception {
+        File file = new File(mDir.getRoot(), "session.bin");
+        new FileSessionStore(file).edit().putString("token", "abc").commit();
+
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        raf.seek(raf.length() - 9);  // last byte of the value
+        raf.write('x');
+        raf.close();
+
+        FileSessionStore reopened = new FileSessionStore(file);
+        assertNull(reopened.getString("token"));
+        // next commit replaces the corrupted file
+        assertTrue(reopened.edit().putString("token", "def").commit());
+        assertEquals("def", new FileSessionStore(file).getString("token"));
+    }
+
+    @Test
+    public void commitsOfOtherProcessesAreSeenAndMerged() throws Exception {
+        // two stores of the same file stand for the stores of two processes
+        File file = new File(mDir.getRoot(), "session.bin");
+        FileSessionStore sync = new FileSessionStore(file);
+        FileSessionStore ui = new FileSessionStore(file);
+        sync.edit().putString("refreshToken", "r1").commit();
+        assertEquals("r1", ui.getString("refreshToken"));
+        assertFalse(ui.reloadIfChanged());
+
+        sync.edit().putString("refreshToken", "r2").commit();
+        assertTrue(ui.reloadIfChanged());
+        assertEquals("r2", ui.getString("refreshToken"));
+
+        // commit without reload does not overwrite the other process's change
+        sync.edit().putString("refreshToken", "r3").commit();
+        ui.edit().putBoolean("networkAvailable", false).commit();
+        FileSessionStore reopened = new FileSessionStore(file);
+        assertEquals("r3", reopened.getString("refreshToken"));
+        assertFalse(reopened.getBoolean("networkAvailable", true));
+        assertTrue(sync.reloadIfChanged());
+        assertFalse(sync.getBoolean("networkAvailable", true));
+    }
+
+    @Test
+    public void changesMergedByCommitAreReported() throws Exception {
+        File file = new File(mDir.getRoot(), "session.bin");
+        FileSessionStore a = new FileSessionStore(file);
+        FileSessionStore b = new FileSessionStore(file);
+        a.edit().putString("refreshToken", "r1").commit();
+        assertEquals("r1", b.getString("refreshToken"));
+
+        // A rotates the token, B commits another field before reloading
+        a.edit().putString("refreshToken", "r2").commit();
+        b.edit().putBoolean("networkAvailable", false).commit();
+        assertTrue(b.reloadIfChanged());
+        assertEquals("r2", b.getString("refreshToken"));
+        assertFalse(b.reloadIfChanged());
+    }
+
+    @Test
+    public void tryLockGivesUpWhileLockIsHeld() throws Exception {
+        final FileSessionStore store = new FileSessionStore(new File(mDir.getRoot(), "s.bin"));
+        final CountDownLatch locked = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        Thread holder = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                // released in the thread which acquired it
+                SessionStore.ProcessLock lock = store.lockAcrossProcesses();
+                locked.countDown();
+                try {
+                    release.await();
+                } catch (InterruptedException ex) {
+                    Thread.currentThread().interrupt();
+                } finally {
+                    lock.release();
+                }
+            }
+        });
+        holder.start();
+        locked.await();
+
+        assertNull(store.tryLockAcrossProcesses(50));
+        release.countDown();
+        holder.join();
+        SessionStore.ProcessLock lock = store.tryLockAcrossProcesses(5000);
+        assertNotNull(lock);
+        lock.release();
+    }
+
+    @Test
+    public void preferencesAreMigratedOnce() throws Exception {
+        Context context = RuntimeEnvironment.application;
+        SharedPreferences prefs = context.getSharedPreferences(Data.FILE_SAVED_APP_STATE,
+                Context.MODE_PRIVATE);
+        prefs.edit().putString("idpInJson", "{}").putBoolean("networkAvailable", false).commit();
+        //noinspection ResultOfMethodCallIgnored
+        new File(context.getFilesDir(), Data.FILE_SESSION_STORE).delete();
+
+        SessionStore store = Data.openStore(context);
+        assertEquals("{}", store.getString("idpInJson"));
+        assertFalse(store.getBoolean("networkAvailable", true));
+        assertTrue(prefs.getAll().isEmpty());
+
+        prefs.edit().putString("idpInJson", "stale").commit();
+        assertEquals("{}", Data.openStore(context).getString("idpInJson"));
+    }
+}
@@ -0,0 +1,92 @@
+package org.vaultit.mobilesso.mobilessosdk;
+
+import android.util.Base64;
+
+import com.google.gson.GsonBuilder;
+
+import org.json.JSONObject;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Microbenchmark of decoding an ID token into IdTokenPayload and serializing it for storage:
+ * "legacy" is the JSONObject and Gson based code which the streaming parser replaced.
+ * Allocated bytes per token are measured with the HotSpot ThreadMXBean.  Runs only when
+ * benchmarks are enabled, see Benchmarks.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(manifest=Config.NONE)
+public class IdTokenPayloadBenchmarkTest {
+    private static final int WARMUP_ROUNDS = 2000;
+    private static final int ROUNDS = 20000;
+
+    private final String mIdToken = IdTokenPayloadTest.createIdToken(IdTokenPayloadTest.PAYLOAD);
+
+    @Test
+    public void streamingAllocatesLessThanLegacy() throws Exception {
+        Benchmarks.assumeEnabled();
+        com.sun.management.ThreadMXBean threads = Benchmarks.allocationCounter();
+
+        long[] legacy = measure(threads, true);
+        long[] streaming = measure(threads, false);
+        Benchmarks.report("IdTokenPayload per token: legacy=" + legacy[0] + " ns " +
+                legacy[1] + " bytes, streaming=" + streaming[0] + " ns " + streaming[1] +
+                " bytes");
+        assertTrue(streaming[1] < legacy[1]);
+    }
+
+    // nanoseconds and allocated bytes per token
+    private long[] measure(com.sun.management.ThreadMXBean threads, boolean legacy)
+            throws Exception {
+        long threadId = Thread.currentThread().getId();
+        for (int i = 0; i < WARMUP_ROUNDS; i++) {
+            decode(legacy);
+        }
+        long bytes = threads.getThreadAllocatedBytes(threadId);
+        long start = System.nanoTime();
+        for (int i = 0; i < ROUNDS; i++) {
+            decode(legacy);
+        }
+        long time = System.nanoTime() - start;
+        bytes = threads.getThreadAllocatedBytes(threadId) - bytes;
+        return new long[] { time / ROUNDS, bytes / ROUNDS };
+    }
+
+    private String decode(boolean legacy) throws Exception {
+        if (!legacy) {
+            return IdTokenPayload.fromIdToken(mIdToken).serializeToJson();
+        }
+        // as done before: split, decode to string, JSONObject, field by field, new Gson
+        String json = new String(Base64.decode(mIdToken.split("\\.")[1], Base64.URL_SAFE),
+                "UTF-8");
+        JSONObject claims = new JSONObject(json);
+        LegacyPayload payload = new LegacyPayload();
+        payload.iat = claims.getLong("iat");
+        payload.exp = claims.getLong("exp");
+        payload.auth_time = claims.getLong("auth_time");
+        payload.iss = claims.getString("iss");
+        payload.aud = claims.get("aud").toString();
+        payload.oxOpenIDConnectVersion = claims.getString("oxOpenIDConnectVersion");
+        payload.oxValidationURI = claims.getString("oxValidationURI");
+        payload.sub = claims.getString("sub");
+        payload.name = claims.optString("name");
+        return new GsonBuilder().create().toJson(payload);
+    }
+
+    @SuppressWarnings("unused")
+    private static class LegacyPayload {
+        long iat;
+        long exp;
+        long auth_time;
+        String iss;
+        String aud;
+        String oxOpenIDConnectVersion;
+        String oxValidationURI;
+        String sub;
+        String name;
+    }
+}
@@ -0,0 +1,50 @@
+package org.vaultit.mobilesso.mobilessosdk;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+@RunWith(RobolectricTestRunner.class)
+@Config(manifest=Config.NONE)
+public class IdTokenPayloadCacheTest {
+    private final String mIdToken = IdTokenPayloadTest.createIdToken(IdTokenPayloadTest.PAYLOAD);
+
+    @Before
+    public void setUp() {
+        IdTokenPayloadCache.clear();
+    }
+
+    @Test
+    public void tokenIsDecodedOnce() {
+        long decodes = IdTokenPayloadCache.getDecodeCount();
+        IdTokenPayload payload = IdTokenPayloadCache.get(mIdToken);
+        assertEquals("user", payload.sub);
+        // equal token in another string, e.g. read back from storage
+        assertSame(payload, IdTokenPayloadCache.get(new String(mIdToken)));
+        assertEquals(decodes + 1, IdTokenPayloadCache.getDecodeCount());
+    }
+
+    @Test
+    public void changedTokenIsDecoded() {
+        IdTokenPayload payload = IdTokenPayloadCache.get(mIdToken);
+        String refreshed = IdTokenPayloadTest.createIdToken(
+                IdTokenPayloadTest.PAYLOAD.replace("\"sub\":\"user\"", "\"sub\":\"other\""));
+        IdTokenPayload refreshedPayload = IdTokenPayloadCache.get(refreshed);
+        assertNotSame(payload, refreshedPayload);
+        assertEquals("other", refreshedPayload.sub);
+    }
+
+    @Test
+    public void invalidTokenIsNull() {
+        assertNull(IdTokenPayloadCache.get("no-dots"));
+        assertNull(IdTokenPayloadCache.get(
+                IdTokenPayloadTest.createIdToken("{\"iat\":1508760000}")));
+    }
+}
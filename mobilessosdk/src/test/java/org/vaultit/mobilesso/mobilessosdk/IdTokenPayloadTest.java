@@ -0,0 +1,69 @@
+package org.vaultit.mobilesso.mobilessosdk;
+
+import android.util.Base64;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.nio.charset.Charset;
+import java.util.Arrays;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+@RunWith(RobolectricTestRunner.class)
+@Config(manifest=Config.NONE)
+public class IdTokenPayloadTest {
+    static final String PAYLOAD = "{\"iat\":1508760000,\"exp\":4102444800," +
+            "\"auth_time\":1508760000,\"iss\":\"https:\\/\\/idp.example.com\"," +
+            "\"aud\":[\"client_id\",\"other\"],\"oxOpenIDConnectVersion\":\"openidconnect-1.0\"," +
+            "\"oxValidationURI\":\"https://idp.example.com/oxauth/opiframe\"," +
+            "\"sub\":\"user\",\"amr\":[\"10\"],\"address\":{\"country\":\"FI\"}," +
+            "\"name\":\"T\\u00e4st \\\"User\\\"\",\"email_verified\":true}";
+
+    static String createIdToken(String payload) {
+        int flags = Base64.URL_SAFE | Base64.NO_WRAP | Base64.NO_PADDING;
+        return Base64.encodeToString("{\"alg\":\"RS256\"}".getBytes(Charset.forName("UTF-8")),
+                flags) + "." +
+                Base64.encodeToString(payload.getBytes(Charset.forName("UTF-8")), flags) +
+                ".c2lnbmF0dXJl";
+    }
+
+    @Test
+    public void claimsAreReadFromIdToken() {
+        IdTokenPayload payload = IdTokenPayload.fromIdToken(createIdToken(PAYLOAD));
+        assertTrue(payload.isValid());
+        assertEquals(4102444800L, payload.exp);  // beyond int range
+        assertEquals(4102444800000L, payload.getExpirationTime().getTime());
+        assertEquals("https://idp.example.com", payload.iss);
+        assertEquals("client_id", payload.aud);
+        assertEquals(Arrays.asList("client_id", "other"), payload.getAudiences());
+        assertTrue(payload.hasAudience("other"));
+        assertFalse(payload.hasAudience("client"));
+        assertEquals("T\u00e4st \"User\"", payload.name);
+        assertNull(payload.inum);
+    }
+
+    @Test
+    public void serializedPayloadIsReadBack() {
+        IdTokenPayload payload = new IdTokenPayload(
+                new IdTokenPayload(PAYLOAD).serializeToJson());
+        assertTrue(payload.isValid());
+        assertEquals(4102444800L, payload.exp);
+        assertEquals("T\u00e4st \"User\"", payload.name);
+        assertEquals("user", payload.getPersonResourceId());
+        assertEquals(Arrays.asList("client_id", "other"), payload.getAudiences());
+    }
+
+    @Test
+    public void malformedPayloadIsNotValid() {
+        assertFalse(new IdTokenPayload("{\"iat\":1508760000}").isValid());
+        assertFalse(new IdTokenPayload("{\"iat\":").isValid());
+        assertNull(IdTokenPayload.fromIdToken("no-dots"));
+        assertNull(IdTokenPayload.fromIdToken("a.b*d.c"));
+    }
+}
@@ -0,0 +1,157 @@
+package org.vaultit.mobilesso.mobilessosdk;
+
+import android.net.Uri;
+import android.support.annotation.NonNull;
+import android.util.Base64;
+
+import net.openid.appauth.AuthorizationException;
+import net.openid.appauth.AuthorizationServiceConfiguration;
+import net.openid.appauth.AuthorizationServiceDiscovery;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.io.File;
+import java.io.IOException;
+import java.math.BigInteger;
+import java.net.HttpURLConnection;
+import java.nio.charset.Charset;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.Signature;
+import java.security.interfaces.RSAPublicKey;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+@RunWith(RobolectricTestRunner.class)
+@Config(manifest=Config.NONE)
+public class IdTokenVerifierTest {
+    private static final String ISSUER = "https://idp.example.com";
+    private static final String JWKS_URI = ISSUER + "/jwks";
+    private static final String CLIENT_ID = "client";
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    // fails the test if key set is fetched
+    private static final IdpTransport NO_NETWORK = new IdpTransport() {
+        @NonNull
+        @Override
+        public HttpURLConnection openConnection(@NonNull Uri uri) throws IOException {
+            throw new IOException("no network in test");
+        }
+    };
+
+    @Rule
+    public TemporaryFolder mDir = new TemporaryFolder();
+
+    private KeyPair mKeyPair;
+    private AuthorizationServiceConfiguration mConfig;
+    private IdTokenVerifier mVerifier;
+
+    @Before
+    public void setUp() throws Exception {
+        KeyPairGenerator generator = KeyPairGenerator.getInstance("RSA");
+        generator.initialize(2048);
+        mKeyPair = generator.generateKeyPair();
+        RSAPublicKey key = (RSAPublicKey) mKeyPair.getPublic();
+        JSONObject jwks = new JSONObject().put("keys", new JSONArray().put(new JSONObject()
+                .put("kty", "RSA")
+                .put("kid", "k1")
+                .put("n", encode(unsigned(key.getModulus())))
+                .put("e", encode(unsigned(key.getPublicExponent())))));
+        FileSessionStore store = new FileSessionStore(new File(mDir.getRoot(), "jwks.bin"));
+        store.edit().putString(JWKS_URI, jwks.toString()).commit();
+        mVerifier = new IdTokenVerifier(new JwksCache(store));
+
+        mConfig = new AuthorizationServiceConfiguration(new AuthorizationServiceDiscovery(
+                new JSONObject()
+                        .put("issuer", ISSUER)
+                        .put("authorization_endpoint", ISSUER + "/authorize")
+                        .put("token_endpoint", ISSUER + "/token")
+                        .put("jwks_uri", JWKS_URI)
+                        .put("response_types_supported", new JSONArray().put("code"))
+                        .put("subject_types_supported", new JSONArray().put("public"))
+                        .put("id_token_signing_alg_values_supported",
+                                new JSONArray().put("RS256"))));
+    }
+
+    @Test
+    public void validTokenIsVerifiedWithCachedKey() throws Exception {
+        String token = createToken("k1", ISSUER, CLIENT_ID);
+        mVerifier.verify(NO_NETWORK, mConfig, CLIENT_ID, token);
+        mVerifier.verify(NO_NETWORK, mConfig, CLIENT_ID, token);  // memoized
+    }
+
+    @Test
+    public void tamperedTokenIsRejected() throws Exception {
+        String[] parts = createToken("k1", ISSUER, CLIENT_ID).split("\\.");
+        String payload = encode(("{\"iss\":\"" + ISSUER + "\",\"aud\":\"" + CLIENT_ID +
+                "\",\"sub\":\"other\"}").getBytes(UTF_8));
+        assertRejected(parts[0] + "." + payload + "." + parts[2]);
+    }
+
+    @Test
+    public void wrongIssuerOrAudienceIsRejected() throws Exception {
+        assertRejected(createToken("k1", "https://evil.example.com", CLIENT_ID));
+        assertRejected(createToken("k1", ISSUER, "other-client"));
+    }
+
+    @Test
+    public void unknownKeyIdFetchesKeySet() throws Exception {
+        String token = createToken("k2", ISSUER, CLIENT_ID);
+        // fetched, then not found within the refetch interval: not a rejection either time
+        for (int i = 0; i < 2; i++) {
+            try {
+                mVerifier.verify(NO_NETWORK, mConfig, CLIENT_ID, token);
+                fail("key set not fetched");
+            } catch (AuthorizationException ex) {
+                assertEquals(AuthorizationException.GeneralErrors.NETWORK_ERROR.code, ex.code);
+                assertFalse(IdTokenVerifier.isIdTokenRejectedError(ex));
+            }
+        }
+    }
+
+    private void assertRejected(String token) {
+        try {
+            mVerifier.verify(NO_NETWORK, mConfig, CLIENT_ID, token);
+            fail("token accepted");
+        } catch (AuthorizationException ex) {
+            assertTrue(IdTokenVerifier.isIdTokenRejectedError(ex));
+        }
+    }
+
+    private String createToken(String kid, String issuer, String audience) throws Exception {
+        String header = encode(new JSONObject().put("alg", "RS256").put("kid", kid)
+                .toString().getBytes(UTF_8));
+        String payload = encode(new JSONObject().put("iss", issuer).put("aud", audience)
+                .put("sub", "person").toString().getBytes(UTF_8));
+        Signature signature = Signature.getInstance("SHA256withRSA");
+        signature.initSign(mKeyPair.getPrivate());
+        signature.update((header + "." + payload).getBytes(UTF_8));
+        return header + "." + payload + "." + encode(signature.sign());
+    }
+
+    private static String encode(byte[] bytes) {
+        return Base64.encodeToString(bytes, Base64.URL_SAFE | Base64.NO_WRAP | Base64.NO_PADDING);
+    }
+
+    // big endian bytes without the sign byte
+    private static byte[] unsigned(BigInteger value) {
+        byte[] bytes = value.toByteArray();
+        if (bytes[0] != 0) {
+            return bytes;
+        }
+        byte[] trimmed = new byte[bytes.length - 1];
+        System.arraycopy(bytes, 1, trimmed, 0, trimmed.length);
+        return trimmed;
+    }
+}
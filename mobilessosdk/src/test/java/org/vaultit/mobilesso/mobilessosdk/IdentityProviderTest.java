@@ -0,0 +1,44 @@
+package org.vaultit.mobilesso.mobilessosdk;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+
+@RunWith(RobolectricTestRunner.class)
+@Config(manifest=Config.NONE)
+public class IdentityProviderTest {
+
+    private static IdentityProvider createIdp() {
+        return new IdentityProvider(
+                "https://idp.example.com/.well-known/openid-configuration",
+                TestValues.TEST_CLIENT_ID,
+                "client_secret",
+                "test.mobilessodemo.auth://oidc_callback",
+                "test.mobilessodemo.logout://oidc_callback",
+                TestValues.TEST_SCOPE);
+    }
+
+    @Test
+    public void refreshAheadDefaultsWhenNotSet() throws Exception {
+        IdentityProvider idp = IdentityProvider.deserializeFromJson(createIdp().serializeToJson());
+        assertEquals(IdentityProvider.DEFAULT_REFRESH_AHEAD_MS, idp.getRefreshAheadMs());
+    }
+
+    @Test
+    public void refreshAheadIsSerialized() throws Exception {
+        IdentityProvider idp = createIdp();
+        idp.setRefreshAhead(3, TimeUnit.MINUTES);
+        IdentityProvider restored = IdentityProvider.deserializeFromJson(idp.serializeToJson());
+        assertEquals(180000L, restored.getRefreshAheadMs());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void negativeRefreshAheadIsRejected() throws Exception {
+        createIdp().setRefreshAhead(-1, TimeUnit.SECONDS);
+    }
+}
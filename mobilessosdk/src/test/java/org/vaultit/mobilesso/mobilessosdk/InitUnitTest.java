@@ -4,7 +4,9 @@ import android.content.Context;
 import android.content.SharedPreferences;
 import android.content.pm.PackageManager;
 
+import org.junit.Rule;
 import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
 import org.junit.runner.RunWith;
 import org.mockito.Mock;
 import org.mockito.MockitoAnnotations;
@@ -23,6 +25,9 @@ import static org.mockito.Mockito.when;
 @Config(constants = BuildConfig.class, sdk=16)
 public class InitUnitTest {
 
+    @Rule
+    public TemporaryFolder mFilesDir = new TemporaryFolder();
+
     @Mock
     Context mockContext;
     @Mock
@@ -42,6 +47,8 @@ public class InitUnitTest {
 
         //when(mockManager.queryIntentActivities(net.openid.appauth.browser.BrowserSelector.BROWSER_)).thenReturn(64);
         when(mockContext.getPackageManager()).thenReturn(mockManager);
+        when(mockContext.getApplicationContext()).thenReturn(mockContext);
+        when(mockContext.getFilesDir()).thenReturn(mFilesDir.getRoot());
         when(mockEditor2.commit()).thenReturn(true);
         when(mockEditor.clear()).thenReturn(mockEditor2);
         when(mockPrefs.edit()).thenReturn(mockEditor);
@@ -51,7 +58,10 @@ public class InitUnitTest {
 
         SessionManager sdk = new SessionManager(mockContext, mockIdentityProvider);
         //sdk.cleanLocalData();
+        // preferences are cleared after migration to the session store
         verify(mockPrefs).edit();
+        verify(mockEditor).clear();
+        verify(mockEditor2).commit();
 /*        verify(mockEditor).clear();
         verify(mockEditor2).apply();*/
 
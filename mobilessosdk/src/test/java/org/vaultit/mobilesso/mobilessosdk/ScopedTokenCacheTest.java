@@ -0,0 +1,68 @@
+package org.vaultit.mobilesso.mobilessosdk;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.util.Arrays;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+@RunWith(RobolectricTestRunner.class)
+@Config(manifest=Config.NONE)
+public class ScopedTokenCacheTest {
+
+    private static ScopedToken token(String scope, long validForMs) {
+        return new ScopedToken(scope, "token-" + scope, "Bearer",
+                System.currentTimeMillis() + validForMs);
+    }
+
+    @Test
+    public void scopeKeyIsOrderIndependent() throws Exception {
+        assertEquals("email openid", ScopedToken.scopeKey(Arrays.asList("openid", "email")));
+        assertEquals("email openid", ScopedToken.scopeKey(Arrays.asList(" email", "openid", "")));
+    }
+
+    @Test
+    public void evictsLeastRecentlyUsed() throws Exception {
+        ScopedTokenCache cache = new ScopedTokenCache(2);
+        cache.put(token("a", 600000));
+        cache.put(token("b", 600000));
+        assertNotNull(cache.get("a", 0));  // b is now least recently used
+        cache.put(token("c", 600000));
+
+        assertEquals(2, cache.size());
+        assertNotNull(cache.get("a", 0));
+        assertNull(cache.get("b", 0));
+        assertNotNull(cache.get("c", 0));
+    }
+
+    @Test
+    public void tokenNearExpiryIsNotReturned() throws Exception {
+        ScopedTokenCache cache = new ScopedTokenCache();
+        cache.put(token("a", 30000));
+        assertNull(cache.get("a", 60000));
+        assertNotNull(cache.get("a", 0));
+
+        cache.put(token("b", -1000));
+        assertNull(cache.get("b", 0));
+        assertEquals(1, cache.size());
+    }
+
+    @Test
+    public void serializationKeepsTokensAndOrder() throws Exception {
+        ScopedTokenCache cache = new ScopedTokenCache(2);
+        cache.put(token("a", 600000));
+        cache.put(token("b", 600000));
+        cache.get("a", 0);
+
+        ScopedTokenCache restored = new ScopedTokenCache(2);
+        restored.deserializeFromJson(cache.serializeToJson());
+        assertEquals("token-a", restored.get("a", 0).getAccessToken());
+        restored.put(token("c", 600000));
+        assertNull(restored.get("b", 0));
+    }
+}
@@ -0,0 +1,211 @@
+package org.vaultit.mobilesso.mobilessosdk;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import org.junit.After;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+@RunWith(RobolectricTestRunner.class)
+@Config(manifest=Config.NONE)
+public class SessionFutureTest {
+
+    // records tasks and runs them only when asked, to see what runs on the executor
+    private static class QueueExecutor implements Executor {
+        final List<Runnable> mTasks = new ArrayList<>();
+
+        @Override
+        public void execute(@NonNull Runnable command) {
+            mTasks.add(command);
+        }
+
+        void runAll() {
+            List<Runnable> tasks = new ArrayList<>(mTasks);
+            mTasks.clear();
+            for (Runnable task : tasks) {
+                task.run();
+            }
+        }
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        Data.releaseInstance();
+    }
+
+    @Test
+    public void cancelledFutureThrowsCancellationException() throws Exception {
+        SessionFuture future = new SessionFuture(SessionFuture.DIRECT_EXECUTOR);
+        final boolean[] called = new boolean[1];
+        future.addCallback(new SessionManager.TokenRefreshCallback() {
+            @Override
+            public void tokenRefreshCallback(@Nullable Session session,
+                                             @Nullable SessionError error) {
+                called[0] = true;
+            }
+        });
+        Future<String> continuation = future.then(new SessionFuture.Continuation<String>() {
+            @Override
+            public String apply(Session session) {
+                return "request";
+            }
+        });
+
+        assertTrue(future.cancel(false));
+        assertTrue(future.isCancelled());
+        assertTrue(future.isDone());
+        assertFalse(called[0]);
+        assertTrue(continuation.isCancelled());
+        try {
+            future.get();
+            fail("cancelled future returned a session");
+        } catch (CancellationException ex) {
+            // expected
+        }
+
+        // completion after cancellation has no effect
+        assertFalse(future.complete(null, null));
+        assertFalse(future.cancel(false));
+    }
+
+    @Test
+    public void completionTasksRunOnExecutorInOrder() throws Exception {
+        QueueExecutor executor = new QueueExecutor();
+        SessionFuture future = new SessionFuture(executor);
+        final List<String> calls = new ArrayList<>();
+        future.addCallback(new SessionManager.TokenRefreshCallback() {
+            @Override
+            public void tokenRefreshCallback(@Nullable Session session,
+                                             @Nullable SessionError error) {
+                calls.add("callback");
+            }
+        });
+        Future<String> continuation = future.then(new SessionFuture.Continuation<String>() {
+            @Override
+            public String apply(@NonNull Session session) {
+                calls.add("then");
+                return "request";
+            }
+        });
+        assertTrue(executor.mTasks.isEmpty());
+
+        Session session = new Session(RuntimeEnvironment.application);
+        assertTrue(future.complete(session, null));
+        assertEquals(2, executor.mTasks.size());
+        assertTrue(calls.isEmpty());  // not run in the completing thread
+        executor.runAll();
+        assertEquals(Arrays.asList("callback", "then"), calls);
+        assertEquals("request", continuation.get(0, TimeUnit.MILLISECONDS));
+        assertSame(session, future.get(0, TimeUnit.MILLISECONDS));
+
+        // added after completion, still run on the executor
+        future.addCallback(new SessionManager.TokenRefreshCallback() {
+            @Override
+            public void tokenRefreshCallback(@Nullable Session session,
+                                             @Nullable SessionError error) {
+                calls.add("late");
+            }
+        });
+        assertEquals(1, executor.mTasks.size());
+        executor.runAll();
+        assertEquals(Arrays.asList("callback", "then", "late"), calls);
+    }
+
+    @Test
+    public void failedFutureFailsContinuation() throws Exception {
+        SessionFuture future = new SessionFuture(SessionFuture.DIRECT_EXECUTOR);
+        final boolean[] applied = new boolean[1];
+        Future<String> continuation = future.then(new SessionFuture.Continuation<String>() {
+            @Override
+            public String apply(@NonNull Session session) {
+                applied[0] = true;
+                return "request";
+            }
+        });
+        future.complete(null, new SessionError(
+                SessionError.ErrorCode.SESSION_REFRESH_NETWORK_ERROR, "no network"));
+
+        assertFalse(applied[0]);
+        try {
+            continuation.get(0, TimeUnit.MILLISECONDS);
+            fail("continuation of failed future succeeded");
+        } catch (ExecutionException ex) {
+            assertEquals(SessionError.ErrorCode.SESSION_REFRESH_NETWORK_ERROR,
+                    ((SessionException) ex.getCause()).getErrorCode());
+        }
+    }
+
+    @Test
+    public void timeoutFailsFuture() throws Exception {
+        SessionFuture future = new SessionFuture(SessionFuture.DIRECT_EXECUTOR)
+                .withTimeout(10, TimeUnit.MILLISECONDS);
+        try {
+            future.get(5, TimeUnit.SECONDS);
+            fail("timed out future returned a session");
+        } catch (ExecutionException ex) {
+            assertEquals(SessionError.ErrorCode.SESSION_REFRESH_TIMEOUT_ERROR,
+                    ((SessionException) ex.getCause()).getErrorCode());
+        }
+        assertFalse(future.complete(null, null));  // timeout completed it
+    }
+
+    @Test
+    public void completionCancelsTimeout() throws Exception {
+        int pending = SessionFuture.getPendingTimeoutCount();
+        SessionFuture future = new SessionFuture(SessionFuture.DIRECT_EXECUTOR)
+                .withTimeout(1, TimeUnit.HOURS);
+        assertEquals(pending + 1, SessionFuture.getPendingTimeoutCount());
+
+        future.complete(null, new SessionError(
+                SessionError.ErrorCode.SESSION_REFRESH_NETWORK_ERROR, "no network"));
+        assertEquals(pending, SessionFuture.getPendingTimeoutCount());
+
+        // not scheduled for a completed future
+        future.withTimeout(1, TimeUnit.HOURS);
+        assertEquals(pending, SessionFuture.getPendingTimeoutCount());
+    }
+
+    @Test
+    public void awaitAllWaitsForEveryFuture() throws Exception {
+        SessionFuture failed = new SessionFuture(SessionFuture.DIRECT_EXECUTOR);
+        failed.complete(null, new SessionError(
+                SessionError.ErrorCode.SESSION_REFRESH_NETWORK_ERROR, "no network"));
+        SessionFuture cancelled = new SessionFuture(SessionFuture.DIRECT_EXECUTOR);
+        cancelled.cancel(false);
+        SessionFuture.awaitAll(Arrays.asList(failed, cancelled), 0, TimeUnit.MILLISECONDS);
+
+        SessionFuture pending = new SessionFuture(SessionFuture.DIRECT_EXECUTOR);
+        try {
+            SessionFuture.awaitAll(Arrays.asList(failed, pending), 10, TimeUnit.MILLISECONDS);
+            fail("awaitAll() returned before all futures completed");
+        } catch (TimeoutException ex) {
+            // expected
+        }
+
+        SessionFuture late = new SessionFuture(SessionFuture.DIRECT_EXECUTOR)
+                .withTimeout(10, TimeUnit.MILLISECONDS);
+        SessionFuture.awaitAll(Collections.singletonList(late), 5, TimeUnit.SECONDS);
+        assertTrue(late.isDone());
+    }
+}
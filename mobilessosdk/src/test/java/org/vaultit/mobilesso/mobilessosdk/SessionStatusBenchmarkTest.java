@@ -0,0 +1,82 @@
+package org.vaultit.mobilesso.mobilessosdk;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Session.getStatus() and Session.getAccessToken() are called before every API request;
+ * checks that they allocate nothing once the session is cached, and that the cache follows
+ * token changes.  The allocation check is a benchmark, see Benchmarks.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(manifest=Config.NONE)
+public class SessionStatusBenchmarkTest {
+    private static final int WARMUP_ROUNDS = 20000;
+    private static final int ROUNDS = 200000;
+    private static final String EXPIRED_PAYLOAD = IdTokenPayloadTest.PAYLOAD
+            .replace("\"exp\":4102444800", "\"exp\":1508763600");
+
+    private Data mData;
+    private Session mSession;
+
+    @Before
+    public void setUp() {
+        mData = Data.getInstance(RuntimeEnvironment.application);
+        TestValues.setTestSession(mData, "access1", IdTokenPayloadTest.PAYLOAD);
+        mSession = new Session(RuntimeEnvironment.application);
+    }
+
+    @After
+    public void tearDown() {
+        Data.releaseInstance();
+    }
+
+    @Test
+    public void statusFollowsTokens() {
+        assertEquals(Session.SessionStatus.VALID, mSession.getStatus());
+        assertEquals("access1", mSession.getAccessToken());
+
+        mData.updateAuthState(TestValues.getTestTokenResponse("access2", EXPIRED_PAYLOAD), null);
+        assertEquals(Session.SessionStatus.EXPIRED, mSession.getStatus());
+        assertEquals("access2", mSession.getAccessToken());
+
+        mData.sessionReset();
+        assertEquals(Session.SessionStatus.NO_SESSION, mSession.getStatus());
+    }
+
+    @Test
+    public void statusChecksDoNotAllocate() {
+        Benchmarks.assumeEnabled();
+        com.sun.management.ThreadMXBean threads = Benchmarks.allocationCounter();
+
+        int valid = 0;
+        for (int i = 0; i < WARMUP_ROUNDS; i++) {
+            valid += check();
+        }
+        long threadId = Thread.currentThread().getId();
+        long bytes = threads.getThreadAllocatedBytes(threadId);
+        long start = System.nanoTime();
+        for (int i = 0; i < ROUNDS; i++) {
+            valid += check();
+        }
+        long time = System.nanoTime() - start;
+        bytes = threads.getThreadAllocatedBytes(threadId) - bytes;
+        Benchmarks.report("Session status check: " + (time / ROUNDS) + " ns " +
+                ((double) bytes / ROUNDS) + " bytes per call");
+        assertEquals(WARMUP_ROUNDS + ROUNDS, valid);
+        // allowance for the measurement itself, far less than one byte per call
+        assertEquals(0, bytes / ROUNDS);
+    }
+
+    private int check() {
+        return (mSession.getStatus() == Session.SessionStatus.VALID &&
+                mSession.getAccessToken() != null ? 1 : 0);
+    }
+}
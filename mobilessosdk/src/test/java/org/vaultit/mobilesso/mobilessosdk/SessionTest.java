@@ -1,14 +1,26 @@
 package org.vaultit.mobilesso.mobilessosdk;
 
+import org.junit.After;
 import org.junit.Test;
 import org.junit.runner.RunWith;
 import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
 import org.robolectric.annotation.Config;
 
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
 @RunWith(RobolectricTestRunner.class)
 @Config(manifest=Config.NONE)
 public class SessionTest {
 
+    @After
+    public void tearDown() throws Exception {
+        Data.releaseInstance();
+    }
 
     @Test
     public void serializeDeserializeSimpleSession() throws Exception {
@@ -21,4 +33,77 @@ public class SessionTest {
         assertEquals(se, se_deserialized);*/
     }
 
+    @Test
+    public void snapshotIsPinnedUntilSessionChanges() throws Exception {
+        Data data = Data.getInstance(RuntimeEnvironment.application);
+        TestValues.setTestSession(data, "access1", IdTokenPayloadTest.PAYLOAD);
+        Session session = new Session(RuntimeEnvironment.application);
+
+        SessionSnapshot snapshot = session.getSnapshot();
+        assertSame(snapshot, session.getSnapshot());  // unchanged, not created again
+        assertEquals("access1", snapshot.getAccessToken());
+        assertEquals(TestValues.TEST_REFRESH_TOKEN, snapshot.getRefreshToken());
+        assertEquals("user", snapshot.getIdTokenPayload().sub);
+
+        data.updateAuthState(
+                TestValues.getTestTokenResponse("access2", IdTokenPayloadTest.PAYLOAD), null);
+        assertEquals("access1", snapshot.getAccessToken());
+        assertEquals("access2", session.getAccessToken());
+        assertTrue(session.getSnapshot().getVersion() > snapshot.getVersion());
+
+        data.sessionReset();
+        assertNull(session.getAccessToken());
+        assertEquals(Session.SessionStatus.VALID, snapshot.getStatus());
+    }
+
+    @Test
+    public void snapshotsWithSameTokensAreEqual() throws Exception {
+        Data data = Data.getInstance(RuntimeEnvironment.application);
+        TestValues.setTestSession(data, "access1", IdTokenPayloadTest.PAYLOAD);
+        Session session = new Session(RuntimeEnvironment.application);
+        SessionSnapshot snapshot = session.getSnapshot();
+
+        // same tokens in new string instances, as after reading them back from storage
+        String sameToken = new String("access1");
+        data.updateAuthState(
+                TestValues.getTestTokenResponse(sameToken, IdTokenPayloadTest.PAYLOAD), null);
+        assertEquals(snapshot, session.getSnapshot());
+        assertEquals(snapshot.hashCode(), session.getSnapshot().hashCode());
+        assertEquals(session, new Session(RuntimeEnvironment.application));
+
+        data.updateAuthState(
+                TestValues.getTestTokenResponse("access2", IdTokenPayloadTest.PAYLOAD), null);
+        assertNotEquals(snapshot, session.getSnapshot());
+    }
+
+    @Test
+    public void sessionEqualityIsPinnedAtCreation() throws Exception {
+        Data data = Data.getInstance(RuntimeEnvironment.application);
+        TestValues.setTestSession(data, "access1", IdTokenPayloadTest.PAYLOAD);
+        Session session = new Session(RuntimeEnvironment.application);
+        int hashCode = session.hashCode();
+
+        data.updateAuthState(
+                TestValues.getTestTokenResponse("access2", IdTokenPayloadTest.PAYLOAD), null);
+        Session refreshed = new Session(RuntimeEnvironment.application);
+        assertEquals("access2", session.getAccessToken());  // getters stay live
+        assertEquals(hashCode, session.hashCode());
+        assertNotEquals(session, refreshed);
+        assertEquals(session.getSnapshot(), refreshed.getSnapshot());
+    }
+
+    @Test
+    public void validateAcceptsClientAmongSeveralAudiences() throws Exception {
+        Data data = Data.getInstance(RuntimeEnvironment.application);
+        // payload has aud ["client_id","other"]
+        data.init(new IdentityProvider(
+                "https://idp.example.com/.well-known/openid-configuration",
+                "other",
+                "client_secret",
+                "test.mobilessodemo.auth://oidc_callback",
+                "test.mobilessodemo.logout://oidc_callback",
+                "openid"));
+        TestValues.setTestSession(data, "access1", IdTokenPayloadTest.PAYLOAD);
+        assertTrue(new Session(RuntimeEnvironment.application).validate());
+    }
 }
@@ -16,6 +16,7 @@ package org.vaultit.mobilesso.mobilessosdk;
 
 import android.net.Uri;
 
+import net.openid.appauth.AuthState;
 import net.openid.appauth.AuthorizationRequest;
 import net.openid.appauth.AuthorizationResponse;
 import net.openid.appauth.AuthorizationServiceConfiguration;
@@ -119,6 +120,23 @@ class TestValues {
         return getTestAuthCodeExchangeResponseBuilder().build();
     }
 
+    public static TokenResponse getTestTokenResponse(String accessToken, String idTokenPayload) {
+        return getTestAuthCodeExchangeResponseBuilder()
+                .setAccessToken(accessToken)
+                .setIdToken(IdTokenPayloadTest.createIdToken(idTokenPayload))
+                .build();
+    }
+
+    /**
+     * Stores an authorized session with the given tokens in data.
+     */
+    public static void setTestSession(Data data, String accessToken, String idTokenPayload) {
+        AuthState authState = new AuthState();
+        authState.update(getTestAuthResponse(), null);
+        data.setAuthState(authState);
+        data.updateAuthState(getTestTokenResponse(accessToken, idTokenPayload), null);
+    }
+
     public static RegistrationRequest.Builder getTestRegistrationRequestBuilder() {
         return new RegistrationRequest.Builder(getTestServiceConfig(),
                 Arrays.asList(TEST_APP_REDIRECT_URI));
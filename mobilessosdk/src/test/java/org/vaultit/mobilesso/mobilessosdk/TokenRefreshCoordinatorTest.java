@@ -0,0 +1,86 @@
+package org.vaultit.mobilesso.mobilessosdk;
+
+import net.openid.appauth.AuthorizationException;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+@RunWith(RobolectricTestRunner.class)
+@Config(manifest=Config.NONE)
+public class TokenRefreshCoordinatorTest {
+
+    private static class RecordingWaiter implements TokenRefreshCoordinator.Waiter {
+        final List<AuthorizationException> results = new ArrayList<>();
+        int calls = 0;
+
+        @Override
+        public void onRefreshCompleted(AuthorizationException ex) {
+            calls++;
+            results.add(ex);
+        }
+    }
+
+    @Test
+    public void onlyFirstCallerStartsRoundTrip() throws Exception {
+        TokenRefreshCoordinator coordinator = new TokenRefreshCoordinator();
+        RecordingWaiter w1 = new RecordingWaiter();
+        RecordingWaiter w2 = new RecordingWaiter();
+        RecordingWaiter w3 = new RecordingWaiter();
+
+        assertTrue(coordinator.join(w1));
+        assertFalse(coordinator.join(w2));
+        assertFalse(coordinator.join(w3));
+        assertFalse(coordinator.join(null));
+        assertTrue(coordinator.isInFlight());
+
+        coordinator.complete(null);
+
+        assertFalse(coordinator.isInFlight());
+        assertEquals(1, w1.calls);
+        assertEquals(1, w2.calls);
+        assertEquals(1, w3.calls);
+        assertNull(w2.results.get(0));
+
+        TokenRefreshStatistics stats = coordinator.getStatistics();
+        assertEquals(1, stats.getRoundTrips());
+        assertEquals(4, stats.getCallersServed());
+        assertEquals(4, stats.getLastCallerCount());
+    }
+
+    @Test
+    public void errorIsSharedAndNextCallerStartsNewRoundTrip() throws Exception {
+        TokenRefreshCoordinator coordinator = new TokenRefreshCoordinator();
+        RecordingWaiter w1 = new RecordingWaiter();
+        RecordingWaiter w2 = new RecordingWaiter();
+        AuthorizationException ex = AuthorizationException.GeneralErrors.NETWORK_ERROR;
+
+        assertTrue(coordinator.join(w1));
+        assertFalse(coordinator.join(w2));
+        coordinator.complete(ex);
+        assertSame(ex, w1.results.get(0));
+        assertSame(ex, w2.results.get(0));
+
+        RecordingWaiter w3 = new RecordingWaiter();
+        assertTrue(coordinator.join(w3));
+        coordinator.complete(null);
+        assertEquals(1, w1.calls);
+        assertEquals(1, w3.calls);
+
+        TokenRefreshStatistics stats = coordinator.getStatistics();
+        assertEquals(2, stats.getRoundTrips());
+        assertEquals(3, stats.getCallersServed());
+        assertEquals(1, stats.getLastCallerCount());
+        assertEquals(2, stats.getMaxCallerCount());
+    }
+}
@@ -0,0 +1,56 @@
+package org.vaultit.mobilesso.mobilessosdk;
+
+import android.net.Uri;
+import android.support.annotation.NonNull;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.io.IOException;
+import java.net.HttpURLConnection;
+import java.net.ProtocolException;
+import java.net.URL;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.fail;
+
+@RunWith(RobolectricTestRunner.class)
+@Config(manifest=Config.NONE)
+public class TransportConnectionBuilderTest {
+
+    // counts calls, opens connections without connecting
+    private static class CountingTransport implements IdpTransport {
+        int mCalls = 0;
+
+        @NonNull
+        @Override
+        public HttpURLConnection openConnection(@NonNull Uri uri) throws IOException {
+            mCalls++;
+            return (HttpURLConnection) new URL(uri.toString()).openConnection();
+        }
+    }
+
+    @Test
+    public void httpIsRefusedBeforeTransport() throws Exception {
+        CountingTransport transport = new CountingTransport();
+        try {
+            TransportConnectionBuilder.openHttpsConnection(transport,
+                    Uri.parse("http://idp.example.com/token"));
+            fail("http connection opened");
+        } catch (ProtocolException ex) {
+            // expected
+        }
+        assertEquals(0, transport.mCalls);
+    }
+
+    @Test
+    public void httpsIsOpenedWithTransport() throws Exception {
+        CountingTransport transport = new CountingTransport();
+        assertNotNull(TransportConnectionBuilder.openHttpsConnection(transport,
+                Uri.parse("https://idp.example.com/token")));
+        assertEquals(1, transport.mCalls);
+    }
+}